@@ -0,0 +1,68 @@
+package org.wkh.swarmscale.optimization;
+
+/**
+ * Objective function that evaluates many positions in one call.
+ *
+ * EvaluationExecutor.evaluateAll hands a batch objective all of its positions at once on the calling thread instead of
+ * submitting one task per position. That lets an implementation set up shared state once per batch, reuse buffers
+ * across positions, simulate the whole population together, or spread the work over threads however suits it. Single
+ * evaluations, such as those made by asynchronous runs, go through evaluate(double[], int) as a batch of one.
+ *
+ * Use of(ObjectiveFunction, EvaluationExecutor) to run an ordinary objective wherever a batch objective is expected.
+ */
+public interface BatchObjectiveFunction extends ObjectiveFunction {
+
+    /**
+     * @param positions Positions to compute the fitness of. Must not be modified.
+     * @param iteration Current iteration, in order to change the fitness function as time progresses
+     * @param out Receives the fitness of positions[i] in out[i]
+     */
+    public void evaluate(double[][] positions, int iteration, double[] out);
+
+    /**
+     * Evaluate with per-position cutoffs, as described in CutoffObjectiveFunction. Cutoffs are ignored unless an
+     * implementation overrides this.
+     *
+     * @param cutoffs Cutoff for positions[i] in cutoffs[i], or null to evaluate everything fully
+     */
+    public default void evaluate(double[][] positions, int iteration, double[] cutoffs, double[] out) {
+        evaluate(positions, iteration, out);
+    }
+
+    @Override
+    public default double evaluate(double[] position, int iteration) {
+        final double[] out = new double[1];
+        evaluate(new double[][] {position}, iteration, out);
+
+        return out[0];
+    }
+
+    /**
+     * Adapt a single-position objective function by evaluating each position of a batch on an executor.
+     *
+     * @param objective Objective to adapt. Returned as is if it already is a batch objective.
+     * @param executor Where to run the individual evaluations
+     */
+    public static BatchObjectiveFunction of(ObjectiveFunction objective, EvaluationExecutor executor) {
+        if (objective instanceof BatchObjectiveFunction) {
+            return (BatchObjectiveFunction) objective;
+        }
+
+        return new BatchObjectiveFunction() {
+            @Override
+            public void evaluate(double[][] positions, int iteration, double[] out) {
+                executor.evaluateAll(objective, positions, iteration, out);
+            }
+
+            @Override
+            public void evaluate(double[][] positions, int iteration, double[] cutoffs, double[] out) {
+                executor.evaluateAll(objective, positions, iteration, cutoffs, out);
+            }
+
+            @Override
+            public double evaluate(double[] position, int iteration) {
+                return objective.evaluate(position, iteration);
+            }
+        };
+    }
+}
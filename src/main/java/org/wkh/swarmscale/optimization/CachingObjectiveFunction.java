@@ -0,0 +1,228 @@
+package org.wkh.swarmscale.optimization;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memoizes another objective function.
+ *
+ * Positions are quantized per dimension before lookup, so late in a run, when particles have collapsed onto nearly
+ * identical positions, they share one evaluation instead of each paying for a full simulation. The cache is a bounded
+ * LRU map and is safe to use from the parallel evaluator.
+ *
+ * The iteration argument is not part of the key, so this should only wrap objectives that don't change with iteration.
+ *
+ * For noisy objectives, samplesPerPosition > 1 keeps re-evaluating a position until that many samples have been
+ * collected and returns the running mean of the samples so far.
+ *
+ * Cutoffs are passed through to a CutoffObjectiveFunction only when samplesPerPosition is 1. Results above the cutoff
+ * may be lower bounds, so they are returned but not cached. With several samples per position that would drop exactly
+ * the bad samples and bias the mean, so those evaluations always run to completion.
+ */
+public class CachingObjectiveFunction implements CutoffObjectiveFunction {
+
+    private final ObjectiveFunction objective;
+    private final double[] quantization;
+    private final int samplesPerPosition;
+    private final Map<Key, Samples> cache;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param objective Objective function to cache
+     * @param quantization Grid spacing per dimension. Positions in the same grid cell share a cache entry. 0 means the
+     * dimension must match exactly.
+     * @param maximumSize Maximum number of cached positions. The least recently used entry is evicted beyond this.
+     */
+    public CachingObjectiveFunction(ObjectiveFunction objective, double[] quantization, int maximumSize) {
+        this(objective, quantization, maximumSize, 1);
+    }
+
+    /**
+     * @param objective Objective function to cache
+     * @param quantization Grid spacing per dimension. Positions in the same grid cell share a cache entry. 0 means the
+     * dimension must match exactly.
+     * @param maximumSize Maximum number of cached positions. The least recently used entry is evicted beyond this.
+     * @param samplesPerPosition Number of real evaluations to average per position before serving from the cache
+     */
+    public CachingObjectiveFunction(ObjectiveFunction objective, double[] quantization, int maximumSize,
+            int samplesPerPosition) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive, got " + maximumSize);
+        }
+
+        if (samplesPerPosition < 1) {
+            throw new IllegalArgumentException("Samples per position must be positive, got " + samplesPerPosition);
+        }
+
+        for (int d = 0; d < quantization.length; d++) {
+            if (quantization[d] < 0.0) {
+                throw new IllegalArgumentException("quantization[" + d + "] is negative");
+            }
+        }
+
+        this.objective = objective;
+        this.quantization = Arrays.copyOf(quantization, quantization.length);
+        this.samplesPerPosition = samplesPerPosition;
+
+        cache = new LinkedHashMap<Key, Samples>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Samples> eldest) {
+                if (size() > maximumSize) {
+                    evictions.increment();
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public double evaluate(double[] position, int iteration, double cutoff) {
+        if (position.length != quantization.length) {
+            throw new IllegalArgumentException("Got position of length " + position.length + " != "
+                    + quantization.length);
+        }
+
+        final Key key = new Key(quantize(position));
+
+        synchronized (cache) {
+            final Samples entry = cache.get(key);
+
+            if (entry != null && entry.isComplete()) {
+                hits.increment();
+                return entry.getMean();
+            }
+        }
+
+        misses.increment();
+
+        /* evaluate outside the lock; concurrent misses on the same position just contribute extra samples */
+        final boolean passCutoff = samplesPerPosition == 1 && objective instanceof CutoffObjectiveFunction;
+        final double fitness = passCutoff
+                ? ((CutoffObjectiveFunction) objective).evaluate(position, iteration, cutoff)
+                : objective.evaluate(position, iteration);
+
+        if (passCutoff && fitness > cutoff) {
+            return fitness;
+        }
+
+        synchronized (cache) {
+            Samples entry = cache.get(key);
+
+            if (entry == null) {
+                entry = new Samples(samplesPerPosition);
+                cache.put(key, entry);
+            }
+
+            return entry.addSample(fitness);
+        }
+    }
+
+    private long[] quantize(double[] position) {
+        final long[] cell = new long[position.length];
+
+        for (int d = 0; d < position.length; d++) {
+            cell[d] = quantization[d] == 0.0
+                    ? Double.doubleToLongBits(position[d])
+                    : Math.round(position[d] / quantization[d]);
+        }
+
+        return cell;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public double getHitRate() {
+        final long lookups = getHits() + getMisses();
+        return lookups == 0 ? 0.0 : getHits() / (double) lookups;
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CachingObjectiveFunction{size=" + size()
+                + ", hits=" + getHits()
+                + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions()
+                + ", hitRate=" + getHitRate() + "}";
+    }
+
+    private static final class Key {
+
+        private final long[] cell;
+        private final int hash;
+
+        Key(long[] cell) {
+            this.cell = cell;
+            hash = Arrays.hashCode(cell);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(cell, ((Key) other).cell);
+        }
+    }
+
+    /**
+     * Running mean of the samples seen for one position. Guarded by the cache lock.
+     */
+    private static final class Samples {
+
+        private final int samplesNeeded;
+        private int samples;
+        private double mean;
+
+        Samples(int samplesNeeded) {
+            this.samplesNeeded = samplesNeeded;
+        }
+
+        boolean isComplete() {
+            return samples >= samplesNeeded;
+        }
+
+        double getMean() {
+            return mean;
+        }
+
+        double addSample(double fitness) {
+            if (!isComplete()) {
+                samples++;
+                mean += (fitness - mean) / samples;
+            }
+
+            return mean;
+        }
+    }
+}
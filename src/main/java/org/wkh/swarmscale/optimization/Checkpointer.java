@@ -0,0 +1,113 @@
+package org.wkh.swarmscale.optimization;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically checkpoints an optimizer. Register it as an epoch listener:
+ *
+ * optimizer.addEpochListener(new Checkpointer(optimizer, path, 10, 5 * 60 * 1000));
+ *
+ * The snapshot is copied on the epoch thread between epochs, which is just a few array copies; serializing and
+ * writing it happens on a background thread so the epoch loop doesn't wait on the disk. If the disk falls behind,
+ * only the newest pending snapshot is written.
+ */
+public class Checkpointer implements EpochListener, AutoCloseable {
+    public final static Logger LOGGER = Logger.getLogger(Checkpointer.class.getName());
+
+    private final ParticleSwarmOptimizer optimizer;
+    private final Path path;
+    private final int everyEpochs;
+    private final long everyMillis;
+
+    private final ExecutorService writer;
+    private final AtomicReference<SwarmCheckpoint> pending = new AtomicReference<>();
+
+    private long lastCheckpointEpoch;
+    private long lastCheckpointTime;
+
+    /**
+     * @param optimizer Optimizer to checkpoint
+     * @param path File to write. Overwritten atomically on each checkpoint.
+     * @param everyEpochs Checkpoint after this many epochs. 0 disables the epoch trigger.
+     * @param everyMillis Checkpoint once this much wall clock time has passed. 0 disables the time trigger.
+     */
+    public Checkpointer(ParticleSwarmOptimizer optimizer, Path path, int everyEpochs, long everyMillis) {
+        this.optimizer = optimizer;
+        this.path = path;
+        this.everyEpochs = everyEpochs;
+        this.everyMillis = everyMillis;
+
+        lastCheckpointEpoch = optimizer.getEpoch();
+        lastCheckpointTime = System.currentTimeMillis();
+
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void onEpochComplete(EpochPerformanceResult result, int epoch) {
+        final long totalEpochs = optimizer.getEpoch();
+        final long now = System.currentTimeMillis();
+
+        final boolean epochsDue = everyEpochs > 0 && totalEpochs - lastCheckpointEpoch >= everyEpochs;
+        final boolean timeDue = everyMillis > 0 && now - lastCheckpointTime >= everyMillis;
+
+        if (epochsDue || timeDue) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Snapshot the optimizer now and queue it for writing.
+     */
+    public void checkpoint() {
+        lastCheckpointEpoch = optimizer.getEpoch();
+        lastCheckpointTime = System.currentTimeMillis();
+
+        /* a write already queued will pick up the newer snapshot instead */
+        if (pending.getAndSet(optimizer.checkpoint()) == null) {
+            writer.execute(this::writePending);
+        }
+    }
+
+    private void writePending() {
+        final SwarmCheckpoint checkpoint = pending.getAndSet(null);
+
+        if (checkpoint == null) {
+            return;
+        }
+
+        try {
+            final long start = System.nanoTime();
+            checkpoint.write(path);
+            LOGGER.log(Level.INFO, "Checkpointed epoch {0} to {1} in {2}ms",
+                    new Object[]{checkpoint.epoch, path, (System.nanoTime() - start) / 1.0E6});
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write checkpoint to " + path, e);
+        }
+    }
+
+    /**
+     * Wait for any pending checkpoint to be written, then stop the writer thread.
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.wkh.swarmscale.optimization;
+
+/**
+ * Objective function that can give up on a candidate once it is clearly no good.
+ *
+ * Most of the simulation objectives accumulate a cost as the simulation runs, and the cost only grows. Once the
+ * partial cost exceeds the cutoff there is no point finishing: the implementation may stop and return the partial
+ * cost, which is a lower bound on the true fitness that is already greater than the cutoff.
+ *
+ * ParticleSwarmOptimizer passes each particle's pbest fitness as its cutoff. A result above the cutoff can't improve
+ * pbest or gbest, so stopping early changes nothing about the search except the reported fitness statistics, which see
+ * the lower bound instead of the true fitness.
+ */
+public interface CutoffObjectiveFunction extends ObjectiveFunction {
+
+    /**
+     * @param position The value to compute the fitness of
+     * @param iteration Current iteration, in order to change the fitness function as time progresses
+     * @param cutoff Fitness above which the caller no longer cares about the exact value. May be infinite.
+     * @return the fitness if it is at most cutoff, otherwise either the fitness or a lower bound on it above cutoff
+     */
+    public double evaluate(double[] position, int iteration, double cutoff);
+
+    @Override
+    public default double evaluate(double[] position, int iteration) {
+        return evaluate(position, iteration, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Evaluate with a cutoff if the objective supports one, fully otherwise. Batch objectives get a batch of one.
+     */
+    public static double evaluate(ObjectiveFunction objective, double[] position, int iteration, double cutoff) {
+        if (objective instanceof BatchObjectiveFunction) {
+            final double[] out = new double[1];
+            ((BatchObjectiveFunction) objective).evaluate(new double[][] {position}, iteration, new double[] {cutoff},
+                    out);
+
+            return out[0];
+        }
+
+        return objective instanceof CutoffObjectiveFunction
+                ? ((CutoffObjectiveFunction) objective).evaluate(position, iteration, cutoff)
+                : objective.evaluate(position, iteration);
+    }
+}
@@ -0,0 +1,279 @@
+package org.wkh.swarmscale.optimization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.DoubleSummaryStatistics;
+import java.util.List;
+
+/**
+ * Where a run keeps its per-epoch results.
+ *
+ * Every history tracks the epoch count, the latest result and fitness statistics over the whole run. How many full
+ * results are retained depends on the mode:
+ *
+ * all() - every epoch. Memory grows with the run, which is what the plain runForIterations/runUntil overloads do.
+ * summaryOnly() - nothing beyond the latest result.
+ * lastEpochs(k) - a ring buffer of the latest k epochs.
+ * spillToFile(path) - every epoch is appended to a binary file and only the latest is kept in memory. Read the file
+ * back with readSpilled.
+ *
+ * All modes except all() use constant memory however long the run is. Results passed to record may be views over an
+ * optimizer's buffers; a history copies what it keeps, and summaryOnly() and spillToFile(path) copy nothing per epoch
+ * once their buffers are sized.
+ */
+public abstract class EpochHistory implements AutoCloseable {
+
+    private final DoubleSummaryStatistics fitnessStatistics = new DoubleSummaryStatistics();
+    private int epochCount;
+
+    /* the latest result, copied into buffers that are reused from epoch to epoch */
+    private double[] lastFitnessValues;
+    private double[] lastGbest;
+    private double lastGbestFitness;
+
+    EpochHistory() {
+    }
+
+    public static EpochHistory all() {
+        return new All();
+    }
+
+    public static EpochHistory summaryOnly() {
+        return new LastEpochs(0);
+    }
+
+    /**
+     * @param capacity Number of most recent epochs to retain
+     */
+    public static EpochHistory lastEpochs(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+
+        return new LastEpochs(capacity);
+    }
+
+    /**
+     * Close the history once the run is done to flush the file.
+     *
+     * Format, per epoch (big-endian): int epoch, double gbestFitness, int dim, double gbest[dim], int count,
+     * double fitnessValues[count].
+     *
+     * @param path File to write. Overwritten if it exists.
+     */
+    public static EpochHistory spillToFile(Path path) throws IOException {
+        return new SpillToFile(path);
+    }
+
+    /**
+     * Stream the epochs in a file written by spillToFile to a listener, one at a time.
+     */
+    public static void readSpilled(Path path, EpochListener listener) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                final int epoch;
+
+                try {
+                    epoch = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+
+                final double gbestFitness = in.readDouble();
+                final double[] gbest = readDoubles(in);
+                final double[] fitnessValues = readDoubles(in);
+
+                listener.onEpochComplete(new EpochPerformanceResult(fitnessValues, gbest, gbestFitness), epoch);
+            }
+        }
+    }
+
+    private static double[] readDoubles(DataInputStream in) throws IOException {
+        final double[] values = new double[in.readInt()];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readDouble();
+        }
+
+        return values;
+    }
+
+    public void record(EpochPerformanceResult result, int epoch) {
+        epochCount++;
+        fitnessStatistics.combine(result.fitnessStatistics);
+
+        lastFitnessValues = copyInto(result.fitnessValues, lastFitnessValues);
+        lastGbest = copyInto(result.gbest, lastGbest);
+        lastGbestFitness = result.gbestFitness;
+
+        retain(result, epoch);
+    }
+
+    private static double[] copyInto(double[] values, double[] buffer) {
+        if (buffer == null || buffer.length != values.length) {
+            buffer = new double[values.length];
+        }
+
+        System.arraycopy(values, 0, buffer, 0, values.length);
+
+        return buffer;
+    }
+
+    /**
+     * @param result Result to keep, if any of it. May be a view, so copy it to keep it.
+     */
+    abstract void retain(EpochPerformanceResult result, int epoch);
+
+    /**
+     * @return retained results, oldest first
+     */
+    public abstract List<EpochPerformanceResult> getResults();
+
+    /**
+     * @return most recent result, or null if no epochs have been recorded
+     */
+    public EpochPerformanceResult getLast() {
+        return lastFitnessValues == null
+                ? null
+                : new EpochPerformanceResult(lastFitnessValues, lastGbest, lastGbestFitness);
+    }
+
+    /**
+     * @return the most recent result alone, or nothing if no epochs have been recorded
+     */
+    List<EpochPerformanceResult> latest() {
+        final EpochPerformanceResult last = getLast();
+
+        return last == null ? Collections.<EpochPerformanceResult>emptyList() : Collections.singletonList(last);
+    }
+
+    public int getEpochCount() {
+        return epochCount;
+    }
+
+    /**
+     * @return statistics over every fitness value recorded, including those of epochs no longer retained
+     */
+    public DoubleSummaryStatistics getFitnessStatistics() {
+        final DoubleSummaryStatistics copy = new DoubleSummaryStatistics();
+        copy.combine(fitnessStatistics);
+        return copy;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static final class All extends EpochHistory {
+
+        private final List<EpochPerformanceResult> results = new ArrayList<>();
+
+        @Override
+        void retain(EpochPerformanceResult result, int epoch) {
+            results.add(result.copy());
+        }
+
+        @Override
+        public List<EpochPerformanceResult> getResults() {
+            return Collections.unmodifiableList(results);
+        }
+    }
+
+    private static final class LastEpochs extends EpochHistory {
+
+        private final EpochPerformanceResult[] ring;
+
+        /**
+         * Index the next result is written to
+         */
+        private int head = 0;
+        private int size = 0;
+
+        LastEpochs(int capacity) {
+            ring = new EpochPerformanceResult[capacity];
+        }
+
+        @Override
+        void retain(EpochPerformanceResult result, int epoch) {
+            if (ring.length == 0) {
+                return;
+            }
+
+            ring[head] = result.copy();
+            head = (head + 1) % ring.length;
+            size = Math.min(size + 1, ring.length);
+        }
+
+        @Override
+        public List<EpochPerformanceResult> getResults() {
+            if (ring.length == 0) {
+                return latest();
+            }
+
+            final List<EpochPerformanceResult> results = new ArrayList<>(size);
+            final int oldest = (head - size + ring.length) % ring.length;
+
+            for (int n = 0; n < size; n++) {
+                results.add(ring[(oldest + n) % ring.length]);
+            }
+
+            return results;
+        }
+    }
+
+    private static final class SpillToFile extends EpochHistory {
+
+        private final Path path;
+        private final DataOutputStream out;
+
+        SpillToFile(Path path) throws IOException {
+            this.path = path;
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+        }
+
+        @Override
+        void retain(EpochPerformanceResult result, int epoch) {
+            try {
+                out.writeInt(epoch);
+                out.writeDouble(result.gbestFitness);
+                writeDoubles(result.gbest);
+                writeDoubles(result.fitnessValues);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not spill epoch " + epoch + " to " + path, e);
+            }
+        }
+
+        private void writeDoubles(double[] values) throws IOException {
+            out.writeInt(values.length);
+
+            for (double value : values) {
+                out.writeDouble(value);
+            }
+        }
+
+        /**
+         * @return only the most recent result; the rest are in the file
+         */
+        @Override
+        public List<EpochPerformanceResult> getResults() {
+            return latest();
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not close " + path, e);
+            }
+        }
+    }
+}
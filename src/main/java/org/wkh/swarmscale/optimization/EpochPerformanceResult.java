@@ -2,22 +2,62 @@ package org.wkh.swarmscale.optimization;
 
 import java.util.Arrays;
 import java.util.DoubleSummaryStatistics;
-import java.util.List;
 
+/**
+ * Results handed to EpochListeners are views over the optimizer's own buffers, so that large swarms don't copy every
+ * fitness value each epoch. Their arrays are only valid during the callback; call copy() to keep one. Results returned
+ * by an EpochHistory are copies and stay valid.
+ */
 public class EpochPerformanceResult {
 
-    public final List<Double> fitnessValues;
+    public final double[] fitnessValues;
     public final double[] gbest;
     public final double gbestFitness;
     public final DoubleSummaryStatistics fitnessStatistics;
 
-    public EpochPerformanceResult(List<Double> fitnessValues, double[] gbest, double gbestFitness) {
+    /**
+     * @param fitnessValues fitness of every evaluation in the epoch. Copied, so the caller may reuse the array.
+     * @param gbest global best position. Copied.
+     * @param gbestFitness global best fitness
+     */
+    public EpochPerformanceResult(double[] fitnessValues, double[] gbest, double gbestFitness) {
+        this(Arrays.copyOf(fitnessValues, fitnessValues.length), Arrays.copyOf(gbest, gbest.length), gbestFitness,
+                statistics(fitnessValues));
+    }
+
+    private EpochPerformanceResult(double[] fitnessValues, double[] gbest, double gbestFitness,
+            DoubleSummaryStatistics fitnessStatistics) {
         this.fitnessValues = fitnessValues;
-        this.gbest = Arrays.copyOf(gbest, gbest.length);
+        this.gbest = gbest;
         this.gbestFitness = gbestFitness;
+        this.fitnessStatistics = fitnessStatistics;
+    }
+
+    /**
+     * Wrap the arrays without copying them.
+     */
+    static EpochPerformanceResult view(double[] fitnessValues, double[] gbest, double gbestFitness) {
+        return new EpochPerformanceResult(fitnessValues, gbest, gbestFitness, statistics(fitnessValues));
+    }
+
+    private static DoubleSummaryStatistics statistics(double[] fitnessValues) {
+        final DoubleSummaryStatistics statistics = new DoubleSummaryStatistics();
+
+        for (double fitnessValue : fitnessValues) {
+            statistics.accept(fitnessValue);
+        }
+
+        return statistics;
+    }
+
+    /**
+     * @return a copy that stays valid after the optimizer moves on
+     */
+    public EpochPerformanceResult copy() {
+        final DoubleSummaryStatistics statistics = new DoubleSummaryStatistics();
+        statistics.combine(fitnessStatistics);
 
-        fitnessStatistics = fitnessValues.stream().collect(DoubleSummaryStatistics::new,
-                DoubleSummaryStatistics::accept,
-                DoubleSummaryStatistics::combine);
+        return new EpochPerformanceResult(Arrays.copyOf(fitnessValues, fitnessValues.length),
+                Arrays.copyOf(gbest, gbest.length), gbestFitness, statistics);
     }
 }
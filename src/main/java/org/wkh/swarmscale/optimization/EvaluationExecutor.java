@@ -0,0 +1,328 @@
+package org.wkh.swarmscale.optimization;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Decides where objective function evaluations run.
+ *
+ * Wraps an Executor and counts how many evaluations are queued waiting for a thread and how long they waited. Create
+ * one with the static factory methods:
+ *
+ * - commonPool(): the JVM-wide ForkJoinPool. Shared with everything else in the process.
+ * - boundedPool(threads): a dedicated fixed-size pool owned by this executor.
+ * - virtualThreads(): one virtual thread per evaluation. Only available on JDKs that have virtual threads.
+ * - callerRuns(): evaluate sequentially on the calling thread.
+ *
+ * Executors that own threads should be closed when the optimizer is done with them.
+ */
+public class EvaluationExecutor implements Executor, AutoCloseable {
+
+    private final Executor executor;
+    private final boolean owned;
+    private final boolean inline;
+    private final String name;
+
+    /**
+     * Number of positions evaluated per submitted task in evaluateAll
+     */
+    private int batchSize = 1;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder startedTasks = new LongAdder();
+
+    private EvaluationExecutor(Executor executor, boolean owned, String name) {
+        this(executor, owned, false, name);
+    }
+
+    private EvaluationExecutor(Executor executor, boolean owned, boolean inline, String name) {
+        this.executor = executor;
+        this.owned = owned;
+        this.inline = inline;
+        this.name = name;
+    }
+
+    public static EvaluationExecutor commonPool() {
+        return new EvaluationExecutor(ForkJoinPool.commonPool(), false, "common-pool");
+    }
+
+    /**
+     * @param threads Number of threads in the pool. Evaluations beyond this wait in the pool's queue.
+     * @return executor backed by a dedicated pool of daemon threads
+     */
+    public static EvaluationExecutor boundedPool(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread, got " + threads);
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "pso-evaluator-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        return new EvaluationExecutor(pool, true, "bounded-pool-" + threads);
+    }
+
+    /**
+     * Looked up reflectively so that the project still builds and runs on JDKs without virtual threads.
+     *
+     * @return executor that starts a new virtual thread per evaluation
+     * @throws UnsupportedOperationException if the running JDK has no virtual threads
+     */
+    public static EvaluationExecutor virtualThreads() {
+        try {
+            final ExecutorService service = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+
+            return new EvaluationExecutor(service, true, "virtual-threads");
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new UnsupportedOperationException("Virtual threads are not available on this JDK", e);
+        }
+    }
+
+    public static boolean virtualThreadsSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public static EvaluationExecutor callerRuns() {
+        return new EvaluationExecutor(Runnable::run, false, true, "caller-runs");
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Group several positions into one task in evaluateAll. The default of 1 suits expensive objectives like the
+     * simulations; cheap objectives on large populations should use larger batches to cut per-task overhead.
+     *
+     * @param batchSize Number of positions evaluated per task
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, got " + batchSize);
+        }
+
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        final long enqueueTime = System.nanoTime();
+
+        final int depth = queueDepth.incrementAndGet();
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+
+        executor.execute(() -> {
+            queueDepth.decrementAndGet();
+            queueWaitNanos.add(System.nanoTime() - enqueueTime);
+            startedTasks.increment();
+
+            task.run();
+        });
+    }
+
+    /**
+     * Evaluate every position and block until all evaluations are done.
+     *
+     * @param objective Objective function to evaluate
+     * @param positions Positions to evaluate
+     * @param iteration Current iteration, passed through to the objective function
+     * @param out Receives the fitness of positions[i] in out[i]
+     */
+    public void evaluateAll(ObjectiveFunction objective, double[][] positions, int iteration, double[] out) {
+        evaluateAll(objective, positions, iteration, null, out);
+    }
+
+    /**
+     * Evaluate every position with a per-position cutoff and block until all evaluations are done.
+     *
+     * @param objective Objective function to evaluate. Cutoffs are only passed on if it is a CutoffObjectiveFunction or
+     * BatchObjectiveFunction. A BatchObjectiveFunction is called once with every position, on this thread.
+     * @param positions Positions to evaluate
+     * @param iteration Current iteration, passed through to the objective function
+     * @param cutoffs Cutoff for positions[i] in cutoffs[i], or null to evaluate everything fully
+     * @param out Receives the fitness of positions[i] in out[i]
+     */
+    public void evaluateAll(ObjectiveFunction objective, double[][] positions, int iteration, double[] cutoffs,
+            double[] out) {
+        evaluateAll(objective, positions, positions.length, iteration, cutoffs, out);
+    }
+
+    /**
+     * Evaluate only the first count positions, so that callers can reuse arrays sized for their largest batch.
+     *
+     * A BatchObjectiveFunction evaluates whole arrays, so when count is less than positions.length it is handed copies
+     * trimmed to count.
+     *
+     * @param count Number of positions to evaluate, from index 0
+     */
+    public void evaluateAll(ObjectiveFunction objective, double[][] positions, int count, int iteration,
+            double[] cutoffs, double[] out) {
+        if (objective instanceof BatchObjectiveFunction) {
+            /* the objective decides how to spread the batch over threads, so hand it everything at once */
+            if (count == positions.length) {
+                ((BatchObjectiveFunction) objective).evaluate(positions, iteration, cutoffs, out);
+            } else {
+                final double[] trimmedOut = new double[count];
+
+                ((BatchObjectiveFunction) objective).evaluate(
+                        Arrays.copyOf(positions, count),
+                        iteration,
+                        cutoffs == null ? null : Arrays.copyOf(cutoffs, count),
+                        trimmedOut
+                );
+                System.arraycopy(trimmedOut, 0, out, 0, count);
+            }
+
+            startedTasks.increment();
+            return;
+        }
+
+        if (inline) {
+            /* nothing to wait for, so skip the task bookkeeping entirely */
+            for (int i = 0; i < count; i++) {
+                out[i] = evaluate(objective, positions, iteration, cutoffs, i);
+            }
+
+            startedTasks.add(count);
+            return;
+        }
+
+        final int tasks = (count + batchSize - 1) / batchSize;
+
+        runAll(tasks, task -> {
+            final int start = task * batchSize;
+            final int end = Math.min(start + batchSize, count);
+
+            for (int i = start; i < end; i++) {
+                out[i] = evaluate(objective, positions, iteration, cutoffs, i);
+            }
+        });
+    }
+
+    /**
+     * Run tasks 0 to count - 1 on this executor and block until all of them are done. For batch objectives that split
+     * a batch into parts themselves.
+     *
+     * @param count Number of tasks
+     * @param task Called once with each task index
+     * @throws IllegalStateException if a task failed or the wait was interrupted
+     */
+    public void runAll(int count, IntConsumer task) {
+        if (inline) {
+            for (int i = 0; i < count; i++) {
+                task.accept(i);
+            }
+
+            startedTasks.add(count);
+            return;
+        }
+
+        final CountDownLatch remaining = new CountDownLatch(count);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            execute(() -> {
+                try {
+                    task.accept(index);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    remaining.countDown();
+                }
+            });
+        }
+
+        try {
+            remaining.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for evaluations", e);
+        }
+
+        if (failure.get() != null) {
+            throw new IllegalStateException("Objective function evaluation failed", failure.get());
+        }
+    }
+
+    private static double evaluate(ObjectiveFunction objective, double[][] positions, int iteration, double[] cutoffs,
+            int i) {
+        return cutoffs == null
+                ? objective.evaluate(positions[i], iteration)
+                : CutoffObjectiveFunction.evaluate(objective, positions[i], iteration, cutoffs[i]);
+    }
+
+    /**
+     * @return number of evaluations currently submitted but not yet started
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return total time evaluations spent waiting for a thread, in nanoseconds
+     */
+    public long getTotalQueueWaitNanos() {
+        return queueWaitNanos.sum();
+    }
+
+    public long getStartedTasks() {
+        return startedTasks.sum();
+    }
+
+    public double getMeanQueueWaitMillis() {
+        final long started = getStartedTasks();
+        return started == 0 ? 0.0 : getTotalQueueWaitNanos() / 1.0E6 / started;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Shuts down the underlying pool if this executor owns one. Shared executors are left alone.
+     */
+    @Override
+    public void close() {
+        if (owned) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EvaluationExecutor{" + name
+                + ", queueDepth=" + getQueueDepth()
+                + ", maxQueueDepth=" + getMaxQueueDepth()
+                + ", startedTasks=" + getStartedTasks()
+                + ", meanQueueWaitMillis=" + getMeanQueueWaitMillis() + "}";
+    }
+}
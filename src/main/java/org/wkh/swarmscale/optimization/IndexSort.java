@@ -0,0 +1,55 @@
+package org.wkh.swarmscale.optimization;
+
+/**
+ * Sorts arrays of indices by a primitive key per index, without boxing the indices or allocating.
+ *
+ * Equal keys are ordered by index, so sorting indices that start out ascending gives the same order as a stable sort.
+ */
+final class IndexSort {
+
+    private IndexSort() {
+    }
+
+    /**
+     * Heap sort indices[0..count-1] into ascending order of keys[index], by Double.compare.
+     */
+    static void sort(int[] indices, int count, double[] keys) {
+        for (int root = count / 2 - 1; root >= 0; root--) {
+            siftDown(indices, root, count, keys);
+        }
+
+        for (int end = count - 1; end > 0; end--) {
+            final int largest = indices[0];
+            indices[0] = indices[end];
+            indices[end] = largest;
+
+            siftDown(indices, 0, end, keys);
+        }
+    }
+
+    private static void siftDown(int[] indices, int root, int count, double[] keys) {
+        final int index = indices[root];
+
+        while (2 * root + 1 < count) {
+            int child = 2 * root + 1;
+
+            if (child + 1 < count && compare(indices[child + 1], indices[child], keys) > 0) {
+                child++;
+            }
+
+            if (compare(indices[child], index, keys) <= 0) {
+                break;
+            }
+
+            indices[root] = indices[child];
+            root = child;
+        }
+
+        indices[root] = index;
+    }
+
+    private static int compare(int a, int b, double[] keys) {
+        final int comparison = Double.compare(keys[a], keys[b]);
+        return comparison != 0 ? comparison : Integer.compare(a, b);
+    }
+}
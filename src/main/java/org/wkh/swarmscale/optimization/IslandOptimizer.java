@@ -0,0 +1,344 @@
+package org.wkh.swarmscale.optimization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Island-model optimizer: several independent swarms run in parallel and periodically exchange their best particles.
+ *
+ * Each island is a complete ParticleSwarmOptimizer with its own random number generator, bounds and (optionally) its
+ * own coefficients. Islands only synchronize every migrationInterval epochs, when each island's best particles replace
+ * the worst particles of its neighbors. Separate gbests keep the swarms from all collapsing onto the same local optimum
+ * early, which matters on multimodal landscapes like Rastrigin.
+ *
+ * Islands run on a pool with one thread per island, owned by the optimizer and shut down by close. Their evaluation
+ * executors should therefore usually be EvaluationExecutor.callerRuns().
+ */
+public class IslandOptimizer implements AutoCloseable {
+
+    public enum Topology {
+        /**
+         * Island k sends migrants to island k + 1, wrapping around
+         */
+        RING,
+        /**
+         * Every island receives the best migrants out of all the other islands' emigrants
+         */
+        FULLY_CONNECTED
+    }
+
+    private final List<ParticleSwarmOptimizer> islands;
+    private final int migrationInterval;
+    private final int migrants;
+    private final Topology topology;
+    private final int dim;
+
+    private final List<EpochListener> epochListeners;
+
+    /**
+     * Runs the islands, one thread each. Created once so migration rounds don't start new threads.
+     */
+    private final EvaluationExecutor islandExecutor;
+
+    /**
+     * @param islands Swarms to run. Must all have the same dimension.
+     * @param migrationInterval Number of epochs between migrations
+     * @param migrants Number of particles each island sends per migration
+     * @param topology Which islands exchange particles
+     */
+    public IslandOptimizer(List<ParticleSwarmOptimizer> islands, int migrationInterval, int migrants,
+            Topology topology) {
+        if (islands.isEmpty()) {
+            throw new IllegalArgumentException("Need at least one island");
+        }
+
+        if (migrationInterval < 1) {
+            throw new IllegalArgumentException("Migration interval must be positive, got " + migrationInterval);
+        }
+
+        dim = islands.get(0).getDim();
+
+        for (ParticleSwarmOptimizer island : islands) {
+            if (island.getDim() != dim) {
+                throw new IllegalArgumentException("All islands must have dimension " + dim);
+            }
+
+            if (migrants > island.getPopulationSize()) {
+                throw new IllegalArgumentException("Got " + migrants + " migrants, exceeding population of "
+                        + island.getPopulationSize());
+            }
+        }
+
+        this.islands = new ArrayList<>(islands);
+        this.migrationInterval = migrationInterval;
+        this.migrants = migrants;
+        this.topology = topology;
+
+        epochListeners = new ArrayList<>();
+        islandExecutor = EvaluationExecutor.boundedPool(islands.size());
+    }
+
+    /**
+     * Listeners are called after every migration round with the combined fitness values of all islands' last epoch
+     * and the best solution across all islands. The epoch is the number of epochs each island has run so far.
+     */
+    public void addEpochListener(EpochListener listener) {
+        epochListeners.add(listener);
+    }
+
+    /**
+     * Seed every island from one master seed, so the whole run is reproducible. Island k is seeded with the k-th value
+     * drawn from a SplittableRandom seeded with the master seed. Call before initializePopulations.
+     */
+    public void setSeed(long seed) {
+        final SplittableRandom root = new SplittableRandom(seed);
+
+        for (ParticleSwarmOptimizer island : islands) {
+            island.setSeed(root.nextLong());
+        }
+    }
+
+    public List<ParticleSwarmOptimizer> getIslands() {
+        return islands;
+    }
+
+    public void initializePopulations() {
+        runOnIslands(island -> {
+            island.initializePopulation();
+            return null;
+        });
+    }
+
+    /**
+     * Run every island for the given number of epochs, migrating every migrationInterval epochs. Islands number their
+     * epochs on from the ones already run, so objectives see the same iterations however often the islands migrate.
+     *
+     * @param iterations Number of epochs per island
+     * @return best solution across all islands. results contains one entry per migration round.
+     */
+    public OptimizationResult runForIterations(int iterations) {
+        return runForIterations(iterations, EpochHistory.all());
+    }
+
+    /**
+     * @param iterations Number of epochs per island
+     * @param history Where to record each migration round's combined result
+     * @return best solution across all islands. results holds what history retained.
+     */
+    public OptimizationResult runForIterations(int iterations, EpochHistory history) {
+        final int end = (int) islands.get(0).getEpoch() + iterations;
+        int epoch = end - iterations;
+
+        while (epoch < end) {
+            final int epochs = Math.min(migrationInterval, end - epoch);
+
+            /* only each island's final epoch of the round is combined, so don't keep the rest */
+            final List<EpochPerformanceResult> islandResults = runOnIslands(
+                    island -> island.runForIterations(epochs, EpochHistory.summaryOnly()).getLast()
+            );
+
+            epoch += epochs;
+
+            if (epoch < end) {
+                migrate();
+            }
+
+            final EpochPerformanceResult result = combineResults(islandResults);
+            final int epochDummy = epoch;
+
+            epochListeners.forEach(listener -> listener.onEpochComplete(result, epochDummy));
+
+            history.record(result, epochDummy);
+        }
+
+        final ParticleSwarmOptimizer best = bestIsland();
+        long evaluations = 0;
+
+        for (ParticleSwarmOptimizer island : islands) {
+            evaluations += island.getEvaluations();
+        }
+
+        return new OptimizationResult(best.getGbest(), best.getGbestFitness(), StopReason.MAX_EPOCHS, epoch,
+                evaluations, history.getResults());
+    }
+
+    private void migrate() {
+        final int count = islands.size();
+        final double[][][] emigrants = new double[count][][];
+        final double[][] emigrantFitness = new double[count][migrants];
+
+        /* collect everything before anyone receives, so migrants don't hop more than one island per round */
+        for (int k = 0; k < count; k++) {
+            emigrants[k] = islands.get(k).getBestParticles(migrants, emigrantFitness[k]);
+        }
+
+        for (int k = 0; k < count; k++) {
+            switch (topology) {
+                case RING: {
+                    final int source = (k + count - 1) % count;
+                    if (source != k) {
+                        islands.get(k).acceptMigrants(emigrants[source], emigrantFitness[source]);
+                    }
+                    break;
+                }
+                case FULLY_CONNECTED: {
+                    acceptBestFromOthers(k, emigrants, emigrantFitness);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown topology " + topology);
+            }
+        }
+    }
+
+    private void acceptBestFromOthers(int k, double[][][] emigrants, double[][] emigrantFitness) {
+        /* candidate source * migrants + n is emigrant n of island source */
+        final double[] candidateFitness = new double[islands.size() * migrants];
+        final int[] candidates = new int[candidateFitness.length];
+        int count = 0;
+
+        for (int source = 0; source < islands.size(); source++) {
+            System.arraycopy(emigrantFitness[source], 0, candidateFitness, source * migrants, migrants);
+
+            if (source == k) {
+                continue;
+            }
+
+            for (int n = 0; n < migrants; n++) {
+                candidates[count++] = source * migrants + n;
+            }
+        }
+
+        IndexSort.sort(candidates, count, candidateFitness);
+
+        final int accepted = Math.min(migrants, count);
+        final double[][] positions = new double[accepted][];
+        final double[] fitness = new double[accepted];
+
+        for (int n = 0; n < accepted; n++) {
+            final int source = candidates[n] / migrants;
+            final int emigrant = candidates[n] % migrants;
+
+            positions[n] = emigrants[source][emigrant];
+            fitness[n] = emigrantFitness[source][emigrant];
+        }
+
+        islands.get(k).acceptMigrants(positions, fitness);
+    }
+
+    private ParticleSwarmOptimizer bestIsland() {
+        ParticleSwarmOptimizer best = islands.get(0);
+
+        for (ParticleSwarmOptimizer island : islands) {
+            if (island.getGbestFitness() < best.getGbestFitness()) {
+                best = island;
+            }
+        }
+
+        return best;
+    }
+
+    private EpochPerformanceResult combineResults(List<EpochPerformanceResult> islandResults) {
+        int total = 0;
+
+        for (EpochPerformanceResult result : islandResults) {
+            total += result.fitnessValues.length;
+        }
+
+        final double[] fitnessValues = new double[total];
+        int offset = 0;
+
+        for (EpochPerformanceResult result : islandResults) {
+            final double[] islandFitness = result.fitnessValues;
+            System.arraycopy(islandFitness, 0, fitnessValues, offset, islandFitness.length);
+            offset += islandFitness.length;
+        }
+
+        final ParticleSwarmOptimizer best = bestIsland();
+
+        return new EpochPerformanceResult(fitnessValues, best.getGbest(), best.getGbestFitness());
+    }
+
+    @FunctionalInterface
+    private interface IslandTask<T> {
+
+        T run(ParticleSwarmOptimizer island);
+    }
+
+    /**
+     * Run the task on every island in parallel, one thread per island, and wait for all of them.
+     */
+    private <T> List<T> runOnIslands(IslandTask<T> task) {
+        final List<T> results = new ArrayList<>(Collections.<T>nCopies(islands.size(), null));
+
+        islandExecutor.runAll(islands.size(), k -> results.set(k, task.run(islands.get(k))));
+
+        return results;
+    }
+
+    /**
+     * Shut down the threads the islands run on.
+     */
+    @Override
+    public void close() {
+        islandExecutor.close();
+    }
+
+    public static void main(String[] args) {
+        final int islandCount = 4;
+        final int populationSize = 125;
+        final int dim = 12;
+
+        final double[][] bounds = new double[dim][];
+
+        for (int d = 0; d < dim; d++) {
+            bounds[d] = new double[]{-5.12, 5.12};
+        }
+
+        ObjectiveFunction rastrigin = (x, iteration) -> {
+            double sum = 0.0;
+            for (int i = 0; i < dim; i++) {
+                sum += x[i] * x[i] - 10 * Math.cos(Math.PI * 2 * x[i]);
+            }
+
+            return 10 * dim + sum;
+        };
+
+        /* vary inertia a bit between islands: some explore more, some exploit more */
+        final double[] inertias = {0.6, 0.729, 0.729, 0.85};
+
+        final List<ParticleSwarmOptimizer> islands = new ArrayList<>();
+
+        for (int k = 0; k < islandCount; k++) {
+            final ParticleSwarmOptimizer island = new ParticleSwarmOptimizer(populationSize, dim, bounds, rastrigin);
+            island.setCoefficients(inertias[k], 1.494, 1.494);
+            island.setEvaluationExecutor(EvaluationExecutor.callerRuns());
+            islands.add(island);
+        }
+
+        final IslandOptimizer optimizer = new IslandOptimizer(islands, 25, 5, Topology.RING);
+
+        optimizer.initializePopulations();
+
+        optimizer.addEpochListener((result, epoch) -> {
+            if (epoch % 50 == 0) {
+                System.out.println("Epoch " + epoch + ": " + new Date());
+                System.out.println("Best result fitness: " + result.gbestFitness);
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        final OptimizationResult result = optimizer.runForIterations(500, EpochHistory.summaryOnly());
+        long end = System.currentTimeMillis();
+
+        optimizer.close();
+
+        System.out.println("Elapsed: " + (end - start) / 1000.0 + "s");
+        System.out.println("Best result: " + Arrays.toString(result.gbest));
+        System.out.println(result.gbestFitness);
+    }
+}
@@ -0,0 +1,44 @@
+package org.wkh.swarmscale.optimization;
+
+/**
+ * Objective function that can be evaluated more cheaply at lower fidelity, e.g. by simulating a shorter horizon.
+ *
+ * Used with a SuccessiveHalvingSchedule: the optimizer evaluates the whole swarm at low fidelity and only promotes the
+ * best candidates to higher fidelities. Fitness values at fidelity below 1 are only ever compared with other values at
+ * the same fidelity, so they don't need to be on the same scale as full-fidelity fitness, but they should rank
+ * candidates roughly the way full fidelity would.
+ */
+public interface MultiFidelityObjectiveFunction extends CutoffObjectiveFunction {
+
+    /**
+     * @param position The value to compute the fitness of
+     * @param iteration Current iteration, in order to change the fitness function as time progresses
+     * @param fidelity Fraction of a full evaluation to perform, in (0, 1]
+     * @param cutoff See CutoffObjectiveFunction. May be infinite.
+     * @return fitness at the given fidelity
+     */
+    public double evaluate(double[] position, int iteration, double fidelity, double cutoff);
+
+    @Override
+    public default double evaluate(double[] position, int iteration, double cutoff) {
+        return evaluate(position, iteration, 1.0, cutoff);
+    }
+
+    /**
+     * @return objective that evaluates this one at a fixed fidelity
+     */
+    public default CutoffObjectiveFunction atFidelity(double fidelity) {
+        return (position, iteration, cutoff) -> evaluate(position, iteration, fidelity, cutoff);
+    }
+
+    /**
+     * Check a fidelity argument.
+     *
+     * @throws IllegalArgumentException if fidelity is not in (0, 1]
+     */
+    public static void checkFidelity(double fidelity) {
+        if (!(fidelity > 0.0 && fidelity <= 1.0)) {
+            throw new IllegalArgumentException("Fidelity must be in (0, 1], got " + fidelity);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.wkh.swarmscale.optimization;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Neighborhood structure of a swarm: which particles' personal bests each particle is pulled toward.
+ *
+ * With a local-best topology, each particle follows the best pbest in its own neighborhood (its lbest) instead of the
+ * global best. Information spreads through the swarm more slowly, which trades convergence speed for resistance to
+ * premature convergence on multimodal objectives. A particle's lbest only depends on its neighbors, so an lbest swarm
+ * can be split across threads or machines with only boundary particles exchanged each epoch.
+ *
+ * Neighborhoods are precomputed for a fixed population size and stored as flat index arrays in compressed sparse row
+ * form: the neighbors of particle i are neighbors[neighborOffsets[i]] up to neighbors[neighborOffsets[i + 1]]. The
+ * inverse relation, which particles have j as a neighbor, is stored the same way so that a pbest improvement only
+ * has to be pushed to the particles it can affect. Every particle is its own neighbor.
+ */
+public final class NeighborhoodTopology {
+
+    private final String name;
+    private final int populationSize;
+
+    private final int[] neighborOffsets;
+    private final int[] neighbors;
+
+    private final int[] informedOffsets;
+    private final int[] informed;
+
+    /**
+     * @param name Description for toString
+     * @param neighborLists neighborLists[i] lists the neighbors of particle i. May contain duplicates and may leave out
+     * i itself; both are fixed up here.
+     */
+    private NeighborhoodTopology(String name, int[][] neighborLists) {
+        this.name = name;
+
+        populationSize = neighborLists.length;
+
+        final boolean[] seen = new boolean[populationSize];
+        final int[] informedCounts = new int[populationSize];
+
+        int capacity = populationSize;
+
+        for (int[] neighborList : neighborLists) {
+            capacity += neighborList.length;
+        }
+
+        neighborOffsets = new int[populationSize + 1];
+        final int[] flat = new int[capacity];
+        int size = 0;
+
+        for (int i = 0; i < populationSize; i++) {
+            neighborOffsets[i] = size;
+
+            flat[size++] = i;
+            seen[i] = true;
+
+            for (int j : neighborLists[i]) {
+                if (j < 0 || j >= populationSize) {
+                    throw new IllegalArgumentException("Neighbor " + j + " of particle " + i + " out of range");
+                }
+
+                if (!seen[j]) {
+                    seen[j] = true;
+                    flat[size++] = j;
+                }
+            }
+
+            for (int k = neighborOffsets[i]; k < size; k++) {
+                seen[flat[k]] = false;
+                informedCounts[flat[k]]++;
+            }
+        }
+
+        neighborOffsets[populationSize] = size;
+        neighbors = Arrays.copyOf(flat, size);
+
+        informedOffsets = new int[populationSize + 1];
+
+        for (int j = 0; j < populationSize; j++) {
+            informedOffsets[j + 1] = informedOffsets[j] + informedCounts[j];
+        }
+
+        informed = new int[size];
+        final int[] next = Arrays.copyOf(informedOffsets, populationSize);
+
+        for (int i = 0; i < populationSize; i++) {
+            for (int k = neighborOffsets[i]; k < neighborOffsets[i + 1]; k++) {
+                informed[next[neighbors[k]]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Ring lattice: each particle's neighbors are the radius particles on either side of it, wrapping around.
+     *
+     * @param populationSize Swarm size
+     * @param radius Neighbors on each side; 1 gives the classic lbest ring of three
+     */
+    public static NeighborhoodTopology ring(int populationSize, int radius) {
+        checkPopulationSize(populationSize);
+
+        if (radius < 1) {
+            throw new IllegalArgumentException("Ring radius must be at least 1, got " + radius);
+        }
+
+        final int[][] neighborLists = new int[populationSize][2 * radius];
+
+        for (int i = 0; i < populationSize; i++) {
+            for (int r = 1; r <= radius; r++) {
+                neighborLists[i][2 * (r - 1)] = Math.floorMod(i - r, populationSize);
+                neighborLists[i][2 * (r - 1) + 1] = Math.floorMod(i + r, populationSize);
+            }
+        }
+
+        return new NeighborhoodTopology("ring(" + radius + ")", neighborLists);
+    }
+
+    /**
+     * Von Neumann neighborhood: particles are laid out on a wrapping grid as close to square as the population size
+     * allows, and each particle's neighbors are the four particles above, below, left and right of it.
+     */
+    public static NeighborhoodTopology vonNeumann(int populationSize) {
+        checkPopulationSize(populationSize);
+
+        int rows = (int) Math.sqrt(populationSize);
+
+        while (populationSize % rows != 0) {
+            rows--;
+        }
+
+        final int columns = populationSize / rows;
+        final int[][] neighborLists = new int[populationSize][];
+
+        for (int i = 0; i < populationSize; i++) {
+            final int row = i / columns;
+            final int column = i % columns;
+
+            neighborLists[i] = new int[] {
+                Math.floorMod(row - 1, rows) * columns + column,
+                Math.floorMod(row + 1, rows) * columns + column,
+                row * columns + Math.floorMod(column - 1, columns),
+                row * columns + Math.floorMod(column + 1, columns)
+            };
+        }
+
+        return new NeighborhoodTopology("vonNeumann(" + rows + "x" + columns + ")", neighborLists);
+    }
+
+    /**
+     * Random informants, as in SPSO 2007: each particle informs itself and k particles chosen at random, with
+     * replacement. A particle's neighbors are the particles that inform it, so neighborhood sizes vary and the
+     * relation isn't symmetric.
+     *
+     * @param populationSize Swarm size
+     * @param k Number of particles each particle informs
+     * @param seed Seed for choosing informants
+     */
+    public static NeighborhoodTopology randomInformants(int populationSize, int k, long seed) {
+        checkPopulationSize(populationSize);
+
+        if (k < 1) {
+            throw new IllegalArgumentException("Need at least one informant, got " + k);
+        }
+
+        final SplittableRandom random = new SplittableRandom(seed);
+        final int[] informs = new int[populationSize * k];
+        final int[] counts = new int[populationSize];
+
+        for (int i = 0; i < populationSize; i++) {
+            for (int n = 0; n < k; n++) {
+                final int j = random.nextInt(populationSize);
+                informs[i * k + n] = j;
+                counts[j]++;
+            }
+        }
+
+        final int[][] neighborLists = new int[populationSize][];
+
+        for (int j = 0; j < populationSize; j++) {
+            neighborLists[j] = new int[counts[j]];
+            counts[j] = 0;
+        }
+
+        for (int i = 0; i < populationSize; i++) {
+            for (int n = 0; n < k; n++) {
+                final int j = informs[i * k + n];
+                neighborLists[j][counts[j]++] = i;
+            }
+        }
+
+        return new NeighborhoodTopology("randomInformants(" + k + ")", neighborLists);
+    }
+
+    private static void checkPopulationSize(int populationSize) {
+        if (populationSize < 1) {
+            throw new IllegalArgumentException("Population size must be positive, got " + populationSize);
+        }
+    }
+
+    public int getPopulationSize() {
+        return populationSize;
+    }
+
+    /**
+     * @return number of neighbors of particle i, including itself
+     */
+    public int getNeighborhoodSize(int i) {
+        return neighborOffsets[i + 1] - neighborOffsets[i];
+    }
+
+    /**
+     * @return copy of the neighbors of particle i, including itself
+     */
+    public int[] getNeighbors(int i) {
+        return Arrays.copyOfRange(neighbors, neighborOffsets[i], neighborOffsets[i + 1]);
+    }
+
+    /**
+     * Recompute every particle's lbest from scratch.
+     *
+     * @param pbestFitness Personal best fitness per particle
+     * @param lbest Receives the index of the particle with the best pbest in each particle's neighborhood
+     */
+    void computeLocalBests(double[] pbestFitness, int[] lbest) {
+        for (int i = 0; i < populationSize; i++) {
+            int best = i;
+
+            for (int k = neighborOffsets[i]; k < neighborOffsets[i + 1]; k++) {
+                if (pbestFitness[neighbors[k]] < pbestFitness[best]) {
+                    best = neighbors[k];
+                }
+            }
+
+            lbest[i] = best;
+        }
+    }
+
+    /**
+     * Update lbest after particle j's pbest improved. Personal bests only ever improve, so only the particles that have
+     * j as a neighbor can change, and only to j.
+     */
+    void propagateLocalBest(int j, double[] pbestFitness, int[] lbest) {
+        for (int k = informedOffsets[j]; k < informedOffsets[j + 1]; k++) {
+            final int i = informed[k];
+
+            if (pbestFitness[j] < pbestFitness[lbest[i]]) {
+                lbest[i] = j;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,41 @@
+package org.wkh.swarmscale.optimization;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Snapshot of a run's progress after an epoch, handed to stop conditions.
+ */
+public class OptimizationProgress {
+
+    public final int epoch;
+    public final long evaluations;
+    public final double gbestFitness;
+    public final int epochsSinceImprovement;
+    public final long elapsedMillis;
+
+    private final DoubleSupplier swarmDiameterSupplier;
+    private double swarmDiameter = Double.NaN;
+
+    public OptimizationProgress(int epoch, long evaluations, double gbestFitness, int epochsSinceImprovement,
+            long elapsedMillis, DoubleSupplier swarmDiameterSupplier) {
+        this.epoch = epoch;
+        this.evaluations = evaluations;
+        this.gbestFitness = gbestFitness;
+        this.epochsSinceImprovement = epochsSinceImprovement;
+        this.elapsedMillis = elapsedMillis;
+        this.swarmDiameterSupplier = swarmDiameterSupplier;
+    }
+
+    /**
+     * Computed on first use, since it requires a pass over the whole swarm.
+     *
+     * @return diagonal of the bounding box around all particle positions
+     */
+    public double getSwarmDiameter() {
+        if (Double.isNaN(swarmDiameter)) {
+            swarmDiameter = swarmDiameterSupplier.getAsDouble();
+        }
+
+        return swarmDiameter;
+    }
+}
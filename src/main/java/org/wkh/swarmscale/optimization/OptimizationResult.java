@@ -0,0 +1,36 @@
+package org.wkh.swarmscale.optimization;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Outcome of a run with stop conditions: the best solution found so far and why the run ended.
+ */
+public class OptimizationResult {
+
+    public final double[] gbest;
+    public final double gbestFitness;
+    public final StopReason stopReason;
+    public final int epochs;
+    public final long evaluations;
+    public final List<EpochPerformanceResult> results;
+
+    public OptimizationResult(double[] gbest, double gbestFitness, StopReason stopReason, int epochs,
+            long evaluations, List<EpochPerformanceResult> results) {
+        this.gbest = Arrays.copyOf(gbest, gbest.length);
+        this.gbestFitness = gbestFitness;
+        this.stopReason = stopReason;
+        this.epochs = epochs;
+        this.evaluations = evaluations;
+        this.results = results;
+    }
+
+    @Override
+    public String toString() {
+        return "OptimizationResult{stopReason=" + stopReason
+                + ", epochs=" + epochs
+                + ", evaluations=" + evaluations
+                + ", gbestFitness=" + gbestFitness
+                + ", gbest=" + Arrays.toString(gbest) + "}";
+    }
+}
@@ -1,11 +1,17 @@
 package org.wkh.swarmscale.optimization;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Deque;
 import java.util.List;
-import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 
 /**
  * Minimizes an objective function.
@@ -34,50 +40,161 @@ public class ParticleSwarmOptimizer {
     private static final double C2 = 1.494;
 
     /**
-     * Position
+     * Position. Flat struct-of-arrays storage: coordinate d of particle i is at [i * dim + d].
      */
-    private final double[][] x;
+    private final double[] x;
 
     /**
-     * Velocity
+     * Velocity, laid out like x
      */
-    private final double[][] v;
+    private final double[] v;
 
     /**
-     * Personal bests
+     * Personal bests, laid out like x
      */
-    private final double[][] pbest;
+    private final double[] pbest;
 
     /**
      * Cached value of pbest fitness
      */
     private final double[] pbestFitness;
 
+    /**
+     * Fitness of each particle's most recent evaluation
+     */
+    private final double[] fitness;
+
+    /**
+     * Per-particle position arrays handed to the objective function. Refilled from x before each evaluation so that
+     * the flat buffers never escape and objectives can't corrupt swarm state.
+     */
+    private final double[][] positions;
+
     /**
      * Dimension bounds
      */
     private final double[][] bounds;
 
     /**
-     * Global best
+     * Lower and upper bounds per dimension, unpacked from bounds for the update loop
      */
-    private double[] gbest;
+    private final double[] lowerBounds;
+    private final double[] upperBounds;
+
+    /**
+     * Global best. Updated in place.
+     */
+    private final double[] gbest;
 
     /**
      * Cached value of gbest fitness
      */
     private double gbestFitness;
 
+    /**
+     * Coefficients actually used by the velocity update. Default to the Clerc constants above.
+     */
+    private double inertia = W;
+    private double personalCoefficient = C1;
+    private double globalCoefficient = C2;
+
+    /**
+     * Number of objective function evaluations made so far
+     */
+    private long evaluations = 0;
+
+    /**
+     * Number of epochs run so far across all runs, including those before a restore from checkpoint
+     */
+    private long epochsCompleted = 0;
+
     private final ObjectiveFunction objective;
     private final int populationSize;
     private final int dim;
 
-    private final Random rng;
+    /**
+     * Master seed the random streams are derived from
+     */
+    private long seed;
+
+    /**
+     * One random stream per particle, so a particle's moves don't depend on the order particles are moved in
+     */
+    private RandomStreams rng;
 
     private final List<EpochListener> epochListeners;
 
     private final double[][] seeds;
 
+    /**
+     * Where evaluations run. Defaults to the common ForkJoinPool.
+     */
+    private EvaluationExecutor evaluationExecutor;
+
+    /**
+     * Whether to move the whole swarm with the bulk update kernel instead of particle by particle
+     */
+    private boolean bulkUpdate = false;
+
+    /**
+     * Whether to pass pbest fitness as the cutoff to CutoffObjectiveFunctions
+     */
+    private boolean useCutoffs = true;
+
+    /**
+     * Multi-fidelity schedule for MultiFidelityObjectiveFunctions, or null to always evaluate at full fidelity
+     */
+    private SuccessiveHalvingSchedule fidelitySchedule;
+
+    /**
+     * Surrogate model deciding which particles get real evaluations, or null to evaluate every particle
+     */
+    private SurrogateScreen surrogate;
+
+    /**
+     * Whether each particle's latest fitness came from a real full-fidelity evaluation, rather than a lower fidelity
+     * or the surrogate. Only exact fitness updates pbest and gbest. Allocated when a schedule or surrogate is set.
+     */
+    private boolean[] exactFitness;
+
+    /**
+     * Per-particle surrogate predictions, whether each predicted an improvement on pbest, and the cutoffs the real
+     * evaluations get. Allocated when a surrogate is set.
+     */
+    private double[] predictions;
+    private boolean[] predictedImprovement;
+    private double[] surrogateCutoffs;
+
+    /**
+     * Neighborhood topology, or null for the global best topology where every particle follows gbest
+     */
+    private NeighborhoodTopology topology;
+
+    /**
+     * With a topology, index of the particle whose pbest is best in each particle's neighborhood. Kept up to date as
+     * pbests improve.
+     */
+    private int[] lbest;
+
+    /**
+     * Scratch arrays for evaluating a subset of the swarm, indexed by position in the subset. Allocated on first use.
+     */
+    private double[][] subsetPositions;
+    private double[] subsetCutoffs;
+    private double[] subsetFitness;
+
+    /**
+     * Scratch particle indices and fitness values for choosing which particles to evaluate. Allocated on first use.
+     */
+    private int[] particleScratch;
+    private double[] sortScratch;
+
+    /**
+     * Random coefficient buffers for the bulk update kernel, laid out like x. Allocated on first use.
+     */
+    private double[] r1;
+    private double[] r2;
+
     /**
      *
      * @param populationSize Number of individuals to create
@@ -117,8 +234,6 @@ public class ParticleSwarmOptimizer {
             );
         }
 
-        rng = new Random();
-
         this.populationSize = populationSize;
 
         this.objective = objective;
@@ -127,14 +242,28 @@ public class ParticleSwarmOptimizer {
 
         this.bounds = bounds;
 
-        x = new double[populationSize][dim];
-        v = new double[populationSize][dim];
-        pbest = new double[populationSize][dim];
+        lowerBounds = new double[dim];
+        upperBounds = new double[dim];
+
+        for (int d = 0; d < dim; d++) {
+            lowerBounds[d] = bounds[d][0];
+            upperBounds[d] = bounds[d][1];
+        }
+
+        x = new double[populationSize * dim];
+        v = new double[populationSize * dim];
+        pbest = new double[populationSize * dim];
         pbestFitness = new double[populationSize];
+        fitness = new double[populationSize];
+        positions = new double[populationSize][dim];
         gbest = new double[dim];
 
         epochListeners = new ArrayList<>();
 
+        evaluationExecutor = EvaluationExecutor.commonPool();
+
+        setSeed(new SplittableRandom().nextLong());
+
         /* make a deep copy of seeds */
         this.seeds = new double[seeds.length][dim];
 
@@ -150,110 +279,885 @@ public class ParticleSwarmOptimizer {
         epochListeners.add(listener);
     }
 
+    public EvaluationExecutor getEvaluationExecutor() {
+        return evaluationExecutor;
+    }
+
+    /**
+     * The optimizer does not close the executor; callers that pass in an owning executor should close it themselves.
+     *
+     * @param evaluationExecutor Where objective function evaluations run
+     */
+    public void setEvaluationExecutor(EvaluationExecutor evaluationExecutor) {
+        this.evaluationExecutor = evaluationExecutor;
+    }
+
+    /**
+     * Override the default Clerc constants, e.g. to give islands in an IslandOptimizer different search behavior.
+     *
+     * @param inertia Inertia weight
+     * @param personalCoefficient Personal best coefficient
+     * @param globalCoefficient Global best coefficient
+     */
+    public void setCoefficients(double inertia, double personalCoefficient, double globalCoefficient) {
+        this.inertia = inertia;
+        this.personalCoefficient = personalCoefficient;
+        this.globalCoefficient = globalCoefficient;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Make runs reproducible. Two optimizers with the same seed, parameters and deterministic objective produce
+     * identical runs with runForIterations or runUntil, whatever executor evaluates them. Defaults to a random seed.
+     *
+     * Call before initializePopulation; this resets every particle's random stream.
+     *
+     * @param seed Master seed to derive each particle's random stream from
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        rng = new RandomStreams(seed, populationSize);
+    }
+
+    public int getPopulationSize() {
+        return populationSize;
+    }
+
+    public int getDim() {
+        return dim;
+    }
+
+    public boolean isBulkUpdate() {
+        return bulkUpdate;
+    }
+
+    /**
+     * Switch between the scalar update, which draws random coefficients inside the velocity loop, and the bulk
+     * kernel, which draws all of an epoch's coefficients up front and then runs a branch-free loop over the flat
+     * buffers that the JIT can vectorize. Both consume the random number generator in the same order, so they produce
+     * identical swarms.
+     *
+     * @param bulkUpdate true to use the bulk update kernel in runForIterations
+     */
+    public void setBulkUpdate(boolean bulkUpdate) {
+        this.bulkUpdate = bulkUpdate;
+    }
+
+    public boolean isUseCutoffs() {
+        return useCutoffs;
+    }
+
+    /**
+     * Cutoffs are on by default and don't change the course of a run, only how much work rejected candidates cost.
+     * Turn them off to get true fitness values for every evaluation, e.g. for fitness statistics.
+     *
+     * @param useCutoffs whether to pass each particle's pbest fitness as the cutoff to a CutoffObjectiveFunction
+     */
+    public void setUseCutoffs(boolean useCutoffs) {
+        this.useCutoffs = useCutoffs;
+    }
+
+    public SuccessiveHalvingSchedule getFidelitySchedule() {
+        return fidelitySchedule;
+    }
+
+    /**
+     * Evaluate each epoch with successive halving instead of evaluating every particle at full fidelity. Particles
+     * that aren't promoted all the way to full fidelity keep their pbest, and their reported fitness is their last
+     * lower-fidelity value. Requires a MultiFidelityObjectiveFunction. Only applies to synchronous runs; the initial
+     * population is always evaluated at full fidelity.
+     *
+     * @param fidelitySchedule schedule to use, or null to always evaluate at full fidelity
+     */
+    public void setFidelitySchedule(SuccessiveHalvingSchedule fidelitySchedule) {
+        if (fidelitySchedule != null && !(objective instanceof MultiFidelityObjectiveFunction)) {
+            throw new IllegalArgumentException("A fidelity schedule needs a MultiFidelityObjectiveFunction");
+        }
+
+        if (fidelitySchedule != null && surrogate != null) {
+            throw new IllegalArgumentException("Can't combine a fidelity schedule with a surrogate");
+        }
+
+        this.fidelitySchedule = fidelitySchedule;
+        exactFitness = new boolean[populationSize];
+    }
+
+    public NeighborhoodTopology getTopology() {
+        return topology;
+    }
+
+    /**
+     * Pull each particle toward the best pbest in its neighborhood instead of gbest. gbest is still tracked and
+     * reported. Not part of checkpoints; set it again after restoring.
+     *
+     * @param topology neighborhood topology for this population size, or null for the global best topology
+     */
+    public void setTopology(NeighborhoodTopology topology) {
+        if (topology != null && topology.getPopulationSize() != populationSize) {
+            throw new IllegalArgumentException("Topology is for " + topology.getPopulationSize()
+                    + " particles, population is " + populationSize);
+        }
+
+        this.topology = topology;
+
+        if (topology == null) {
+            lbest = null;
+        } else {
+            lbest = new int[populationSize];
+            topology.computeLocalBests(pbestFitness, lbest);
+        }
+    }
+
+    /**
+     * @return copy of each particle's lbest, or null without a topology
+     */
+    int[] getLocalBests() {
+        return lbest == null ? null : Arrays.copyOf(lbest, populationSize);
+    }
+
+    public SurrogateScreen getSurrogate() {
+        return surrogate;
+    }
+
+    /**
+     * Screen particles with a surrogate model each epoch, so only promising or uncertain ones are evaluated for real.
+     * The others are given their predicted fitness, which is never better than their pbest and so never updates pbest
+     * or gbest. Only applies to synchronous runs. If set before initializePopulation, the initial evaluations seed the
+     * surrogate's archive; otherwise the first epochs are evaluated for real until the archive is big enough.
+     *
+     * @param surrogate surrogate to use, or null to evaluate every particle
+     */
+    public void setSurrogate(SurrogateScreen surrogate) {
+        if (surrogate != null && fidelitySchedule != null) {
+            throw new IllegalArgumentException("Can't combine a surrogate with a fidelity schedule");
+        }
+
+        this.surrogate = surrogate;
+        exactFitness = new boolean[populationSize];
+        predictions = new double[populationSize];
+        predictedImprovement = new boolean[populationSize];
+        surrogateCutoffs = new double[populationSize];
+    }
+
+    /**
+     * Snapshot the complete swarm state. Call between epochs, e.g. from an epoch listener.
+     *
+     * @return copy of positions, velocities, personal and global bests, counters and random number generator state
+     */
+    public SwarmCheckpoint checkpoint() {
+        return new SwarmCheckpoint(
+                populationSize,
+                dim,
+                epochsCompleted,
+                evaluations,
+                seed,
+                gbestFitness,
+                Arrays.copyOf(gbest, dim),
+                Arrays.copyOf(x, x.length),
+                Arrays.copyOf(v, v.length),
+                Arrays.copyOf(pbest, pbest.length),
+                Arrays.copyOf(pbestFitness, populationSize),
+                rng.getState()
+        );
+    }
+
+    /**
+     * Recreate an optimizer from a checkpoint. The result continues exactly where the checkpointed optimizer left off;
+     * do not call initializePopulation on it.
+     *
+     * Bounds, objective function, coefficients, executor and listeners aren't part of the checkpoint and must be
+     * supplied again.
+     *
+     * @param checkpoint Checkpoint to restore
+     * @param bounds upper and lower bounds in each dimension. Should be `dim` x 2 in size.
+     * @param objective Objective function
+     * @return restored optimizer
+     */
+    public static ParticleSwarmOptimizer restore(SwarmCheckpoint checkpoint, double[][] bounds,
+            ObjectiveFunction objective) {
+        final ParticleSwarmOptimizer optimizer = new ParticleSwarmOptimizer(
+                checkpoint.populationSize,
+                checkpoint.dim,
+                bounds,
+                objective
+        );
+
+        System.arraycopy(checkpoint.x, 0, optimizer.x, 0, optimizer.x.length);
+        System.arraycopy(checkpoint.v, 0, optimizer.v, 0, optimizer.v.length);
+        System.arraycopy(checkpoint.pbest, 0, optimizer.pbest, 0, optimizer.pbest.length);
+        System.arraycopy(checkpoint.pbestFitness, 0, optimizer.pbestFitness, 0, optimizer.populationSize);
+        System.arraycopy(checkpoint.gbest, 0, optimizer.gbest, 0, optimizer.dim);
+
+        optimizer.gbestFitness = checkpoint.gbestFitness;
+        optimizer.evaluations = checkpoint.evaluations;
+        optimizer.epochsCompleted = checkpoint.epoch;
+        optimizer.seed = checkpoint.seed;
+        optimizer.rng = RandomStreams.fromState(checkpoint.rngState);
+
+        return optimizer;
+    }
+
+    /**
+     * Read a checkpoint file written by Checkpointer and restore an optimizer from it.
+     *
+     * @see #restore(SwarmCheckpoint, double[][], ObjectiveFunction)
+     */
+    public static ParticleSwarmOptimizer restore(Path path, double[][] bounds, ObjectiveFunction objective)
+            throws IOException {
+        return restore(SwarmCheckpoint.read(path), bounds, objective);
+    }
+
     public void initializePopulation() {
         for (int i = 0; i < populationSize; i++) {
+            final int offset = i * dim;
+
             for (int j = 0; j < dim; j++) {
-                final double lowerBound = bounds[j][0];
-                final double upperBound = bounds[j][1];
+                final double lowerBound = lowerBounds[j];
+                final double upperBound = upperBounds[j];
                 final double velocityRange = Math.abs(upperBound - lowerBound);
 
                 if (i < seeds.length) {
-                    x[i][j] = seeds[i][j];
+                    x[offset + j] = seeds[i][j];
                 } else {
-                    x[i][j] = randomDoubleInRange(lowerBound, upperBound);
+                    x[offset + j] = randomDoubleInRange(i, lowerBound, upperBound);
 
                 }
-                v[i][j] = randomDoubleInRange(
+                v[offset + j] = randomDoubleInRange(
+                        i,
                         -velocityRange,
                         velocityRange
                 );
             }
-
-            pbest[i] = Arrays.copyOf(x[i], dim);
         }
 
+        System.arraycopy(x, 0, pbest, 0, x.length);
+
         /* evaluate the population to initialize fitness values */
-        List<Double> fitnessValues = evaluatePopulation(0);
+        evaluatePopulation(0);
+
+        if (surrogate != null) {
+            for (int i = 0; i < populationSize; i++) {
+                surrogate.record(positions[i], fitness[i]);
+            }
+        }
 
         /* arbitrarily initialize gbest to the first individual */
-        gbest = Arrays.copyOf(x[0], dim);
-        gbestFitness = fitnessValues.get(0);
+        System.arraycopy(x, 0, gbest, 0, dim);
+        gbestFitness = fitness[0];
 
         /* now initialize pbest fitnesses */
+        System.arraycopy(fitness, 0, pbestFitness, 0, populationSize);
+
+        if (topology != null) {
+            topology.computeLocalBests(pbestFitness, lbest);
+        }
+    }
+
+    private void moveParticle(int i) {
+        final int offset = i * dim;
+
+        /* the social term pulls toward gbest, or toward the neighborhood's best pbest with a topology */
+        final double[] attractor = topology == null ? gbest : pbest;
+        final int attractorOffset = topology == null ? 0 : lbest[i] * dim;
+
+        for (int d = 0; d < dim; d++) {
+            final int k = offset + d;
+            final double r1 = rng.nextDouble(i);
+            final double r2 = rng.nextDouble(i);
+
+            v[k] = inertia * v[k] + personalCoefficient * r1 * (pbest[k] - x[k])
+                    + globalCoefficient * r2 * (attractor[attractorOffset + d] - x[k]);
+            x[k] = Math.min(Math.max(x[k] + v[k], lowerBounds[d]), upperBounds[d]);
+        }
+    }
+
+    /**
+     * Move every particle at once. Equivalent to calling moveParticle on each particle in order.
+     */
+    private void moveSwarm() {
+        final int length = populationSize * dim;
+
+        if (r1 == null) {
+            r1 = new double[length];
+            r2 = new double[length];
+        }
+
+        /* draw in the same order as moveParticle so both kernels see the same random sequence */
+        for (int i = 0; i < populationSize; i++) {
+            for (int k = i * dim; k < (i + 1) * dim; k++) {
+                r1[k] = rng.nextDouble(i);
+                r2[k] = rng.nextDouble(i);
+            }
+        }
+
+        final double[] attractor = topology == null ? gbest : pbest;
+
         for (int i = 0; i < populationSize; i++) {
-            final double fitnessValue = fitnessValues.get(i);
-            pbestFitness[i] = fitnessValue;
+            final int offset = i * dim;
+            final int attractorOffset = topology == null ? 0 : lbest[i] * dim;
+
+            for (int d = 0; d < dim; d++) {
+                final int k = offset + d;
+                final double velocity = inertia * v[k] + personalCoefficient * r1[k] * (pbest[k] - x[k])
+                        + globalCoefficient * r2[k] * (attractor[attractorOffset + d] - x[k]);
+
+                v[k] = velocity;
+                x[k] = Math.min(Math.max(x[k] + velocity, lowerBounds[d]), upperBounds[d]);
+            }
+        }
+    }
+
+    private void updateBests(int i, double currentFitness) {
+        if (currentFitness < pbestFitness[i]) {
+            pbestFitness[i] = currentFitness;
+            System.arraycopy(x, i * dim, pbest, i * dim, dim);
+
+            if (topology != null) {
+                topology.propagateLocalBest(i, pbestFitness, lbest);
+            }
+        }
+
+        if (currentFitness < gbestFitness) {
+            gbestFitness = currentFitness;
+            System.arraycopy(x, i * dim, gbest, 0, dim);
         }
     }
 
-    private double clipToBounds(double value, int dimension) {
-        final double lowerBound = bounds[dimension][0];
+    private EpochPerformanceResult runEpoch(final int epoch) {
+        if (bulkUpdate) {
+            moveSwarm();
+        } else {
+            for (int i = 0; i < populationSize; i++) {
+                moveParticle(i);
+            }
+        }
 
-        if (value < lowerBound) {
-            return lowerBound;
+        /* because each evaluation is independent, the evaluation executor can run them in parallel. a particle whose
+           fitness ends up above its pbest changes nothing, so its pbest is a safe cutoff */
+        final double[] cutoffs = useCutoffs ? pbestFitness : null;
+
+        if (fidelitySchedule != null) {
+            evaluateSuccessiveHalving(epoch, cutoffs);
+        } else if (surrogate != null) {
+            evaluateWithSurrogate(epoch, cutoffs);
+        } else {
+            evaluatePopulation(epoch, cutoffs);
         }
 
-        final double upperBound = bounds[dimension][1];
+        final boolean allExact = fidelitySchedule == null && surrogate == null;
 
-        if (value > upperBound) {
-            return upperBound;
+        for (int i = 0; i < populationSize; i++) {
+            if (allExact || exactFitness[i]) {
+                updateBests(i, fitness[i]);
+            }
         }
 
-        return value;
+        epochsCompleted++;
+
+        final EpochPerformanceResult result = EpochPerformanceResult.view(fitness, gbest, gbestFitness);
+
+        epochListeners.forEach(listener -> listener.onEpochComplete(result, epoch));
+
+        return result;
     }
 
     public List<EpochPerformanceResult> runForIterations(int iterations) {
-        final List<EpochPerformanceResult> results = new ArrayList<>(iterations);
+        return runForIterations(iterations, EpochHistory.all()).getResults();
+    }
 
-        for (int epoch = 1; epoch <= iterations; epoch++) {
-            for (int i = 0; i < populationSize; i++) {
-                for (int d = 0; d < dim; d++) {
-                    final double r1 = rng.nextDouble();
-                    final double r2 = rng.nextDouble();
+    /**
+     * Epochs are numbered on from the ones already run, so a run restored from a checkpoint passes objectives and
+     * listeners the same iterations an uninterrupted run would.
+     *
+     * @param iterations Number of epochs to run
+     * @param history Where to record each epoch's result
+     * @return history, for chaining
+     */
+    public EpochHistory runForIterations(int iterations, EpochHistory history) {
+        for (int n = 0; n < iterations; n++) {
+            final int epoch = (int) epochsCompleted + 1;
+            history.record(runEpoch(epoch), epoch);
+        }
 
-                    v[i][d] = W * v[i][d] + C1 * r1 * (pbest[i][d] - x[i][d]) + C2 * r2 * (gbest[d] - x[i][d]);
-                    x[i][d] = clipToBounds(x[i][d] + v[i][d], d);
-                }
+        return history;
+    }
+
+    /**
+     * Run epochs until the stop condition fires. The condition is checked after every epoch.
+     *
+     * Make sure the condition eventually fires, e.g. by including StopCondition.maxEpochs.
+     *
+     * @param stopCondition When to stop
+     * @return best solution found and the reason the run stopped
+     */
+    public OptimizationResult runUntil(StopCondition stopCondition) {
+        return runUntil(stopCondition, EpochHistory.all());
+    }
+
+    /**
+     * Run epochs until the stop condition fires, keeping only as much history as the given history retains.
+     *
+     * Epochs are numbered on from the ones already run, as in runForIterations, so StopCondition.maxEpochs caps the
+     * total including epochs run before a restore from checkpoint.
+     *
+     * @param stopCondition When to stop
+     * @param history Where to record each epoch's result
+     * @return best solution found and the reason the run stopped. results holds what history retained.
+     */
+    public OptimizationResult runUntil(StopCondition stopCondition, EpochHistory history) {
+        final long start = System.currentTimeMillis();
+
+        int epoch = (int) epochsCompleted;
+        int epochsSinceImprovement = 0;
+        StopReason stopReason = null;
+
+        while (stopReason == null) {
+            epoch++;
+
+            final double previousGbestFitness = gbestFitness;
+            history.record(runEpoch(epoch), epoch);
+
+            epochsSinceImprovement = gbestFitness < previousGbestFitness ? 0 : epochsSinceImprovement + 1;
+
+            final OptimizationProgress progress = new OptimizationProgress(
+                    epoch,
+                    evaluations,
+                    gbestFitness,
+                    epochsSinceImprovement,
+                    System.currentTimeMillis() - start,
+                    this::getSwarmDiameter
+            );
+
+            stopReason = stopCondition.check(progress);
+        }
+
+        return new OptimizationResult(gbest, gbestFitness, stopReason, epoch, evaluations, history.getResults());
+    }
+
+    /**
+     * @return diagonal of the bounding box around all current particle positions
+     */
+    public double getSwarmDiameter() {
+        double sumOfSquares = 0.0;
+
+        for (int d = 0; d < dim; d++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+
+            for (int k = d; k < x.length; k += dim) {
+                min = Math.min(min, x[k]);
+                max = Math.max(max, x[k]);
             }
 
-            final int epochDummy = epoch;
+            sumOfSquares += (max - min) * (max - min);
+        }
+
+        return Math.sqrt(sumOfSquares);
+    }
+
+    /**
+     * @return epochs run so far, counting those run before the checkpoint this optimizer was restored from
+     */
+    public long getEpoch() {
+        return epochsCompleted;
+    }
+
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    public double[] getGbest() {
+        return Arrays.copyOf(gbest, dim);
+    }
+
+    public double getGbestFitness() {
+        return gbestFitness;
+    }
+
+    /**
+     * Asynchronous steady-state variant of runForIterations.
+     *
+     * There is no barrier between epochs: as soon as a particle's evaluation finishes, its pbest and gbest are updated
+     * and it is moved and resubmitted using whatever gbest exists at that moment. Slow evaluations therefore don't hold
+     * up the rest of the swarm.
+     *
+     * Evaluations are submitted to the evaluation executor. Every particle is still evaluated exactly `iterations`
+     * times. Since particles no longer move in lockstep, an "epoch" result is reported after every populationSize
+     * completed evaluations and contains the fitness values of those evaluations.
+     *
+     * Each particle still draws from its own random stream, but which gbest a particle sees depends on the order
+     * evaluations complete in, so asynchronous runs are not reproducible from the seed alone.
+     *
+     * @param iterations Number of evaluations to perform per particle
+     * @param maxInFlight Maximum number of evaluations running at once
+     * @return one result per populationSize completed evaluations
+     */
+    public List<EpochPerformanceResult> runAsynchronously(int iterations, int maxInFlight) {
+        return runAsynchronously(iterations, maxInFlight, EpochHistory.all()).getResults();
+    }
+
+    /**
+     * @see #runAsynchronously(int, int)
+     *
+     * @param history Where to record each result
+     * @return history, for chaining
+     */
+    public EpochHistory runAsynchronously(int iterations, int maxInFlight, EpochHistory history) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive, got " + maxInFlight);
+        }
+
+        final CompletionService<AsyncEvaluation> completionService = new ExecutorCompletionService<>(evaluationExecutor);
+
+        /* only the calling thread touches swarm state. positions[i] is not modified while particle i is in flight. */
+        final int[] particleEvaluations = new int[populationSize];
+        final Deque<Integer> ready = new ArrayDeque<>(populationSize);
+
+        for (int i = 0; i < populationSize; i++) {
+            ready.add(i);
+        }
+
+        final long totalEvaluations = (long) iterations * populationSize;
+        final int previousEpochs = (int) epochsCompleted;
+        long completed = 0;
+        int inFlight = 0;
+        int completedThisEpoch = 0;
+
+        try {
+            while (completed < totalEvaluations) {
+                while (inFlight < maxInFlight && !ready.isEmpty()) {
+                    final int i = ready.poll();
+                    moveParticle(i);
+                    particleEvaluations[i]++;
+                    evaluations++;
+
+                    final double[] position = copyPosition(i);
+                    final int particleEpoch = previousEpochs + particleEvaluations[i];
+
+                    /* only this particle's own evaluation can lower its pbest, so it is still the right cutoff when the
+                       result comes back */
+                    final double cutoff = useCutoffs ? pbestFitness[i] : Double.POSITIVE_INFINITY;
+
+                    completionService.submit(() -> new AsyncEvaluation(
+                            i,
+                            CutoffObjectiveFunction.evaluate(objective, position, particleEpoch, cutoff)
+                    ));
+                    inFlight++;
+                }
+
+                final AsyncEvaluation evaluation = completionService.take().get();
+                inFlight--;
+                completed++;
 
-            /* because each evaluation runs in parallel, we can easily just do a parallel map */
-            List<Double> fitnessValues = evaluatePopulation(epochDummy);
+                updateBests(evaluation.particle, evaluation.fitness);
+                fitness[completedThisEpoch++] = evaluation.fitness;
 
-            for (int i = 0; i < fitnessValues.size(); i++) {
-                final double currentFitness = fitnessValues.get(i);
-                if (currentFitness < pbestFitness[i]) {
-                    pbestFitness[i] = currentFitness;
-                    pbest[i] = Arrays.copyOf(x[i], dim);
+                if (particleEvaluations[evaluation.particle] < iterations) {
+                    ready.add(evaluation.particle);
                 }
 
-                if (currentFitness < gbestFitness) {
-                    gbestFitness = currentFitness;
-                    gbest = Arrays.copyOf(x[i], dim);
+                if (completedThisEpoch == populationSize) {
+                    epochsCompleted++;
+
+                    final int epoch = previousEpochs + (int) (completed / populationSize);
+                    final EpochPerformanceResult result = EpochPerformanceResult.view(fitness, gbest, gbestFitness);
+
+                    epochListeners.forEach(listener -> listener.onEpochComplete(result, epoch));
+
+                    history.record(result, epoch);
+                    completedThisEpoch = 0;
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for evaluations", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Objective function evaluation failed", e.getCause());
+        }
 
-            final EpochPerformanceResult result = new EpochPerformanceResult(fitnessValues, gbest, gbestFitness);
+        return history;
+    }
+
+    private static final class AsyncEvaluation {
 
-            epochListeners.forEach(listener -> listener.onEpochComplete(result, epochDummy));
+        final int particle;
+        final double fitness;
 
-            results.add(result);
+        AsyncEvaluation(int particle, double fitness) {
+            this.particle = particle;
+            this.fitness = fitness;
         }
+    }
 
-        return results;
+    /**
+     * Personal bests of the fittest particles, for migration to other swarms.
+     *
+     * @param count Number of particles to return
+     * @return positions in result[0..count-1] and their fitness values in fitnessOut
+     */
+    double[][] getBestParticles(int count, double[] fitnessOut) {
+        final int[] order = particlesByPbestFitness();
+        final double[][] best = new double[count][dim];
+
+        for (int n = 0; n < count; n++) {
+            final int i = order[n];
+            System.arraycopy(pbest, i * dim, best[n], 0, dim);
+            fitnessOut[n] = pbestFitness[i];
+        }
+
+        return best;
     }
 
-    private List<Double> evaluatePopulation(final int epoch) {
-        return Arrays.stream(x).parallel().map(position
-                -> objective.evaluate(position, epoch)
-        ).collect(
-                Collectors.toList()
-        );
+    /**
+     * Replace the worst particles with migrants from another swarm. A migrant only replaces a particle whose pbest is
+     * worse than the migrant's fitness. Velocities of replaced particles are kept.
+     *
+     * @param migrants Migrant positions
+     * @param migrantFitness Fitness of each migrant position
+     */
+    void acceptMigrants(double[][] migrants, double[] migrantFitness) {
+        final int[] order = particlesByPbestFitness();
+
+        for (int n = 0; n < migrants.length; n++) {
+            final int i = order[populationSize - 1 - n];
+
+            if (migrantFitness[n] >= pbestFitness[i]) {
+                continue;
+            }
+
+            System.arraycopy(migrants[n], 0, x, i * dim, dim);
+            System.arraycopy(migrants[n], 0, pbest, i * dim, dim);
+            pbestFitness[i] = migrantFitness[n];
+
+            if (topology != null) {
+                topology.propagateLocalBest(i, pbestFitness, lbest);
+            }
+
+            if (migrantFitness[n] < gbestFitness) {
+                gbestFitness = migrantFitness[n];
+                System.arraycopy(migrants[n], 0, gbest, 0, dim);
+            }
+        }
+    }
+
+    /**
+     * Migration only happens between epochs, so this shares the scratch array evaluations use.
+     *
+     * @return particle indices from best to worst pbest fitness, ties in index order
+     */
+    private int[] particlesByPbestFitness() {
+        final int[] order = particleScratch();
+
+        for (int i = 0; i < populationSize; i++) {
+            order[i] = i;
+        }
+
+        IndexSort.sort(order, populationSize, pbestFitness);
+
+        return order;
+    }
+
+    /**
+     * Copy particle i's current position out of the flat buffer into its reusable position array.
+     */
+    private double[] copyPosition(int i) {
+        System.arraycopy(x, i * dim, positions[i], 0, dim);
+        return positions[i];
+    }
+
+    /**
+     * Evaluate every particle's current position into the fitness array.
+     */
+    private void evaluatePopulation(final int epoch) {
+        evaluatePopulation(epoch, null);
+    }
+
+    /**
+     * @param cutoffs per-particle cutoffs for CutoffObjectiveFunctions, or null to evaluate fully
+     */
+    private void evaluatePopulation(final int epoch, final double[] cutoffs) {
+        for (int i = 0; i < populationSize; i++) {
+            copyPosition(i);
+        }
+
+        evaluationExecutor.evaluateAll(objective, positions, epoch, cutoffs, fitness);
+        evaluations += populationSize;
+    }
+
+    /**
+     * Evaluate the swarm rung by rung, promoting the fittest particles of each rung to the next fidelity.
+     */
+    private void evaluateSuccessiveHalving(final int epoch, final double[] cutoffs) {
+        final MultiFidelityObjectiveFunction multiFidelityObjective = (MultiFidelityObjectiveFunction) objective;
+        final int[] candidates = particleScratch();
+
+        for (int i = 0; i < populationSize; i++) {
+            copyPosition(i);
+            candidates[i] = i;
+        }
+
+        Arrays.fill(exactFitness, false);
+
+        final int lastRung = fidelitySchedule.getRungs() - 1;
+        int count = populationSize;
+
+        for (int rung = 0; rung <= lastRung; rung++) {
+            evaluateParticles(
+                    multiFidelityObjective.atFidelity(fidelitySchedule.getFidelity(rung)),
+                    candidates,
+                    count,
+                    epoch,
+                    cutoffs
+            );
+
+            fidelitySchedule.recordEvaluations(rung, count);
+
+            if (rung == lastRung) {
+                for (int n = 0; n < count; n++) {
+                    exactFitness[candidates[n]] = true;
+                }
+            } else {
+                count = keepFittest(candidates, count, fidelitySchedule.promoted(count));
+            }
+        }
+    }
+
+    /**
+     * Compact the fittest kept of candidates[0..count-1] into the front of the array, in their current order. Ties
+     * with the kept-th best fitness are broken by that order.
+     *
+     * @return kept
+     */
+    private int keepFittest(int[] candidates, int count, int kept) {
+        if (sortScratch == null) {
+            sortScratch = new double[populationSize];
+        }
+
+        for (int n = 0; n < count; n++) {
+            sortScratch[n] = fitness[candidates[n]];
+        }
+
+        Arrays.sort(sortScratch, 0, count);
+
+        final double threshold = sortScratch[kept - 1];
+        int ties = kept;
+
+        for (int n = 0; n < kept; n++) {
+            if (Double.compare(sortScratch[n], threshold) < 0) {
+                ties--;
+            }
+        }
+
+        int next = 0;
+
+        for (int n = 0; n < count && next < kept; n++) {
+            final int comparison = Double.compare(fitness[candidates[n]], threshold);
+
+            if (comparison < 0 || (comparison == 0 && ties-- > 0)) {
+                candidates[next++] = candidates[n];
+            }
+        }
+
+        return kept;
+    }
+
+    /**
+     * Evaluate for real only the particles the surrogate considers promising or uncertain, and give the rest their
+     * predicted fitness.
+     *
+     * Promising particles are evaluated with their cutoff. Uncertain ones are evaluated fully whatever their fitness,
+     * so that the archive learns about the regions the model knows least about, not only about improvements.
+     */
+    private void evaluateWithSurrogate(final int epoch, final double[] cutoffs) {
+        final boolean fitted = surrogate.fit();
+        final int[] selected = particleScratch();
+        int count = 0;
+
+        /* only these can stop early and return a lower bound instead of the fitness */
+        final boolean cutsOff = cutoffs != null
+                && (objective instanceof CutoffObjectiveFunction || objective instanceof BatchObjectiveFunction);
+
+        for (int i = 0; i < populationSize; i++) {
+            copyPosition(i);
+
+            predictions[i] = fitted ? surrogate.predict(positions[i]) : 0.0;
+            predictedImprovement[i] = fitted && predictions[i] < pbestFitness[i];
+
+            if (surrogate.needsRealEvaluation(positions[i], pbestFitness[i], predictions[i])) {
+                selected[count++] = i;
+                exactFitness[i] = true;
+                surrogateCutoffs[i] = cutsOff && predictedImprovement[i] ? cutoffs[i] : Double.POSITIVE_INFINITY;
+            } else {
+                fitness[i] = predictions[i];
+                exactFitness[i] = false;
+                surrogate.recordSurrogateEvaluation();
+            }
+        }
+
+        evaluateParticles(objective, selected, count, epoch, cutsOff ? surrogateCutoffs : null);
+
+        for (int n = 0; n < count; n++) {
+            final int i = selected[n];
+
+            /* above the cutoff, the objective may have stopped early and returned a lower bound */
+            final boolean exact = !cutsOff || fitness[i] <= surrogateCutoffs[i];
+
+            surrogate.recordRealEvaluation(predictions[i], fitness[i], exact, fitness[i] < pbestFitness[i],
+                    predictedImprovement[i]);
+
+            /* a lower bound would pull the interpolant down around a position that is actually worse */
+            if (exact) {
+                surrogate.record(positions[i], fitness[i]);
+            }
+        }
+    }
+
+    /**
+     * @return scratch array of particle indices, sized to the population
+     */
+    private int[] particleScratch() {
+        if (particleScratch == null) {
+            particleScratch = new int[populationSize];
+        }
+
+        return particleScratch;
+    }
+
+    /**
+     * Evaluate a subset of the swarm, whose positions have already been copied out, into the fitness array.
+     *
+     * @param particles Indices of the particles to evaluate in particles[0..count-1]
+     */
+    private void evaluateParticles(final ObjectiveFunction objective, final int[] particles, final int count,
+            final int epoch, final double[] cutoffs) {
+        if (subsetPositions == null) {
+            subsetPositions = new double[populationSize][];
+            subsetCutoffs = new double[populationSize];
+            subsetFitness = new double[populationSize];
+        }
+
+        for (int n = 0; n < count; n++) {
+            subsetPositions[n] = positions[particles[n]];
+
+            if (cutoffs != null) {
+                subsetCutoffs[n] = cutoffs[particles[n]];
+            }
+        }
+
+        evaluationExecutor.evaluateAll(objective, subsetPositions, count, epoch, cutoffs == null ? null : subsetCutoffs,
+                subsetFitness);
+        evaluations += count;
+
+        for (int n = 0; n < count; n++) {
+            fitness[particles[n]] = subsetFitness[n];
+        }
     }
 
-    private double randomDoubleInRange(double lowerBound, double upperBound) {
-        return rng.nextDouble() * (upperBound - lowerBound) + lowerBound;
+    private double randomDoubleInRange(int particle, double lowerBound, double upperBound) {
+        return rng.nextDouble(particle) * (upperBound - lowerBound) + lowerBound;
     }
 
     public static void main(String[] args) {
@@ -313,11 +1217,12 @@ public class ParticleSwarmOptimizer {
         final int iterations = 500;
 
         long start = System.currentTimeMillis();
-        final List<EpochPerformanceResult> results = optimizer.runForIterations(iterations);
+        final EpochHistory history = optimizer.runForIterations(iterations, EpochHistory.summaryOnly());
         long end = System.currentTimeMillis();
 
         System.out.println("Elapsed: " + (end - start) / 1000.0 + "s");
-        System.out.println("Best result: " + Arrays.toString(results.get(iterations - 1).gbest));
-        System.out.println(results.get(iterations - 1).gbestFitness);
+        System.out.println("Best result: " + Arrays.toString(history.getLast().gbest));
+        System.out.println(history.getLast().gbestFitness);
+        System.out.println("Fitness statistics over the run: " + history.getFitnessStatistics());
     }
 }
@@ -0,0 +1,245 @@
+package org.wkh.swarmscale.optimization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Local search for polishing an optimizer result, typically the gbest of a PSO run.
+ *
+ * Compass pattern search: each step polls the current point plus and minus the step size along every coordinate,
+ * evaluating all 2 * dim probes in parallel on the evaluation executor. The best probe that improves on the current
+ * point becomes the new point; if none does, every step size is halved. Step sizes start as a fraction of each
+ * dimension's range, so dimensions with large ranges aren't searched with the same step as small ones.
+ *
+ * Stops once the step has shrunk below the tolerance or the evaluation budget is spent, whichever comes first.
+ *
+ * Every evaluation is passed the same iteration, so objectives that vary with the iteration (e.g. by reseeding a
+ * simulation) are compared consistently.
+ */
+public class PatternSearchRefiner {
+
+    private final double[][] bounds;
+    private final ObjectiveFunction objective;
+    private final int dim;
+
+    private EvaluationExecutor evaluationExecutor = EvaluationExecutor.commonPool();
+
+    /**
+     * Initial step, as a fraction of each dimension's range
+     */
+    private double initialStep = 0.05;
+
+    /**
+     * Stop once the step, as a fraction of each dimension's range, is below this
+     */
+    private double tolerance = 1.0e-6;
+
+    private long maxEvaluations = Long.MAX_VALUE;
+    private int iteration = 0;
+    private boolean useCutoffs = true;
+
+    /**
+     * @param bounds Search space bounds. Probes are clamped to them.
+     * @param objective Objective function to minimize
+     */
+    public PatternSearchRefiner(double[][] bounds, ObjectiveFunction objective) {
+        this.bounds = bounds;
+        this.objective = objective;
+
+        dim = bounds.length;
+    }
+
+    public EvaluationExecutor getEvaluationExecutor() {
+        return evaluationExecutor;
+    }
+
+    public void setEvaluationExecutor(EvaluationExecutor evaluationExecutor) {
+        this.evaluationExecutor = evaluationExecutor;
+    }
+
+    public double getInitialStep() {
+        return initialStep;
+    }
+
+    /**
+     * @param initialStep Initial step as a fraction of each dimension's range, in (0, 1]
+     */
+    public void setInitialStep(double initialStep) {
+        if (!(initialStep > 0.0 && initialStep <= 1.0)) {
+            throw new IllegalArgumentException("Initial step must be in (0, 1], got " + initialStep);
+        }
+
+        this.initialStep = initialStep;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * @param tolerance Stop once the step as a fraction of each dimension's range is below this
+     */
+    public void setTolerance(double tolerance) {
+        if (!(tolerance > 0.0)) {
+            throw new IllegalArgumentException("Tolerance must be positive, got " + tolerance);
+        }
+
+        this.tolerance = tolerance;
+    }
+
+    public long getMaxEvaluations() {
+        return maxEvaluations;
+    }
+
+    /**
+     * @param maxEvaluations Evaluation budget, including the evaluation of the start point if its fitness isn't given
+     */
+    public void setMaxEvaluations(long maxEvaluations) {
+        if (maxEvaluations < 1) {
+            throw new IllegalArgumentException("Evaluation budget must be positive, got " + maxEvaluations);
+        }
+
+        this.maxEvaluations = maxEvaluations;
+    }
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    /**
+     * @param iteration Iteration passed to every evaluation, e.g. the epoch the optimizer stopped at
+     */
+    public void setIteration(int iteration) {
+        this.iteration = iteration;
+    }
+
+    public boolean isUseCutoffs() {
+        return useCutoffs;
+    }
+
+    /**
+     * Whether to pass the current point's fitness as the cutoff when the objective is a CutoffObjectiveFunction. Only
+     * improvements are of interest, so probes can be abandoned as soon as they are worse. Enabled by default.
+     */
+    public void setUseCutoffs(boolean useCutoffs) {
+        this.useCutoffs = useCutoffs;
+    }
+
+    /**
+     * Refine a point whose fitness isn't known yet. Costs one extra evaluation.
+     */
+    public OptimizationResult refine(double[] start) {
+        final double[] fitness = new double[1];
+        evaluationExecutor.evaluateAll(objective, new double[][] {clamp(start)}, iteration, fitness);
+
+        return refine(start, fitness[0], 1);
+    }
+
+    /**
+     * Refine a point whose fitness is already known, such as an optimizer's gbest.
+     *
+     * @param start Start point
+     * @param startFitness Its fitness
+     * @return best point found. epochs counts poll steps, results has one entry per step with the fitness of its
+     * probes.
+     */
+    public OptimizationResult refine(double[] start, double startFitness) {
+        return refine(start, startFitness, 0);
+    }
+
+    private OptimizationResult refine(double[] start, double startFitness, long evaluations) {
+        if (start.length != dim) {
+            throw new IllegalArgumentException("Start point has " + start.length + " dimensions, expected " + dim);
+        }
+
+        final double[] current = clamp(start);
+        double currentFitness = startFitness;
+
+        double step = initialStep;
+
+        final double[][] probes = new double[2 * dim][dim];
+        final double[] probeFitness = new double[2 * dim];
+        final double[] cutoffs = new double[2 * dim];
+
+        final List<EpochPerformanceResult> results = new ArrayList<>();
+        int steps = 0;
+
+        StopReason stopReason = null;
+
+        while (stopReason == null) {
+            if (step < tolerance) {
+                stopReason = StopReason.CONVERGED;
+                break;
+            }
+
+            final long remaining = maxEvaluations - evaluations;
+
+            if (remaining <= 0) {
+                stopReason = StopReason.MAX_EVALUATIONS;
+                break;
+            }
+
+            int probeCount = 0;
+
+            for (int d = 0; d < dim && probeCount < remaining; d++) {
+                final double range = bounds[d][1] - bounds[d][0];
+
+                for (int sign = -1; sign <= 1 && probeCount < remaining; sign += 2) {
+                    final double[] probe = probes[probeCount];
+                    System.arraycopy(current, 0, probe, 0, dim);
+                    probe[d] = Math.max(bounds[d][0], Math.min(bounds[d][1], current[d] + sign * step * range));
+
+                    /* clamped back onto the current point against a bound, nothing to learn */
+                    if (probe[d] != current[d]) {
+                        probeCount++;
+                    }
+                }
+            }
+
+            if (probeCount == 0) {
+                step /= 2.0;
+                continue;
+            }
+
+            final double[][] polled = probeCount == probes.length ? probes : Arrays.copyOf(probes, probeCount);
+            final double[] polledFitness = probeCount == probes.length
+                    ? probeFitness
+                    : new double[probeCount];
+
+            Arrays.fill(cutoffs, currentFitness);
+            evaluationExecutor.evaluateAll(objective, polled, iteration, useCutoffs ? cutoffs : null, polledFitness);
+            evaluations += probeCount;
+            steps++;
+
+            int best = -1;
+
+            for (int p = 0; p < probeCount; p++) {
+                if (polledFitness[p] < currentFitness) {
+                    currentFitness = polledFitness[p];
+                    best = p;
+                }
+            }
+
+            if (best >= 0) {
+                System.arraycopy(polled[best], 0, current, 0, dim);
+            } else {
+                step /= 2.0;
+            }
+
+            results.add(new EpochPerformanceResult(polledFitness, current, currentFitness));
+        }
+
+        return new OptimizationResult(current, currentFitness, stopReason, steps, evaluations, results);
+    }
+
+    private double[] clamp(double[] position) {
+        final double[] clamped = new double[dim];
+
+        for (int d = 0; d < dim; d++) {
+            clamped[d] = Math.max(bounds[d][0], Math.min(bounds[d][1], position[d]));
+        }
+
+        return clamped;
+    }
+}
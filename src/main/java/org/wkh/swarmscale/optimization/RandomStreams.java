@@ -0,0 +1,108 @@
+package org.wkh.swarmscale.optimization;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A fixed number of independent random number streams, e.g. one per particle.
+ *
+ * Each stream is a SplitMix64 generator, the algorithm behind SplittableRandom, started at a point drawn from a
+ * SplittableRandom seeded with the master seed. Unlike SplittableRandom the state of every stream is a plain long, so
+ * all of them fit in one primitive array that checkpoints can copy. Streams share nothing, so a stream's sequence only
+ * depends on the master seed and its index, not on which thread uses it or when.
+ *
+ * Not thread safe per stream: each stream should only be used by one thread at a time.
+ */
+public final class RandomStreams {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private final long[] state;
+
+    public RandomStreams(long seed, int count) {
+        final SplittableRandom root = new SplittableRandom(seed);
+        state = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            state[i] = root.nextLong();
+        }
+    }
+
+    private RandomStreams(long[] state) {
+        this.state = state;
+    }
+
+    /**
+     * Streams that each produce exactly the sequence a SplittableRandom constructed with the corresponding seed would,
+     * for code that has to reproduce simulations written against SplittableRandom.
+     *
+     * @param seeds Seed of each stream
+     */
+    public static RandomStreams ofSeeds(long[] seeds) {
+        return new RandomStreams(Arrays.copyOf(seeds, seeds.length));
+    }
+
+    public int size() {
+        return state.length;
+    }
+
+    /**
+     * @return uniformly distributed double in [0, 1) from the given stream
+     */
+    public double nextDouble(int stream) {
+        return (mix(state[stream] += GOLDEN_GAMMA) >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @return uniformly distributed long from the given stream
+     */
+    public long nextLong(int stream) {
+        return mix(state[stream] += GOLDEN_GAMMA);
+    }
+
+    /**
+     * @return uniformly distributed int in [0, bound) from the given stream, drawn the same way as
+     * SplittableRandom.nextInt(bound)
+     */
+    public int nextInt(int stream, int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Bound must be positive, got " + bound);
+        }
+
+        int r = mix32(state[stream] += GOLDEN_GAMMA);
+        final int m = bound - 1;
+
+        if ((bound & m) == 0) {
+            return r & m;
+        }
+
+        /* reject draws from the incomplete last multiple of bound so the result stays uniform */
+        for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = mix32(state[stream] += GOLDEN_GAMMA) >>> 1) {
+        }
+
+        return r;
+    }
+
+    long[] getState() {
+        return Arrays.copyOf(state, state.length);
+    }
+
+    static RandomStreams fromState(long[] state) {
+        return new RandomStreams(Arrays.copyOf(state, state.length));
+    }
+
+    private static int mix32(long z) {
+        z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+        return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+    }
+
+    /**
+     * SplitMix64 finalizer: a cheap, well-distributed 64 bit hash. Also useful for deriving seeds from other values.
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,81 @@
+package org.wkh.swarmscale.optimization;
+
+/**
+ * Decides when an optimization run should end. Checked once after every epoch.
+ *
+ * Conditions compose with or()/anyOf(), so a tuning job can be capped several ways at once, for example:
+ *
+ * StopCondition.maxEpochs(500).or(StopCondition.noImprovement(50)).or(StopCondition.deadline(60 * 60 * 1000))
+ */
+@FunctionalInterface
+public interface StopCondition {
+
+    /**
+     * @param progress State of the run after the latest epoch
+     * @return reason to stop, or null to keep going
+     */
+    public StopReason check(OptimizationProgress progress);
+
+    public default StopCondition or(StopCondition other) {
+        return progress -> {
+            final StopReason reason = check(progress);
+            return reason != null ? reason : other.check(progress);
+        };
+    }
+
+    public static StopCondition anyOf(StopCondition... conditions) {
+        return progress -> {
+            for (StopCondition condition : conditions) {
+                final StopReason reason = condition.check(progress);
+
+                if (reason != null) {
+                    return reason;
+                }
+            }
+
+            return null;
+        };
+    }
+
+    /**
+     * @param epochs Stop once this many epochs have run, counting those run before a restore from checkpoint
+     */
+    public static StopCondition maxEpochs(int epochs) {
+        return progress -> progress.epoch >= epochs ? StopReason.MAX_EPOCHS : null;
+    }
+
+    public static StopCondition targetFitness(double target) {
+        return progress -> progress.gbestFitness <= target ? StopReason.TARGET_FITNESS : null;
+    }
+
+    /**
+     * @param epochs Number of consecutive epochs without a strictly better gbest to tolerate
+     */
+    public static StopCondition noImprovement(int epochs) {
+        return progress -> progress.epochsSinceImprovement >= epochs ? StopReason.STAGNATION : null;
+    }
+
+    /**
+     * @param epsilon Stop once the bounding box around the swarm has a diagonal smaller than this
+     */
+    public static StopCondition swarmDiameterBelow(double epsilon) {
+        return progress -> progress.getSwarmDiameter() < epsilon ? StopReason.CONVERGED : null;
+    }
+
+    /**
+     * @param evaluations Stop once at least this many objective function evaluations have been made, including the
+     * ones made by initializePopulation
+     */
+    public static StopCondition maxEvaluations(long evaluations) {
+        return progress -> progress.evaluations >= evaluations ? StopReason.MAX_EVALUATIONS : null;
+    }
+
+    /**
+     * Epochs are never interrupted, so a run can overshoot the deadline by up to one epoch.
+     *
+     * @param millis Wall clock budget for the run, measured from the start of runUntil
+     */
+    public static StopCondition deadline(long millis) {
+        return progress -> progress.elapsedMillis >= millis ? StopReason.DEADLINE : null;
+    }
+}
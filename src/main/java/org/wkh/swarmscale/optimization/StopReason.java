@@ -0,0 +1,13 @@
+package org.wkh.swarmscale.optimization;
+
+/**
+ * Why an optimization run ended.
+ */
+public enum StopReason {
+    MAX_EPOCHS,
+    TARGET_FITNESS,
+    STAGNATION,
+    CONVERGED,
+    MAX_EVALUATIONS,
+    DEADLINE
+}
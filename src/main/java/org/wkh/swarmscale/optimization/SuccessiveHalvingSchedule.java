@@ -0,0 +1,119 @@
+package org.wkh.swarmscale.optimization;
+
+import java.util.Arrays;
+
+/**
+ * Successive halving over fidelities, as in Hyperband.
+ *
+ * Each epoch, every particle is evaluated at the first (lowest) fidelity. The best promotionFraction of them move on
+ * to the next fidelity, the best fraction of those to the one after, and so on up to full fidelity. Only full-fidelity
+ * fitness values update pbest and gbest, so they are never compared against a cheaper approximation.
+ *
+ * With fidelities {1/9, 1/3, 1} and a promotion fraction of 1/3, an epoch costs about a third of evaluating the whole
+ * swarm at full fidelity.
+ *
+ * Keeps per-rung evaluation counts; use one schedule per optimizer.
+ */
+public class SuccessiveHalvingSchedule {
+
+    private final double[] fidelities;
+    private final double promotionFraction;
+    private final long[] evaluations;
+
+    /**
+     * @param fidelities Fidelity of each rung, strictly increasing and ending at 1
+     * @param promotionFraction Fraction of each rung's candidates promoted to the next rung, in (0, 1]
+     */
+    public SuccessiveHalvingSchedule(double[] fidelities, double promotionFraction) {
+        if (fidelities.length == 0 || fidelities[fidelities.length - 1] != 1.0) {
+            throw new IllegalArgumentException("Fidelities must end at 1.0, got " + Arrays.toString(fidelities));
+        }
+
+        for (int r = 0; r < fidelities.length; r++) {
+            MultiFidelityObjectiveFunction.checkFidelity(fidelities[r]);
+
+            if (r > 0 && fidelities[r] <= fidelities[r - 1]) {
+                throw new IllegalArgumentException("Fidelities must increase, got " + Arrays.toString(fidelities));
+            }
+        }
+
+        if (!(promotionFraction > 0.0 && promotionFraction <= 1.0)) {
+            throw new IllegalArgumentException("Promotion fraction must be in (0, 1], got " + promotionFraction);
+        }
+
+        this.fidelities = Arrays.copyOf(fidelities, fidelities.length);
+        this.promotionFraction = promotionFraction;
+
+        evaluations = new long[fidelities.length];
+    }
+
+    /**
+     * The standard successive halving schedule: rung r has fidelity eta^-(rungs - 1 - r) and 1/eta of each rung is
+     * promoted.
+     *
+     * @param rungs Number of rungs, including full fidelity
+     * @param eta Reduction factor, greater than 1
+     */
+    public static SuccessiveHalvingSchedule geometric(int rungs, double eta) {
+        if (rungs < 1 || eta <= 1.0) {
+            throw new IllegalArgumentException("Need at least one rung and eta > 1, got " + rungs + ", " + eta);
+        }
+
+        final double[] fidelities = new double[rungs];
+
+        for (int r = 0; r < rungs; r++) {
+            fidelities[r] = Math.pow(eta, -(rungs - 1 - r));
+        }
+
+        return new SuccessiveHalvingSchedule(fidelities, 1.0 / eta);
+    }
+
+    public int getRungs() {
+        return fidelities.length;
+    }
+
+    public double getFidelity(int rung) {
+        return fidelities[rung];
+    }
+
+    public double getPromotionFraction() {
+        return promotionFraction;
+    }
+
+    /**
+     * @param candidates Number of candidates evaluated at a rung
+     * @return number of them to promote to the next rung; always at least one
+     */
+    public int promoted(int candidates) {
+        return Math.max(1, (int) Math.ceil(candidates * promotionFraction));
+    }
+
+    void recordEvaluations(int rung, int count) {
+        evaluations[rung] += count;
+    }
+
+    public long getEvaluations(int rung) {
+        return evaluations[rung];
+    }
+
+    /**
+     * @return cost of all evaluations so far, measured in full-fidelity evaluations
+     */
+    public double getFullFidelityEquivalentEvaluations() {
+        double total = 0.0;
+
+        for (int r = 0; r < fidelities.length; r++) {
+            total += evaluations[r] * fidelities[r];
+        }
+
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "SuccessiveHalvingSchedule{fidelities=" + Arrays.toString(fidelities)
+                + ", promotionFraction=" + promotionFraction
+                + ", evaluations=" + Arrays.toString(evaluations)
+                + ", fullFidelityEquivalent=" + getFullFidelityEquivalentEvaluations() + "}";
+    }
+}
@@ -0,0 +1,387 @@
+package org.wkh.swarmscale.optimization;
+
+/**
+ * Surrogate model that decides which particles are worth a real evaluation.
+ *
+ * Keeps an archive of the most recent real (position, fitness) pairs and fits a cubic radial basis function
+ * interpolant with a linear tail to them, a standard surrogate for expensive black-box optimization in a handful of
+ * dimensions. Positions are scaled to the unit box first so that dimensions with large ranges don't dominate.
+ *
+ * Each epoch, a particle is sent to the real objective function if the surrogate predicts it will improve on its pbest,
+ * or if it is further than uncertaintyRadius from every archived position, where the prediction can't be trusted.
+ * Everyone else gets the predicted fitness. Since that prediction is no better than their pbest, it never changes pbest
+ * or gbest; only real fitness values do.
+ *
+ * Statistics cover how many evaluations the surrogate saved and how accurate it was on the ones that were run.
+ *
+ * Not thread safe; the optimizer only uses it from its own thread.
+ */
+public class SurrogateScreen {
+
+    private final int dim;
+    private final double[] lowerBounds;
+    private final double[] ranges;
+    private final double uncertaintyRadius;
+
+    /**
+     * Archive ring buffer, positions scaled to the unit box
+     */
+    private final double[][] archivePositions;
+    private final double[] archiveFitness;
+    private int archiveCount = 0;
+    private int archiveNext = 0;
+
+    /**
+     * Fitted model: RBF weights per archived position, then the linear tail's constant and per-dimension coefficients
+     */
+    private double[] weights;
+    private double[] tail;
+    private double[][] centers;
+    private boolean fitted = false;
+
+    private long realEvaluations = 0;
+    private long surrogateEvaluations = 0;
+    private long failedFits = 0;
+
+    private long predictedImprovements = 0;
+    private long confirmedImprovements = 0;
+
+    private long comparedPredictions = 0;
+    private double sumAbsoluteError = 0.0;
+    private double sumRelativeError = 0.0;
+
+    /**
+     * @param bounds Search space bounds, as passed to the optimizer
+     * @param archiveSize Number of most recent real evaluations to fit to. Fitting is cubic in this.
+     * @param uncertaintyRadius Distance in the unit-scaled search space beyond which a prediction isn't trusted
+     */
+    public SurrogateScreen(double[][] bounds, int archiveSize, double uncertaintyRadius) {
+        dim = bounds.length;
+
+        if (archiveSize < dim + 2) {
+            throw new IllegalArgumentException("Archive size must be at least dim + 2 = " + (dim + 2) + ", got "
+                    + archiveSize);
+        }
+
+        if (uncertaintyRadius <= 0.0) {
+            throw new IllegalArgumentException("Uncertainty radius must be positive, got " + uncertaintyRadius);
+        }
+
+        lowerBounds = new double[dim];
+        ranges = new double[dim];
+
+        for (int d = 0; d < dim; d++) {
+            lowerBounds[d] = bounds[d][0];
+            ranges[d] = bounds[d][1] - bounds[d][0];
+
+            if (ranges[d] <= 0.0) {
+                throw new IllegalArgumentException("Bounds for dimension " + d + " are empty");
+            }
+        }
+
+        this.uncertaintyRadius = uncertaintyRadius;
+
+        archivePositions = new double[archiveSize][dim];
+        archiveFitness = new double[archiveSize];
+    }
+
+    private void scale(double[] position, double[] out) {
+        for (int d = 0; d < dim; d++) {
+            out[d] = (position[d] - lowerBounds[d]) / ranges[d];
+        }
+    }
+
+    private static double distance(double[] a, double[] b) {
+        double sumOfSquares = 0.0;
+
+        for (int d = 0; d < a.length; d++) {
+            final double difference = a[d] - b[d];
+            sumOfSquares += difference * difference;
+        }
+
+        return Math.sqrt(sumOfSquares);
+    }
+
+    /**
+     * Add a real evaluation to the archive. Only record exact fitness values, not lower bounds from evaluations stopped
+     * at a cutoff, or the interpolant is fitted to wrong data. A position already in the archive has its fitness
+     * replaced instead, which keeps the interpolation system from going singular.
+     */
+    public void record(double[] position, double fitness) {
+        final double[] scaled = new double[dim];
+        scale(position, scaled);
+
+        for (int j = 0; j < archiveCount; j++) {
+            if (distance(scaled, archivePositions[j]) < 1.0e-9) {
+                archiveFitness[j] = fitness;
+                return;
+            }
+        }
+
+        System.arraycopy(scaled, 0, archivePositions[archiveNext], 0, dim);
+        archiveFitness[archiveNext] = fitness;
+
+        archiveNext = (archiveNext + 1) % archivePositions.length;
+        archiveCount = Math.min(archiveCount + 1, archivePositions.length);
+    }
+
+    public int getArchiveCount() {
+        return archiveCount;
+    }
+
+    /**
+     * Fit the model to the current archive.
+     *
+     * @return false if there isn't enough data yet or the system couldn't be solved, in which case everything should
+     * be evaluated for real
+     */
+    public boolean fit() {
+        fitted = false;
+
+        if (archiveCount < dim + 2) {
+            return false;
+        }
+
+        final int n = archiveCount;
+        final int m = n + dim + 1;
+        final double[][] system = new double[m][m + 1];
+
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                system[i][j] = phi(distance(archivePositions[i], archivePositions[j]));
+            }
+
+            system[i][n] = 1.0;
+            system[n][i] = 1.0;
+
+            for (int d = 0; d < dim; d++) {
+                system[i][n + 1 + d] = archivePositions[i][d];
+                system[n + 1 + d][i] = archivePositions[i][d];
+            }
+
+            system[i][m] = archiveFitness[i];
+        }
+
+        final double[] solution = solve(system);
+
+        if (solution == null) {
+            failedFits++;
+            return false;
+        }
+
+        weights = new double[n];
+        tail = new double[dim + 1];
+        centers = new double[n][];
+
+        System.arraycopy(solution, 0, weights, 0, n);
+        System.arraycopy(solution, n, tail, 0, dim + 1);
+
+        for (int i = 0; i < n; i++) {
+            centers[i] = archivePositions[i].clone();
+        }
+
+        fitted = true;
+        return true;
+    }
+
+    private static double phi(double r) {
+        return r * r * r;
+    }
+
+    /**
+     * Gaussian elimination with partial pivoting on an augmented matrix.
+     *
+     * @return solution, or null if the matrix is singular
+     */
+    private static double[] solve(double[][] augmented) {
+        final int m = augmented.length;
+
+        for (int column = 0; column < m; column++) {
+            int pivot = column;
+
+            for (int row = column + 1; row < m; row++) {
+                if (Math.abs(augmented[row][column]) > Math.abs(augmented[pivot][column])) {
+                    pivot = row;
+                }
+            }
+
+            if (Math.abs(augmented[pivot][column]) < 1.0e-12) {
+                return null;
+            }
+
+            final double[] swap = augmented[column];
+            augmented[column] = augmented[pivot];
+            augmented[pivot] = swap;
+
+            for (int row = column + 1; row < m; row++) {
+                final double factor = augmented[row][column] / augmented[column][column];
+
+                if (factor == 0.0) {
+                    continue;
+                }
+
+                for (int k = column; k <= m; k++) {
+                    augmented[row][k] -= factor * augmented[column][k];
+                }
+            }
+        }
+
+        final double[] solution = new double[m];
+
+        for (int row = m - 1; row >= 0; row--) {
+            double sum = augmented[row][m];
+
+            for (int k = row + 1; k < m; k++) {
+                sum -= augmented[row][k] * solution[k];
+            }
+
+            solution[row] = sum / augmented[row][row];
+        }
+
+        return solution;
+    }
+
+    /**
+     * @return predicted fitness. Only meaningful after a successful fit().
+     */
+    public double predict(double[] position) {
+        final double[] scaled = new double[dim];
+        scale(position, scaled);
+
+        double prediction = tail[0];
+
+        for (int d = 0; d < dim; d++) {
+            prediction += tail[1 + d] * scaled[d];
+        }
+
+        for (int i = 0; i < centers.length; i++) {
+            prediction += weights[i] * phi(distance(scaled, centers[i]));
+        }
+
+        return prediction;
+    }
+
+    /**
+     * @return whether the position is too far from every archived position for its prediction to be trusted
+     */
+    public boolean isUncertain(double[] position) {
+        final double[] scaled = new double[dim];
+        scale(position, scaled);
+
+        for (int j = 0; j < archiveCount; j++) {
+            if (distance(scaled, archivePositions[j]) <= uncertaintyRadius) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Decide whether a particle needs a real evaluation.
+     *
+     * @param position Particle position
+     * @param pbestFitness Particle's pbest fitness
+     * @param prediction Predicted fitness, if the model is fitted
+     * @return true to evaluate for real
+     */
+    boolean needsRealEvaluation(double[] position, double pbestFitness, double prediction) {
+        if (!fitted) {
+            return true;
+        }
+
+        if (prediction < pbestFitness) {
+            predictedImprovements++;
+            return true;
+        }
+
+        return isUncertain(position);
+    }
+
+    boolean isFitted() {
+        return fitted;
+    }
+
+    /**
+     * Count a real evaluation and, if the model was fitted, compare it to the prediction.
+     *
+     * @param prediction Predicted fitness
+     * @param actual Real fitness
+     * @param exact Whether actual is the true fitness rather than a cutoff lower bound
+     * @param improved Whether actual improved on the particle's pbest
+     * @param predictedImprovement Whether the surrogate predicted an improvement
+     */
+    void recordRealEvaluation(double prediction, double actual, boolean exact, boolean improved,
+            boolean predictedImprovement) {
+        realEvaluations++;
+
+        if (!fitted) {
+            return;
+        }
+
+        if (predictedImprovement && improved) {
+            confirmedImprovements++;
+        }
+
+        if (exact) {
+            final double error = Math.abs(prediction - actual);
+            comparedPredictions++;
+            sumAbsoluteError += error;
+            sumRelativeError += error / Math.max(Math.abs(actual), 1.0e-12);
+        }
+    }
+
+    void recordSurrogateEvaluation() {
+        surrogateEvaluations++;
+    }
+
+    public long getRealEvaluations() {
+        return realEvaluations;
+    }
+
+    /**
+     * @return number of evaluations answered by the surrogate instead of the real objective
+     */
+    public long getSurrogateEvaluations() {
+        return surrogateEvaluations;
+    }
+
+    public double getSavedFraction() {
+        final long total = realEvaluations + surrogateEvaluations;
+        return total == 0 ? 0.0 : surrogateEvaluations / (double) total;
+    }
+
+    /**
+     * @return mean absolute difference between predicted and real fitness, over real evaluations with exact fitness
+     */
+    public double getMeanAbsoluteError() {
+        return comparedPredictions == 0 ? 0.0 : sumAbsoluteError / comparedPredictions;
+    }
+
+    public double getMeanRelativeError() {
+        return comparedPredictions == 0 ? 0.0 : sumRelativeError / comparedPredictions;
+    }
+
+    /**
+     * @return fraction of predicted pbest improvements that really were improvements
+     */
+    public double getImprovementHitRate() {
+        return predictedImprovements == 0 ? 0.0 : confirmedImprovements / (double) predictedImprovements;
+    }
+
+    public long getFailedFits() {
+        return failedFits;
+    }
+
+    @Override
+    public String toString() {
+        return "SurrogateScreen{archive=" + archiveCount
+                + ", realEvaluations=" + realEvaluations
+                + ", surrogateEvaluations=" + surrogateEvaluations
+                + ", savedFraction=" + getSavedFraction()
+                + ", meanAbsoluteError=" + getMeanAbsoluteError()
+                + ", meanRelativeError=" + getMeanRelativeError()
+                + ", improvementHitRate=" + getImprovementHitRate()
+                + ", failedFits=" + failedFits + "}";
+    }
+}
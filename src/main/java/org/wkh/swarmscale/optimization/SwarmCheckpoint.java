@@ -0,0 +1,160 @@
+package org.wkh.swarmscale.optimization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshot of a ParticleSwarmOptimizer's full state, and its binary file format.
+ *
+ * Layout (big-endian): int magic, short version, int populationSize, int dim, long epoch, long evaluations, long seed,
+ * double gbestFitness, gbest[dim], x[populationSize * dim], v[populationSize * dim], pbest[populationSize * dim],
+ * pbestFitness[populationSize], long rngState[populationSize], long CRC32 of everything before it.
+ *
+ * Files are written to a temporary sibling, forced to disk and then renamed over the target, so a crash mid-write
+ * leaves the previous checkpoint intact.
+ */
+public class SwarmCheckpoint {
+
+    static final int MAGIC = 0x5357434B; /* "SWCK" */
+    static final short VERSION = 2;
+
+    public final int populationSize;
+    public final int dim;
+    public final long epoch;
+    public final long evaluations;
+    public final long seed;
+    public final double gbestFitness;
+
+    final double[] gbest;
+    final double[] x;
+    final double[] v;
+    final double[] pbest;
+    final double[] pbestFitness;
+
+    /**
+     * Per-particle random stream state
+     */
+    final long[] rngState;
+
+    SwarmCheckpoint(int populationSize, int dim, long epoch, long evaluations, long seed, double gbestFitness,
+            double[] gbest, double[] x, double[] v, double[] pbest, double[] pbestFitness, long[] rngState) {
+        this.populationSize = populationSize;
+        this.dim = dim;
+        this.epoch = epoch;
+        this.evaluations = evaluations;
+        this.seed = seed;
+        this.gbestFitness = gbestFitness;
+        this.gbest = gbest;
+        this.x = x;
+        this.v = v;
+        this.pbest = pbest;
+        this.pbestFitness = pbestFitness;
+        this.rngState = rngState;
+    }
+
+    public double[] getGbest() {
+        return Arrays.copyOf(gbest, gbest.length);
+    }
+
+    private int sizeInBytes() {
+        final int doubles = dim + 3 * populationSize * dim + populationSize;
+        return 4 + 2 + 4 + 4 + 8 + 8 + 8 + 8 + 8 * doubles + 8 * rngState.length + 8;
+    }
+
+    public void write(Path path) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(sizeInBytes());
+
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putInt(populationSize);
+        buffer.putInt(dim);
+        buffer.putLong(epoch);
+        buffer.putLong(evaluations);
+        buffer.putLong(seed);
+        buffer.putDouble(gbestFitness);
+        putDoubles(buffer, gbest);
+        putDoubles(buffer, x);
+        putDoubles(buffer, v);
+        putDoubles(buffer, pbest);
+        putDoubles(buffer, pbestFitness);
+        buffer.asLongBuffer().put(rngState);
+        buffer.position(buffer.position() + 8 * rngState.length);
+
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+
+        buffer.flip();
+
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            channel.force(true);
+        }
+
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static SwarmCheckpoint read(Path path) throws IOException {
+        final byte[] bytes = Files.readAllBytes(path);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        if (bytes.length < 8 + 6 || buffer.getInt() != MAGIC) {
+            throw new IOException(path + " is not a swarm checkpoint");
+        }
+
+        final short version = buffer.getShort();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version + ", expected " + VERSION);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+
+        if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) {
+            throw new IOException(path + " is corrupt: checksum mismatch");
+        }
+
+        final int populationSize = buffer.getInt();
+        final int dim = buffer.getInt();
+        final long epoch = buffer.getLong();
+        final long evaluations = buffer.getLong();
+        final long seed = buffer.getLong();
+        final double gbestFitness = buffer.getDouble();
+        final double[] gbest = getDoubles(buffer, dim);
+        final double[] x = getDoubles(buffer, populationSize * dim);
+        final double[] v = getDoubles(buffer, populationSize * dim);
+        final double[] pbest = getDoubles(buffer, populationSize * dim);
+        final double[] pbestFitness = getDoubles(buffer, populationSize);
+        final long[] rngState = new long[populationSize];
+        buffer.asLongBuffer().get(rngState);
+
+        return new SwarmCheckpoint(populationSize, dim, epoch, evaluations, seed, gbestFitness, gbest, x, v, pbest,
+                pbestFitness, rngState);
+    }
+
+    private static void putDoubles(ByteBuffer buffer, double[] values) {
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.position() + 8 * values.length);
+    }
+
+    private static double[] getDoubles(ByteBuffer buffer, int count) {
+        final double[] values = new double[count];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8 * count);
+        return values;
+    }
+}
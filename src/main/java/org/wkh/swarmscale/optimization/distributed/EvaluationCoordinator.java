@@ -0,0 +1,492 @@
+package org.wkh.swarmscale.optimization.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.wkh.swarmscale.optimization.ObjectiveFunction;
+
+/**
+ * Objective function that farms evaluations out to EvaluationWorkers over TCP.
+ *
+ * Each call to evaluate() becomes one work item on a shared queue and blocks until a worker returns its fitness, so the
+ * coordinator plugs into ParticleSwarmOptimizer like any other objective. Give the optimizer an evaluation executor
+ * with at least as many threads as the workers' combined capacity so there is always enough work queued.
+ *
+ * Workers pull work: each one has as many credits as evaluations it can run at once, and its sender thread takes up to
+ * that many items (at most maxBatchSize) off the shared queue per message. Idle workers therefore take work that busy
+ * ones haven't gotten to yet. When a worker's connection drops, everything it had in flight goes back on the front of
+ * the queue and is picked up by the remaining workers.
+ *
+ * Workers may connect and disconnect at any time. If none are connected, evaluations wait until one is.
+ */
+public class EvaluationCoordinator implements ObjectiveFunction, AutoCloseable {
+    public final static Logger LOGGER = Logger.getLogger(EvaluationCoordinator.class.getName());
+
+    /**
+     * How long a new connection may take to send its handshake before it is dropped
+     */
+    static final int HANDSHAKE_TIMEOUT_MILLIS = 10000;
+
+    private final ServerSocket serverSocket;
+    private final String objectiveName;
+    private final int maxBatchSize;
+
+    private final BlockingDeque<PendingEvaluation> queue = new LinkedBlockingDeque<>();
+    private final List<WorkerConnection> workers = new CopyOnWriteArrayList<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder redispatched = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * @param port Port to listen on. 0 picks a free port; see getPort().
+     * @param objectiveName Name workers look up in their registry to create the objective function
+     * @param maxBatchSize Maximum number of positions sent to a worker in one message
+     * @throws IOException if the server socket can't be opened
+     */
+    public EvaluationCoordinator(int port, String objectiveName, int maxBatchSize) throws IOException {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, got " + maxBatchSize);
+        }
+
+        this.objectiveName = objectiveName;
+        this.maxBatchSize = maxBatchSize;
+
+        serverSocket = new ServerSocket(port);
+
+        final Thread acceptThread = new Thread(this::acceptWorkers, "evaluation-coordinator-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    /**
+     * @return number of evaluations the connected workers can run at once
+     */
+    public int getTotalCapacity() {
+        int total = 0;
+
+        for (WorkerConnection worker : workers) {
+            total += worker.capacity;
+        }
+
+        return total;
+    }
+
+    public long getDispatched() {
+        return dispatched.sum();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getRedispatched() {
+        return redispatched.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return number of evaluations waiting for a worker
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Block until at least the given number of workers are connected.
+     */
+    public void awaitWorkers(int count, long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        while (workers.size() < count) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IllegalStateException("Only " + workers.size() + " of " + count + " workers connected");
+            }
+
+            Thread.sleep(10);
+        }
+    }
+
+    @Override
+    public double evaluate(double[] position, int iteration) {
+        if (closed.get()) {
+            throw new IllegalStateException("Coordinator is closed");
+        }
+
+        final PendingEvaluation evaluation = new PendingEvaluation(
+                nextId.getAndIncrement(),
+                iteration,
+                Arrays.copyOf(position, position.length)
+        );
+
+        queue.addLast(evaluation);
+
+        try {
+            return evaluation.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a remote evaluation", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Remote evaluation failed", e.getCause());
+        }
+    }
+
+    private void acceptWorkers() {
+        while (!closed.get()) {
+            try {
+                final Socket socket = serverSocket.accept();
+
+                /* handshake on a thread of its own, so a client that never sends its header can't hold up the workers
+                   connecting after it */
+                final Thread handshake = new Thread(() -> connectWorker(socket),
+                        "evaluation-coordinator-handshake-" + socket.getPort());
+                handshake.setDaemon(true);
+                handshake.start();
+            } catch (SocketException e) {
+                /* server socket closed */
+                return;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to accept worker connection", e);
+            }
+        }
+    }
+
+    private void connectWorker(Socket socket) {
+        final WorkerConnection worker;
+
+        try {
+            worker = new WorkerConnection(socket);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Rejected worker connection", e);
+            return;
+        }
+
+        workers.add(worker);
+
+        /* close() may have run while the handshake was in progress and missed this worker */
+        if (closed.get()) {
+            workers.remove(worker);
+            worker.shutdown();
+            return;
+        }
+
+        worker.start();
+    }
+
+    /**
+     * Send SHUTDOWN to every worker and stop accepting new ones. Evaluations still waiting fail.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to close server socket", e);
+        }
+
+        for (WorkerConnection worker : workers) {
+            worker.shutdown();
+        }
+
+        PendingEvaluation evaluation;
+
+        while ((evaluation = queue.pollFirst()) != null) {
+            evaluation.result.completeExceptionally(new IllegalStateException("Coordinator closed"));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EvaluationCoordinator{port=" + getPort()
+                + ", workers=" + getWorkerCount()
+                + ", queueDepth=" + getQueueDepth()
+                + ", dispatched=" + getDispatched()
+                + ", completed=" + getCompleted()
+                + ", redispatched=" + getRedispatched()
+                + ", batches=" + getBatches() + "}";
+    }
+
+    private static final class PendingEvaluation {
+
+        final long id;
+        final int epoch;
+        final double[] position;
+        final CompletableFuture<Double> result = new CompletableFuture<>();
+
+        PendingEvaluation(long id, int epoch, double[] position) {
+            this.id = id;
+            this.epoch = epoch;
+            this.position = position;
+        }
+    }
+
+    /**
+     * One connected worker. A sender thread feeds it work from the shared queue while it has credits; a reader thread
+     * completes results and hands credits back.
+     *
+     * An evaluation belongs to whichever thread removes it from inFlight, so a result, a failure and a requeue can
+     * never both act on the same evaluation.
+     */
+    private final class WorkerConnection {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final int capacity;
+        private final Semaphore credits;
+        private final Map<Long, PendingEvaluation> inFlight = new ConcurrentHashMap<>();
+        private final AtomicBoolean alive = new AtomicBoolean(true);
+
+        WorkerConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            try {
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+
+                WireProtocol.readHeader(in);
+                capacity = in.readInt();
+
+                if (capacity < 1) {
+                    throw new IOException("Worker reported capacity " + capacity);
+                }
+
+                WireProtocol.writeHeader(out);
+                out.writeUTF(objectiveName);
+                out.flush();
+
+                /* results can take arbitrarily long once the worker has work */
+                socket.setSoTimeout(0);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+
+            credits = new Semaphore(capacity);
+
+            LOGGER.log(Level.INFO, "Worker {0} connected with capacity {1}",
+                    new Object[]{socket.getRemoteSocketAddress(), capacity});
+        }
+
+        void start() {
+            final Thread sender = new Thread(this::sendWork, "evaluation-coordinator-send-" + socket.getPort());
+            sender.setDaemon(true);
+            sender.start();
+
+            final Thread reader = new Thread(this::readResults, "evaluation-coordinator-read-" + socket.getPort());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void sendWork() {
+            try {
+                while (alive.get()) {
+                    if (!credits.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                        continue;
+                    }
+
+                    final PendingEvaluation first = queue.pollFirst(100, TimeUnit.MILLISECONDS);
+
+                    if (first == null) {
+                        credits.release();
+                        continue;
+                    }
+
+                    final List<PendingEvaluation> batch = new ArrayList<>();
+                    batch.add(first);
+
+                    while (batch.size() < maxBatchSize && credits.tryAcquire()) {
+                        final PendingEvaluation next = queue.pollFirst();
+
+                        if (next == null) {
+                            credits.release();
+                            break;
+                        }
+
+                        if (next.position.length != first.position.length) {
+                            /* positions in a message share one dimension; leave it for the next batch */
+                            queue.addFirst(next);
+                            credits.release();
+                            break;
+                        }
+
+                        batch.add(next);
+                    }
+
+                    for (PendingEvaluation evaluation : batch) {
+                        inFlight.put(evaluation.id, evaluation);
+                    }
+
+                    if (!alive.get()) {
+                        /* failed between taking the work and registering it; make sure it isn't lost */
+                        requeue(batch);
+                        return;
+                    }
+
+                    writeBatch(batch);
+                    dispatched.add(batch.size());
+                    batches.increment();
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            }
+        }
+
+        private void writeBatch(List<PendingEvaluation> batch) throws IOException {
+            final int dim = batch.get(0).position.length;
+
+            synchronized (out) {
+                out.writeByte(WireProtocol.WORK);
+                out.writeInt(batch.size());
+                out.writeInt(dim);
+
+                for (PendingEvaluation evaluation : batch) {
+                    out.writeLong(evaluation.id);
+                    out.writeInt(evaluation.epoch);
+
+                    for (double value : evaluation.position) {
+                        out.writeDouble(value);
+                    }
+                }
+
+                out.flush();
+            }
+        }
+
+        private void readResults() {
+            try {
+                while (alive.get()) {
+                    final byte type = in.readByte();
+
+                    if (type == WireProtocol.RESULTS) {
+                        final int count = in.readInt();
+
+                        for (int n = 0; n < count; n++) {
+                            final long id = in.readLong();
+                            final double fitness = in.readDouble();
+                            final PendingEvaluation evaluation = inFlight.remove(id);
+
+                            if (evaluation != null) {
+                                /* count before completing so a caller that saw the result also sees the count */
+                                completed.increment();
+                                credits.release();
+                                evaluation.result.complete(fitness);
+                            }
+                        }
+                    } else if (type == WireProtocol.FAILED) {
+                        final long id = in.readLong();
+                        final String error = in.readUTF();
+                        final PendingEvaluation evaluation = inFlight.remove(id);
+
+                        if (evaluation != null) {
+                            credits.release();
+                            evaluation.result.completeExceptionally(new IllegalStateException(error));
+                        }
+                    } else {
+                        throw new IOException("Unexpected message type " + type);
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void requeue(List<PendingEvaluation> evaluations) {
+            for (PendingEvaluation evaluation : evaluations) {
+                if (inFlight.remove(evaluation.id) != null) {
+                    queue.addFirst(evaluation);
+                    redispatched.increment();
+                }
+            }
+        }
+
+        private void fail(Exception cause) {
+            if (!alive.compareAndSet(true, false)) {
+                return;
+            }
+
+            workers.remove(this);
+
+            if (!closed.get()) {
+                LOGGER.log(Level.WARNING, "Lost worker " + socket.getRemoteSocketAddress() + ", redispatching "
+                        + inFlight.size() + " evaluations", cause);
+            }
+
+            closeSocket();
+            requeue(new ArrayList<>(inFlight.values()));
+        }
+
+        void shutdown() {
+            alive.set(false);
+
+            try {
+                synchronized (out) {
+                    out.writeByte(WireProtocol.SHUTDOWN);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Worker already gone", e);
+            }
+
+            closeSocket();
+
+            for (PendingEvaluation evaluation : inFlight.values()) {
+                evaluation.result.completeExceptionally(new IllegalStateException("Coordinator closed"));
+            }
+        }
+
+        private void closeSocket() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close worker socket", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package org.wkh.swarmscale.optimization.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.wkh.swarmscale.optimization.ObjectiveFunction;
+
+/**
+ * Evaluates positions sent by an EvaluationCoordinator, usually in a separate JVM.
+ *
+ * The coordinator names the objective function during the handshake; the worker looks the name up in its registry and
+ * instantiates it, so configuration such as workloads and capacities lives in the registered factory rather than on
+ * the wire.
+ */
+public class EvaluationWorker implements Runnable {
+    public final static Logger LOGGER = Logger.getLogger(EvaluationWorker.class.getName());
+
+    private final String host;
+    private final int port;
+    private final int threads;
+    private final Map<String, Supplier<ObjectiveFunction>> registry;
+
+    /**
+     * @param host Coordinator host
+     * @param port Coordinator port
+     * @param threads Number of evaluations to run at once
+     * @param registry Objective function factories by name
+     */
+    public EvaluationWorker(String host, int port, int threads, Map<String, Supplier<ObjectiveFunction>> registry) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread, got " + threads);
+        }
+
+        this.host = host;
+        this.port = port;
+        this.threads = threads;
+        this.registry = registry;
+    }
+
+    /**
+     * Connect and evaluate until the coordinator shuts down or the connection drops.
+     */
+    @Override
+    public void run() {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            WireProtocol.writeHeader(out);
+            out.writeInt(threads);
+            out.flush();
+
+            WireProtocol.readHeader(in);
+            final String objectiveName = in.readUTF();
+            final Supplier<ObjectiveFunction> factory = registry.get(objectiveName);
+
+            if (factory == null) {
+                throw new IOException("No objective function registered as " + objectiveName);
+            }
+
+            final ObjectiveFunction objective = factory.get();
+            final ResultBuffer results = new ResultBuffer(out);
+
+            LOGGER.log(Level.INFO, "Connected to {0}:{1} evaluating {2} with {3} threads",
+                    new Object[]{host, String.valueOf(port), objectiveName, threads});
+
+            while (true) {
+                final byte type = in.readByte();
+
+                if (type == WireProtocol.SHUTDOWN) {
+                    LOGGER.log(Level.INFO, "Coordinator shut down");
+                    return;
+                }
+
+                if (type != WireProtocol.WORK) {
+                    throw new IOException("Unexpected message type " + type);
+                }
+
+                final int count = in.readInt();
+                final int dim = in.readInt();
+
+                for (int n = 0; n < count; n++) {
+                    final long id = in.readLong();
+                    final int epoch = in.readInt();
+                    final double[] position = new double[dim];
+
+                    for (int d = 0; d < dim; d++) {
+                        position[d] = in.readDouble();
+                    }
+
+                    pool.execute(() -> evaluateAndReply(objective, id, position, epoch, results));
+                }
+            }
+        } catch (EOFException e) {
+            LOGGER.log(Level.INFO, "Coordinator closed the connection");
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Worker connection failed", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void evaluateAndReply(ObjectiveFunction objective, long id, double[] position, int epoch,
+            ResultBuffer results) {
+        try {
+            final double fitness;
+
+            try {
+                fitness = objective.evaluate(position, epoch);
+            } catch (Throwable e) {
+                /* errors too, e.g. a stack overflow in one simulation, or the coordinator would wait forever */
+                LOGGER.log(Level.WARNING, "Evaluation " + id + " failed", e);
+                results.addFailure(id, String.valueOf(e));
+                return;
+            }
+
+            results.add(id, fitness);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to send result", e);
+        }
+    }
+
+    /**
+     * Results waiting to be sent to the coordinator.
+     *
+     * Whichever pool thread adds a result while no send is in progress becomes the sender: it writes everything
+     * buffered as one RESULTS message per flush, and keeps going until the buffer is empty. Results that finish during
+     * a send therefore go out together in the next message, like the batched WORK messages in the other direction.
+     */
+    private static final class ResultBuffer {
+
+        private final DataOutputStream out;
+
+        private long[] ids = new long[16];
+        private double[] fitness = new double[16];
+        private int count = 0;
+
+        /* the arrays being sent, swapped with the ones above so that sending doesn't allocate */
+        private long[] sendingIds = new long[16];
+        private double[] sendingFitness = new double[16];
+
+        private List<Long> failedIds = new ArrayList<>();
+        private List<String> errors = new ArrayList<>();
+
+        private boolean sending = false;
+
+        ResultBuffer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void add(long id, double value) throws IOException {
+            synchronized (this) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, 2 * count);
+                    fitness = Arrays.copyOf(fitness, 2 * count);
+                }
+
+                ids[count] = id;
+                fitness[count] = value;
+                count++;
+
+                if (sending) {
+                    return;
+                }
+
+                sending = true;
+            }
+
+            send();
+        }
+
+        void addFailure(long id, String error) throws IOException {
+            synchronized (this) {
+                failedIds.add(id);
+                errors.add(error);
+
+                if (sending) {
+                    return;
+                }
+
+                sending = true;
+            }
+
+            send();
+        }
+
+        private void send() throws IOException {
+            boolean drained = false;
+
+            try {
+                while (true) {
+                    final int sendingCount;
+                    final List<Long> sendingFailedIds;
+                    final List<String> sendingErrors;
+
+                    synchronized (this) {
+                        if (count == 0 && failedIds.isEmpty()) {
+                            sending = false;
+                            drained = true;
+                            return;
+                        }
+
+                        final long[] swappedIds = sendingIds;
+                        final double[] swappedFitness = sendingFitness;
+
+                        sendingIds = ids;
+                        sendingFitness = fitness;
+                        sendingCount = count;
+
+                        ids = swappedIds;
+                        fitness = swappedFitness;
+                        count = 0;
+
+                        if (failedIds.isEmpty()) {
+                            sendingFailedIds = Collections.emptyList();
+                            sendingErrors = Collections.emptyList();
+                        } else {
+                            sendingFailedIds = failedIds;
+                            sendingErrors = errors;
+                            failedIds = new ArrayList<>();
+                            errors = new ArrayList<>();
+                        }
+                    }
+
+                    if (sendingCount > 0) {
+                        out.writeByte(WireProtocol.RESULTS);
+                        out.writeInt(sendingCount);
+
+                        for (int n = 0; n < sendingCount; n++) {
+                            out.writeLong(sendingIds[n]);
+                            out.writeDouble(sendingFitness[n]);
+                        }
+                    }
+
+                    for (int n = 0; n < sendingFailedIds.size(); n++) {
+                        out.writeByte(WireProtocol.FAILED);
+                        out.writeLong(sendingFailedIds.get(n));
+                        out.writeUTF(sendingErrors.get(n));
+                    }
+
+                    out.flush();
+                }
+            } finally {
+                if (!drained) {
+                    synchronized (this) {
+                        sending = false;
+                    }
+                }
+            }
+        }
+    }
+}
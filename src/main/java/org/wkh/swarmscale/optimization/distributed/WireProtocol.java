@@ -0,0 +1,53 @@
+package org.wkh.swarmscale.optimization.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary wire format shared by EvaluationCoordinator and EvaluationWorker. Everything is big-endian, as written by
+ * DataOutputStream.
+ *
+ * Handshake, worker to coordinator: int MAGIC, short VERSION, int capacity (evaluations the worker runs at once).
+ * Handshake, coordinator to worker: int MAGIC, short VERSION, UTF objective name.
+ *
+ * Coordinator to worker:
+ *   WORK: byte WORK, int count, int dim, then count x (long id, int epoch, dim x double position)
+ *   SHUTDOWN: byte SHUTDOWN
+ *
+ * Worker to coordinator:
+ *   RESULTS: byte RESULTS, int count, then count x (long id, double fitness)
+ *   FAILED: byte FAILED, long id, UTF error message
+ */
+final class WireProtocol {
+
+    static final int MAGIC = 0x5357524D; /* "SWRM" */
+    static final short VERSION = 1;
+
+    static final byte WORK = 1;
+    static final byte SHUTDOWN = 2;
+    static final byte RESULTS = 3;
+    static final byte FAILED = 4;
+
+    private WireProtocol() {
+    }
+
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+    }
+
+    static void readHeader(DataInputStream in) throws IOException {
+        final int magic = in.readInt();
+
+        if (magic != MAGIC) {
+            throw new IOException("Bad magic number " + Integer.toHexString(magic));
+        }
+
+        final short version = in.readShort();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version " + version + ", expected " + VERSION);
+        }
+    }
+}
@@ -11,6 +11,12 @@ public abstract class AbstractPhysicalSystem implements PhysicalSystem {
      */
     public static final double NANO_TO_BASE = 1.0e9;
 
+    /**
+     * Default virtual clock step for simulated time mode, in milliseconds. Small relative to the world step frequency
+     * and to typical control intervals so control actions fire at the same times they would under the wall clock.
+     */
+    public static final double DEFAULT_SIMULATED_TIME_STEP = 5.0;
+
     /**
      * The dynamics engine
      */
@@ -30,6 +36,16 @@ public abstract class AbstractPhysicalSystem implements PhysicalSystem {
     protected PhysicalSystemRenderer renderer = null;
     protected long startTime;
 
+    /**
+     * Fixed virtual clock step in nanoseconds. Zero means the simulation is driven by the wall clock.
+     */
+    protected long simulatedTimeStep = 0;
+
+    /**
+     * Current virtual clock reading in nanoseconds, only advanced when simulatedTimeStep is set
+     */
+    protected long simulatedTime = 0;
+
     private final List<PhysicalSystemStepListener> stepListeners;
 
     public AbstractPhysicalSystem() {
@@ -50,6 +66,31 @@ public abstract class AbstractPhysicalSystem implements PhysicalSystem {
         this.renderer = renderer;
     }
 
+    @Override
+    public void setSimulatedTimeStep(double millisecondTimeStep) {
+        if (millisecondTimeStep < 0) {
+            throw new IllegalArgumentException("Got negative time step " + millisecondTimeStep);
+        }
+
+        simulatedTimeStep = Math.round(millisecondTimeStep * 1.0E6);
+    }
+
+    @Override
+    public boolean isSimulatedTime() {
+        return simulatedTimeStep > 0;
+    }
+
+    /**
+     * Current time in nanoseconds. Reads the virtual clock in simulated time mode, System.nanoTime() otherwise.
+     *
+     * Subclasses should use this instead of System.nanoTime() for anything that measures simulation time.
+     *
+     * @return current time in nanoseconds
+     */
+    protected long nanoTime() {
+        return isSimulatedTime() ? simulatedTime : System.nanoTime();
+    }
+
     @Override
     public World getWorld() {
         return world;
@@ -60,7 +101,8 @@ public abstract class AbstractPhysicalSystem implements PhysicalSystem {
         // create the world
         world = new World();
 
-        previousTime = System.nanoTime();
+        simulatedTime = 0;
+        previousTime = nanoTime();
 
         /* subclasses will call this and then add other objects */
     }
@@ -98,7 +140,7 @@ public abstract class AbstractPhysicalSystem implements PhysicalSystem {
     }
 
     public double getElapsedTime() {
-        long currentTime = System.nanoTime();
+        long currentTime = nanoTime();
         return (currentTime - startTime) / 1.0E6;
     }
 
@@ -106,7 +148,7 @@ public abstract class AbstractPhysicalSystem implements PhysicalSystem {
     public void runSimulationLoop(long millisecondTimeLimit) {
         boolean checkTime = millisecondTimeLimit > 0;
 
-        startTime = System.nanoTime();
+        startTime = nanoTime();
 
         beforeSimulationLoopStart();
 
@@ -133,8 +175,13 @@ public abstract class AbstractPhysicalSystem implements PhysicalSystem {
 
     protected void stepWorld() {
         // update the World
+        // in simulated time mode, advance the virtual clock by a fixed step instead of waiting on the wall clock
+        if (isSimulatedTime()) {
+            simulatedTime += simulatedTimeStep;
+        }
+
         // get the current time
-        long time = System.nanoTime();
+        long time = nanoTime();
 
         // get the elapsed time from the previousTime iteration
         long diff = time - previousTime;
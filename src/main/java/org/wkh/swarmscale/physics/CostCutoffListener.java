@@ -0,0 +1,66 @@
+package org.wkh.swarmscale.physics;
+
+import java.util.List;
+import java.util.ListIterator;
+import java.util.function.ToDoubleFunction;
+import org.wkh.swarmscale.optimization.ControlPerformanceResult;
+
+/**
+ * Keeps a running total of a cost over a system's observed errors as the simulation runs, and stops the system as soon
+ * as the total exceeds a cutoff. Used by objective functions to abandon hopeless candidates early.
+ */
+public class CostCutoffListener implements PhysicalSystemStepListener {
+
+    private final PhysicalSystem system;
+    private final List<ControlPerformanceResult> observedErrors;
+    private final ToDoubleFunction<ControlPerformanceResult> cost;
+    private final double cutoff;
+
+    private int counted = 0;
+    private double totalCost = 0.0;
+    private boolean exceeded = false;
+
+    /**
+     * @param system System to stop
+     * @param observedErrors The system's observed errors, appended to as it runs
+     * @param cost Non-negative cost of each observed error
+     * @param cutoff Stop once the total cost is greater than this
+     */
+    public CostCutoffListener(PhysicalSystem system, List<ControlPerformanceResult> observedErrors,
+            ToDoubleFunction<ControlPerformanceResult> cost, double cutoff) {
+        this.system = system;
+        this.observedErrors = observedErrors;
+        this.cost = cost;
+        this.cutoff = cutoff;
+    }
+
+    @Override
+    public void onStep() {
+        /* errors are only ever appended, so pick up where the last step left off */
+        final ListIterator<ControlPerformanceResult> newErrors = observedErrors.listIterator(counted);
+
+        while (newErrors.hasNext()) {
+            totalCost += cost.applyAsDouble(newErrors.next());
+            counted++;
+        }
+
+        if (totalCost > cutoff && !exceeded) {
+            exceeded = true;
+            system.stop();
+        }
+    }
+
+    /**
+     * @return whether the simulation was stopped because the cost exceeded the cutoff
+     */
+    public boolean isExceeded() {
+        return exceeded;
+    }
+
+    /**
+     * @return total cost of the errors observed so far. A lower bound on the full cost if the simulation was stopped.
+     */
+    public double getTotalCost() {
+        return totalCost;
+    }
+}
@@ -12,10 +12,21 @@ public interface PhysicalSystem {
      * Run the main simulation loop.
      *
      * @param millisecondTimeLimit - time limit to execute loop for, in milliseconds. Enforced approximately. Negative
-     * values will cause the simulation to run forever.
+     * values will cause the simulation to run forever. In simulated time mode, this is simulated milliseconds.
      */
     public void runSimulationLoop(long millisecondTimeLimit);
 
+    /**
+     * Drive the simulation from a virtual clock instead of the wall clock. Each loop iteration advances the clock by
+     * a fixed step, so runs are CPU-bound and reproducible regardless of machine load.
+     *
+     * @param millisecondTimeStep - virtual time step per loop iteration, in milliseconds. Zero restores wall clock
+     * time.
+     */
+    public void setSimulatedTimeStep(double millisecondTimeStep);
+
+    public boolean isSimulatedTime();
+
     public void setDoRender(boolean doRender);
 
     public void setRenderer(PhysicalSystemRenderer renderer);
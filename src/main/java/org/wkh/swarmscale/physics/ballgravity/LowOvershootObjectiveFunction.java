@@ -4,9 +4,30 @@ import java.util.List;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 import org.wkh.swarmscale.optimization.ControlPerformanceResult;
-import org.wkh.swarmscale.optimization.ObjectiveFunction;
+import org.wkh.swarmscale.optimization.MultiFidelityObjectiveFunction;
+import org.wkh.swarmscale.physics.CostCutoffListener;
 
-public class LowOvershootObjectiveFunction implements ObjectiveFunction {
+public class LowOvershootObjectiveFunction implements MultiFidelityObjectiveFunction {
+
+    /**
+     * Virtual clock step in milliseconds, or 0 to run each simulation against the wall clock
+     */
+    private final double simulatedTimeStep;
+
+    /**
+     * Evaluate candidates in real time, driven by the wall clock.
+     */
+    public LowOvershootObjectiveFunction() {
+        this(0.0);
+    }
+
+    /**
+     * @param simulatedTimeStep virtual clock step in milliseconds. Positive values run each simulation in simulated
+     * time, which is CPU-bound and reproducible. Zero runs against the wall clock.
+     */
+    public LowOvershootObjectiveFunction(final double simulatedTimeStep) {
+        this.simulatedTimeStep = simulatedTimeStep;
+    }
 
     public static int getSimulationTime(final int iteration) {
         return 5000;
@@ -26,11 +47,16 @@ public class LowOvershootObjectiveFunction implements ObjectiveFunction {
      * 
      * @param position - parameter set to evaluate
      * @param iteration - optimization epoch
-     * @return sum of squared error, excluding grace period results described above
+     * @param fidelity - fraction of the full simulation time to simulate
+     * @param cutoff - stop the simulation once the summed squared error exceeds this
+     * @return sum of squared error, excluding grace period results described above. Partial sum if it exceeded cutoff.
      */
     @Override
-    public double evaluate(final double[] position, final int iteration) {
-        final int runTime = getSimulationTime(iteration);
+    public double evaluate(final double[] position, final int iteration, final double fidelity,
+            final double cutoff) {
+        MultiFidelityObjectiveFunction.checkFidelity(fidelity);
+
+        final int runTime = (int) Math.round(getSimulationTime(iteration) * fidelity);
 
         final double gracePeriod = 200.0;
         final double setPointChangeTime = 1000.0;
@@ -53,6 +79,7 @@ public class LowOvershootObjectiveFunction implements ObjectiveFunction {
                 maxOutputMagnitude,
                 controlInterval);
 
+        system.setSimulatedTimeStep(simulatedTimeStep);
         system.initializeWorld();
 
         /* change up the setpoint part way through to test adjustment */
@@ -63,9 +90,6 @@ public class LowOvershootObjectiveFunction implements ObjectiveFunction {
             }
         });
 
-        system.runSimulationLoop(runTime);
-        final List<ControlPerformanceResult> observedErrors = system.getObservedErrors();
-        
         /* select results that are: (a) before set point change; (b) after set point change; or (c), during grace period, 
            but with actual < target (so that it's still moving the object up to the new set point
         */
@@ -76,6 +100,21 @@ public class LowOvershootObjectiveFunction implements ObjectiveFunction {
             return result.time < setPointChangeTime || result.time > gracePeriodEnd || duringSetpointButNotOvershoot;
         };
         
+        final CostCutoffListener costCutoff = new CostCutoffListener(
+                system,
+                system.getObservedErrors(),
+                result -> nonGracePeriodResults.test(result) ? result.error * result.error : 0.0,
+                cutoff);
+        system.addStepListener(costCutoff);
+
+        system.runSimulationLoop(runTime);
+
+        if (costCutoff.isExceeded()) {
+            return costCutoff.getTotalCost();
+        }
+
+        final List<ControlPerformanceResult> observedErrors = system.getObservedErrors();
+        
         final Stream<ControlPerformanceResult> filteredResults = observedErrors.stream().filter(nonGracePeriodResults);
 
         return filteredResults.mapToDouble(result -> result.error * result.error).sum();
@@ -2,10 +2,11 @@ package org.wkh.swarmscale.physics.ballgravity;
 
 import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
+import org.wkh.swarmscale.optimization.EpochHistory;
 import org.wkh.swarmscale.optimization.EpochPerformanceResult;
 import org.wkh.swarmscale.optimization.ObjectiveFunction;
 import org.wkh.swarmscale.optimization.ParticleSwarmOptimizer;
+import org.wkh.swarmscale.physics.AbstractPhysicalSystem;
 
 public class LowOvershootOptimizer {
 
@@ -20,7 +21,10 @@ public class LowOvershootOptimizer {
 
         final int dim = bounds.length;
 
-        final ObjectiveFunction pidSystemSimulator = new LowOvershootObjectiveFunction();
+        /* run simulations on a virtual clock so evaluations are CPU-bound instead of taking real seconds each */
+        final ObjectiveFunction pidSystemSimulator = new LowOvershootObjectiveFunction(
+            AbstractPhysicalSystem.DEFAULT_SIMULATED_TIME_STEP
+        );
 
         double criticalGain = 25.0;
         double oscillationTime = 0.1;
@@ -50,11 +54,11 @@ public class LowOvershootOptimizer {
         final int iterations = 200;
 
         long start = System.currentTimeMillis();
-        final List<EpochPerformanceResult> results = optimizer.runForIterations(iterations);
+        final EpochPerformanceResult last = optimizer.runForIterations(iterations, EpochHistory.summaryOnly()).getLast();
         long end = System.currentTimeMillis();
 
         System.out.println("Elapsed: " + (end - start) / 1000.0 + "s");
-        System.out.println("Best result: " + Arrays.toString(results.get(iterations - 1).gbest));
-        System.out.println(results.get(iterations - 1).gbestFitness);
+        System.out.println("Best result: " + Arrays.toString(last.gbest));
+        System.out.println(last.gbestFitness);
     }
 }
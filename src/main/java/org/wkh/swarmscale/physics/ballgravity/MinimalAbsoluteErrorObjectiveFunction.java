@@ -2,9 +2,30 @@ package org.wkh.swarmscale.physics.ballgravity;
 
 import java.util.List;
 import org.wkh.swarmscale.optimization.ControlPerformanceResult;
-import org.wkh.swarmscale.optimization.ObjectiveFunction;
+import org.wkh.swarmscale.optimization.MultiFidelityObjectiveFunction;
+import org.wkh.swarmscale.physics.CostCutoffListener;
 
-public class MinimalAbsoluteErrorObjectiveFunction implements ObjectiveFunction {
+public class MinimalAbsoluteErrorObjectiveFunction implements MultiFidelityObjectiveFunction {
+
+    /**
+     * Virtual clock step in milliseconds, or 0 to run each simulation against the wall clock
+     */
+    private final double simulatedTimeStep;
+
+    /**
+     * Evaluate candidates in real time, driven by the wall clock.
+     */
+    public MinimalAbsoluteErrorObjectiveFunction() {
+        this(0.0);
+    }
+
+    /**
+     * @param simulatedTimeStep virtual clock step in milliseconds. Positive values run each simulation in simulated
+     * time, which is CPU-bound and reproducible. Zero runs against the wall clock.
+     */
+    public MinimalAbsoluteErrorObjectiveFunction(final double simulatedTimeStep) {
+        this.simulatedTimeStep = simulatedTimeStep;
+    }
 
     public static int getSimulationTime(final int iteration) {
         return 5000;
@@ -15,11 +36,16 @@ public class MinimalAbsoluteErrorObjectiveFunction implements ObjectiveFunction
      *
      * @param position - parameter set to evaluate
      * @param iteration - optimization epoch
-     * @return
+     * @param fidelity - fraction of the full simulation time to simulate
+     * @param cutoff - stop the simulation once the summed error exceeds this
+     * @return sum of absolute error, or the partial sum if it exceeded cutoff
      */
     @Override
-    public double evaluate(final double[] position, final int iteration) {
-        final int runTime = getSimulationTime(iteration);
+    public double evaluate(final double[] position, final int iteration, final double fidelity,
+            final double cutoff) {
+        MultiFidelityObjectiveFunction.checkFidelity(fidelity);
+
+        final int runTime = (int) Math.round(getSimulationTime(iteration) * fidelity);
 
         final double proportionalGain = position[0];
         final double integralGain = position[1];
@@ -35,6 +61,7 @@ public class MinimalAbsoluteErrorObjectiveFunction implements ObjectiveFunction
             controlInterval
         );
 
+        system.setSimulatedTimeStep(simulatedTimeStep);
         system.initializeWorld();
 
         /* change up the setpoint part way through to test adjustment */
@@ -44,7 +71,20 @@ public class MinimalAbsoluteErrorObjectiveFunction implements ObjectiveFunction
             }
         });
 
+        final CostCutoffListener costCutoff = new CostCutoffListener(
+            system,
+            system.getObservedErrors(),
+            result -> result.error,
+            cutoff
+        );
+        system.addStepListener(costCutoff);
+
         system.runSimulationLoop(runTime);
+
+        if (costCutoff.isExceeded()) {
+            return costCutoff.getTotalCost();
+        }
+
         final List<ControlPerformanceResult> observedErrors = system.getObservedErrors();
 
         /* sum up the errors */
@@ -2,10 +2,14 @@ package org.wkh.swarmscale.physics.ballgravity;
 
 import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
-import org.wkh.swarmscale.optimization.EpochPerformanceResult;
+import org.wkh.swarmscale.optimization.EpochHistory;
 import org.wkh.swarmscale.optimization.ObjectiveFunction;
+import org.wkh.swarmscale.optimization.OptimizationResult;
 import org.wkh.swarmscale.optimization.ParticleSwarmOptimizer;
+import org.wkh.swarmscale.optimization.PatternSearchRefiner;
+import org.wkh.swarmscale.optimization.StopCondition;
+import org.wkh.swarmscale.optimization.SuccessiveHalvingSchedule;
+import org.wkh.swarmscale.physics.AbstractPhysicalSystem;
 
 public class MinimalAbsoluteErrorOptimizer {
 
@@ -20,7 +24,10 @@ public class MinimalAbsoluteErrorOptimizer {
 
         final int dim = bounds.length;
 
-        final ObjectiveFunction pidSystemSimulator = new MinimalAbsoluteErrorObjectiveFunction();
+        /* run simulations on a virtual clock so evaluations are CPU-bound instead of taking real seconds each */
+        final ObjectiveFunction pidSystemSimulator = new MinimalAbsoluteErrorObjectiveFunction(
+            AbstractPhysicalSystem.DEFAULT_SIMULATED_TIME_STEP
+        );
 
         boolean seedWithZieglerNichols = true;
 
@@ -58,20 +65,48 @@ public class MinimalAbsoluteErrorOptimizer {
 
         optimizer.initializePopulation();
 
+        /* screen each epoch's candidates on the first 1.25s, which already covers the setpoint change at 1s, and only
+           simulate the most promising third of those for longer */
+        final SuccessiveHalvingSchedule fidelitySchedule = new SuccessiveHalvingSchedule(
+            new double[] {0.25, 0.5, 1.0},
+            1.0 / 3.0
+        );
+        optimizer.setFidelitySchedule(fidelitySchedule);
+
         optimizer.addEpochListener((result, epoch) -> {
             System.out.println("Epoch " + epoch + ": " + new Date());
             System.out.println("Best result fitness: " + result.gbestFitness);
             System.out.println("Best result value: " + Arrays.toString(result.gbest));
         });
 
-        final int iterations = 250;
+        /* stop the swarm once it stalls and let pattern search polish gbest, which is far cheaper than more epochs */
+        final StopCondition stopCondition = StopCondition.maxEpochs(250)
+                .or(StopCondition.noImprovement(10))
+                .or(StopCondition.swarmDiameterBelow(1.0e-3));
 
         long start = System.currentTimeMillis();
-        final List<EpochPerformanceResult> results = optimizer.runForIterations(iterations);
+        final OptimizationResult result = optimizer.runUntil(stopCondition, EpochHistory.summaryOnly());
         long end = System.currentTimeMillis();
 
         System.out.println("Elapsed: " + (end - start) / 1000.0 + "s");
-        System.out.println("Best result: " + Arrays.toString(results.get(iterations - 1).gbest));
-        System.out.println(results.get(iterations - 1).gbestFitness);
+        System.out.println("Stopped after " + result.epochs + " epochs: " + result.stopReason);
+        System.out.println("Fidelity schedule: " + fidelitySchedule);
+        System.out.println("Best result: " + Arrays.toString(result.gbest));
+        System.out.println(result.gbestFitness);
+
+        final PatternSearchRefiner refiner = new PatternSearchRefiner(bounds, pidSystemSimulator);
+        refiner.setEvaluationExecutor(optimizer.getEvaluationExecutor());
+        refiner.setIteration(result.epochs);
+        refiner.setTolerance(1.0e-5);
+        refiner.setMaxEvaluations(2000);
+
+        start = System.currentTimeMillis();
+        final OptimizationResult refined = refiner.refine(result.gbest, result.gbestFitness);
+        end = System.currentTimeMillis();
+
+        System.out.println("Refinement elapsed: " + (end - start) / 1000.0 + "s");
+        System.out.println("Refined after " + refined.evaluations + " evaluations: " + refined.stopReason);
+        System.out.println("Refined result: " + Arrays.toString(refined.gbest));
+        System.out.println(refined.gbestFitness);
     }
 }
@@ -50,12 +50,12 @@ public class PIDControlledBallGravitySystem extends BallGravitySystem {
 
     @Override
     protected void beforeSimulationLoopStart() {
-        previousControlTime = System.nanoTime();
+        previousControlTime = nanoTime();
     }
 
     @Override
     protected void postSimulationStep() {
-        long time = System.nanoTime();
+        long time = nanoTime();
         double timeSinceLastControlAction = (time - previousControlTime) / 1.0E6;
 
         if (timeSinceLastControlAction < controlInterval) {
@@ -104,7 +104,7 @@ public class InvertedPendulumSystem extends AbstractPhysicalSystem {
     
     @Override
     protected void beforeSimulationLoopStart() {
-        previousControlTime = System.nanoTime();
+        previousControlTime = nanoTime();
         Transform transform = new Transform();
         transform.setRotation(Math.toRadians(-1.0));
         pole.setTransform(transform);
@@ -112,7 +112,7 @@ public class InvertedPendulumSystem extends AbstractPhysicalSystem {
 
     @Override
     protected void postSimulationStep() {
-        long time = System.nanoTime();
+        long time = nanoTime();
         double timeSinceLastControlAction = (time - previousControlTime) / 1.0E6;
 
         if (timeSinceLastControlAction < 25.0) {
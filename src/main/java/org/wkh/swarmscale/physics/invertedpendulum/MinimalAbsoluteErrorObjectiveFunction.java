@@ -2,9 +2,31 @@ package org.wkh.swarmscale.physics.invertedpendulum;
 
 import java.util.List;
 import org.wkh.swarmscale.optimization.ControlPerformanceResult;
-import org.wkh.swarmscale.optimization.ObjectiveFunction;
+import org.wkh.swarmscale.optimization.MultiFidelityObjectiveFunction;
+import org.wkh.swarmscale.physics.CostCutoffListener;
+
+public class MinimalAbsoluteErrorObjectiveFunction implements MultiFidelityObjectiveFunction {
+
+    /**
+     * Virtual clock step in milliseconds, or 0 to run each simulation against the wall clock
+     */
+    private final double simulatedTimeStep;
+
+    /**
+     * Evaluate candidates in real time, driven by the wall clock.
+     */
+    public MinimalAbsoluteErrorObjectiveFunction() {
+        this(0.0);
+    }
+
+    /**
+     * @param simulatedTimeStep virtual clock step in milliseconds. Positive values run each simulation in simulated
+     * time, which is CPU-bound and reproducible. Zero runs against the wall clock.
+     */
+    public MinimalAbsoluteErrorObjectiveFunction(final double simulatedTimeStep) {
+        this.simulatedTimeStep = simulatedTimeStep;
+    }
 
-public class MinimalAbsoluteErrorObjectiveFunction implements ObjectiveFunction {
     public static int getSimulationTime(final int iteration) {
         return 3000;
     }
@@ -14,11 +36,16 @@ public class MinimalAbsoluteErrorObjectiveFunction implements ObjectiveFunction
      *
      * @param position - parameter set to evaluate
      * @param iteration - optimization epoch
-     * @return
+     * @param fidelity - fraction of the full simulation time to simulate
+     * @param cutoff - stop the simulation once the summed error exceeds this
+     * @return sum of absolute error plus max cart position, or a partial sum if it exceeded cutoff
      */
     @Override
-    public double evaluate(final double[] position, final int iteration) {
-        final int runTime = getSimulationTime(iteration);
+    public double evaluate(final double[] position, final int iteration, final double fidelity,
+            final double cutoff) {
+        MultiFidelityObjectiveFunction.checkFidelity(fidelity);
+
+        final int runTime = (int) Math.round(getSimulationTime(iteration) * fidelity);
 
         final double proportionalGain = position[0];
         final double integralGain = 0.0; // make controller PD only
@@ -38,9 +65,24 @@ public class MinimalAbsoluteErrorObjectiveFunction implements ObjectiveFunction
             initialRotation
         );
 
+        system.setSimulatedTimeStep(simulatedTimeStep);
         system.initializeWorld();
 
+        /* max cart position only grows too, so the partial error sum plus it so far is still a lower bound */
+        final CostCutoffListener costCutoff = new CostCutoffListener(
+            system,
+            system.getObservedErrors(),
+            result -> result.error,
+            cutoff
+        );
+        system.addStepListener(costCutoff);
+
         system.runSimulationLoop(runTime);
+
+        if (costCutoff.isExceeded()) {
+            return costCutoff.getTotalCost() + system.getMaxCartPosition();
+        }
+
         final List<ControlPerformanceResult> observedErrors = system.getObservedErrors();
 
         /* sum up the errors and add in max cart position */
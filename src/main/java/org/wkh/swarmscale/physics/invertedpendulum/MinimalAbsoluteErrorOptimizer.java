@@ -2,10 +2,11 @@ package org.wkh.swarmscale.physics.invertedpendulum;
 
 import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
+import org.wkh.swarmscale.optimization.EpochHistory;
 import org.wkh.swarmscale.optimization.EpochPerformanceResult;
 import org.wkh.swarmscale.optimization.ObjectiveFunction;
 import org.wkh.swarmscale.optimization.ParticleSwarmOptimizer;
+import org.wkh.swarmscale.physics.AbstractPhysicalSystem;
 
 public class MinimalAbsoluteErrorOptimizer {
     
@@ -19,7 +20,10 @@ public class MinimalAbsoluteErrorOptimizer {
 
         final int dim = bounds.length;
 
-        final ObjectiveFunction pidSystemSimulator = new MinimalAbsoluteErrorObjectiveFunction();
+        /* run simulations on a virtual clock so evaluations are CPU-bound instead of taking real seconds each */
+        final ObjectiveFunction pidSystemSimulator = new MinimalAbsoluteErrorObjectiveFunction(
+            AbstractPhysicalSystem.DEFAULT_SIMULATED_TIME_STEP
+        );
 
         final ParticleSwarmOptimizer optimizer = new ParticleSwarmOptimizer(
             populationSize,
@@ -38,9 +42,9 @@ public class MinimalAbsoluteErrorOptimizer {
 
         final int iterations = 1000;
 
-        final List<EpochPerformanceResult> results = optimizer.runForIterations(iterations);
+        final EpochPerformanceResult last = optimizer.runForIterations(iterations, EpochHistory.summaryOnly()).getLast();
         
-        System.out.println("Best result: " + Arrays.toString(results.get(iterations - 1).gbest));
-        System.out.println(results.get(iterations - 1).gbestFitness);
+        System.out.println("Best result: " + Arrays.toString(last.gbest));
+        System.out.println(last.gbestFitness);
     }
 }
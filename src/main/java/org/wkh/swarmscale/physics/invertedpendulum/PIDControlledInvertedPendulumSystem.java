@@ -47,7 +47,7 @@ public class PIDControlledInvertedPendulumSystem extends InvertedPendulumSystem
 
     @Override
     protected void beforeSimulationLoopStart() {
-        previousControlTime = System.nanoTime();
+        previousControlTime = nanoTime();
         
         Transform transform = new Transform();
         transform.setRotation(Math.toRadians(initialRotation));
@@ -56,7 +56,7 @@ public class PIDControlledInvertedPendulumSystem extends InvertedPendulumSystem
 
     @Override
     protected void postSimulationStep() {
-        long time = System.nanoTime();
+        long time = nanoTime();
         double timeSinceLastControlAction = (time - previousControlTime) / 1.0E6;
 
         if (timeSinceLastControlAction < controlInterval) {
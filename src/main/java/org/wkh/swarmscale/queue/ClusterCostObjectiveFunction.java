@@ -0,0 +1,172 @@
+package org.wkh.swarmscale.queue;
+
+import org.wkh.swarmscale.optimization.EvaluationExecutor;
+import org.wkh.swarmscale.optimization.MultiFidelityObjectiveFunction;
+import org.wkh.swarmscale.optimization.RandomStreams;
+
+/**
+ * Cluster-wide version of CostMinimizingObjectiveFunction: tunes one set of PID gains and a lag per partition setpoint
+ * for every consumer group of a ClusterQueueSimulation.
+ *
+ * Cost is the consumer time summed over all groups plus a penalty of 100 per job still unprocessed at the end.
+ */
+public class ClusterCostObjectiveFunction implements MultiFidelityObjectiveFunction {
+
+    private final int timesteps;
+    private final ClusterLayout layout;
+    private final int minimumConsumers;
+    private final int maximumConsumers;
+    private final int commissionTimeLower;
+    private final int commissionTimeUpper;
+    private final int baseWorkRateLower;
+    private final int baseWorkRateUpper;
+    private final double parallelizablePortion;
+    private final long brokerCapacity;
+    private final PartitionAssignor assignor;
+
+    /**
+     * Each simulation is seeded from this, the position and the iteration
+     */
+    private final long seed;
+
+    private EvaluationExecutor executor = EvaluationExecutor.callerRuns();
+    private int parts = 1;
+
+    /**
+     * See ClusterQueueSimulation for the parameters.
+     */
+    public ClusterCostObjectiveFunction(int timesteps,
+            ClusterLayout layout,
+            int minimumConsumers,
+            int maximumConsumers,
+            int commissionTimeLower,
+            int commissionTimeUpper,
+            int baseWorkRateLower,
+            int baseWorkRateUpper,
+            double parallelizablePortion,
+            long brokerCapacity,
+            PartitionAssignor assignor,
+            long seed) {
+        this.timesteps = timesteps;
+        this.layout = layout;
+        this.minimumConsumers = minimumConsumers;
+        this.maximumConsumers = maximumConsumers;
+        this.commissionTimeLower = commissionTimeLower;
+        this.commissionTimeUpper = commissionTimeUpper;
+        this.baseWorkRateLower = baseWorkRateLower;
+        this.baseWorkRateUpper = baseWorkRateUpper;
+        this.parallelizablePortion = parallelizablePortion;
+        this.brokerCapacity = brokerCapacity;
+        this.assignor = assignor;
+        this.seed = seed;
+    }
+
+    /**
+     * Step each simulation's consumer groups in parallel. Worth it for large clusters evaluated one at a time; when the
+     * optimizer already evaluates particles in parallel, the default of running on the calling thread is usually best.
+     *
+     * @param executor Where to step the parts of each simulation
+     * @param parts Number of parts to split the consumer groups into
+     */
+    public void setExecutor(EvaluationExecutor executor, int parts) {
+        if (parts < 1) {
+            throw new IllegalArgumentException("Need at least one part, got " + parts);
+        }
+
+        this.executor = executor;
+        this.parts = parts;
+    }
+
+    private long simulationSeed(double[] position, int iteration) {
+        long hash = RandomStreams.mix(seed + iteration);
+
+        for (double value : position) {
+            hash = RandomStreams.mix(hash ^ Double.doubleToLongBits(value));
+        }
+
+        return hash;
+    }
+
+    /**
+     * Lower fidelities simulate only the first fraction of the timesteps. Once the consumer time alone exceeds the
+     * cutoff the simulation stops and returns it as a lower bound.
+     */
+    @Override
+    public double evaluate(double[] position, int iteration, double fidelity, double cutoff) {
+        MultiFidelityObjectiveFunction.checkFidelity(fidelity);
+
+        final int simulatedTimesteps = Math.max(1, (int) Math.round(timesteps * fidelity));
+
+        final ClusterQueueSimulation simulation = new ClusterQueueSimulation(
+            layout,
+            minimumConsumers,
+            maximumConsumers,
+            commissionTimeLower,
+            commissionTimeUpper,
+            baseWorkRateLower,
+            baseWorkRateUpper,
+            parallelizablePortion,
+            brokerCapacity,
+            assignor,
+            position[0],
+            position[1],
+            position[2],
+            (int) Math.round(position[3]),
+            simulationSeed(position, iteration)
+        );
+        simulation.setExecutor(executor, parts);
+
+        if (!simulation.run(simulatedTimesteps, cutoff)) {
+            return simulation.getConsumerTime();
+        }
+
+        return 100.0 * ((double) simulation.getTotalLag()) + simulation.getConsumerTime();
+    }
+
+    public static void main(String[] args) {
+        /* 40 topics of 256 partitions, each read by one group and every fourth by a second one */
+        final ClusterLayout layout = new ClusterLayout();
+
+        for (int i = 0; i < 40; i++) {
+            final int topic = layout.addTopic(256, 4000, 6000);
+            layout.addConsumerGroup(topic);
+
+            if (i % 4 == 0) {
+                layout.addConsumerGroup(topic);
+            }
+        }
+
+        final ClusterCostObjectiveFunction objective = new ClusterCostObjectiveFunction(
+                500,
+                layout,
+                1,
+                64,
+                1,
+                2,
+                250,
+                300,
+                0.99,
+                ClusterQueueSimulation.UNLIMITED,
+                PartitionAssignor.STICKY,
+                20200601L
+        );
+
+        final double[] position = new double[] {0.05, 0.001, 0.0, 20.0};
+
+        System.out.printf("%d groups, %d group partitions%n", layout.getGroupCount(), layout.getGroupPartitions());
+
+        try (EvaluationExecutor executor = EvaluationExecutor.boundedPool(Runtime.getRuntime().availableProcessors())) {
+            for (int parts : new int[] {1, Runtime.getRuntime().availableProcessors()}) {
+                objective.setExecutor(parts == 1 ? EvaluationExecutor.callerRuns() : executor, parts);
+
+                for (int run = 0; run < 5; run++) {
+                    final long start = System.nanoTime();
+                    final double fitness = objective.evaluate(position, 0);
+                    final double elapsedMs = (System.nanoTime() - start) / 1.0e6;
+
+                    System.out.printf("parts = %d: fitness %.1f in %.1fms%n", parts, fitness, elapsedMs);
+                }
+            }
+        }
+    }
+}
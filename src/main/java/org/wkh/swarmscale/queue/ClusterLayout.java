@@ -0,0 +1,102 @@
+package org.wkh.swarmscale.queue;
+
+import java.util.Arrays;
+
+/**
+ * Topics and consumer groups of a simulated cluster.
+ *
+ * Each topic has a fixed number of partitions and producers that write a uniformly distributed number of jobs to it
+ * every timestep, spread evenly over its partitions. Each consumer group reads one topic and keeps its own lag on every
+ * one of its partitions, so several groups can read the same topic independently.
+ */
+public class ClusterLayout {
+
+    private int[] topicPartitions = new int[0];
+    private int[] productionLower = new int[0];
+    private int[] productionUpper = new int[0];
+    private int[] groupTopics = new int[0];
+
+    /**
+     * @param partitions Number of partitions
+     * @param productionLower Minimum jobs produced per timestep
+     * @param productionUpper Maximum jobs produced per timestep
+     * @return index of the new topic
+     */
+    public int addTopic(int partitions, int productionLower, int productionUpper) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("A topic needs at least one partition, got " + partitions);
+        }
+
+        if (productionLower < 0 || productionLower > productionUpper) {
+            throw new IllegalArgumentException("Production must satisfy 0 <= lower <= upper, got " + productionLower
+                    + " and " + productionUpper);
+        }
+
+        final int topic = topicPartitions.length;
+
+        topicPartitions = append(topicPartitions, partitions);
+        this.productionLower = append(this.productionLower, productionLower);
+        this.productionUpper = append(this.productionUpper, productionUpper);
+
+        return topic;
+    }
+
+    /**
+     * @param topic Index of the topic the group reads
+     * @return index of the new consumer group
+     */
+    public int addConsumerGroup(int topic) {
+        if (topic < 0 || topic >= topicPartitions.length) {
+            throw new IllegalArgumentException("No topic " + topic);
+        }
+
+        final int group = groupTopics.length;
+        groupTopics = append(groupTopics, topic);
+
+        return group;
+    }
+
+    private static int[] append(int[] values, int value) {
+        final int[] appended = Arrays.copyOf(values, values.length + 1);
+        appended[values.length] = value;
+
+        return appended;
+    }
+
+    public int getTopicCount() {
+        return topicPartitions.length;
+    }
+
+    public int getGroupCount() {
+        return groupTopics.length;
+    }
+
+    public int getPartitions(int topic) {
+        return topicPartitions[topic];
+    }
+
+    public int getProductionLower(int topic) {
+        return productionLower[topic];
+    }
+
+    public int getProductionUpper(int topic) {
+        return productionUpper[topic];
+    }
+
+    public int getTopic(int group) {
+        return groupTopics[group];
+    }
+
+    /**
+     * @return partitions summed over the consumer groups, the amount of lag state a simulation keeps
+     */
+    public long getGroupPartitions() {
+        long total = 0;
+
+        for (int topic : groupTopics) {
+            total += topicPartitions[topic];
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,554 @@
+package org.wkh.swarmscale.queue;
+
+import java.util.Arrays;
+import org.wkh.swarmscale.optimization.EvaluationExecutor;
+import org.wkh.swarmscale.optimization.RandomStreams;
+
+/**
+ * Simulation of a cluster of topics read by PID-controlled consumer groups, meant for thousands of partitions.
+ *
+ * Each consumer group works like a QueueSimulation driven by a PIDControlledQueueSimulation, except that consumers are
+ * not tied 1:1 to partitions. The group's PartitionAssignor spreads the topic's partitions over however many consumers
+ * it has, and every change in consumers triggers a rebalance that pauses the partitions that move for a timestep. Each
+ * consumer splits its work rate, from the same Amdahl's law model as QueueSimulation, evenly over its partitions, with
+ * the remainder rotating over them one job each. The controller sees the group's mean lag per partition and scales the
+ * group between minimumConsumers and maximumConsumers. New consumers take a random commission time to come online, and
+ * a group doesn't commission more while some are pending.
+ *
+ * All groups share the brokers, which serve at most brokerCapacity jobs per timestep. When the groups together want
+ * more, every group's processing is scaled down by the same factor.
+ *
+ * Groups only interact through the broker capacity, so they are stepped in parallel on the executor, split into parts
+ * with roughly equal partitions. With unlimited capacity the groups are independent and each part runs several
+ * timesteps between synchronizations. Otherwise every timestep synchronizes twice, once to total the demand and once to
+ * process. Each group draws from its own random streams, so results don't depend on the executor or the number of
+ * parts.
+ *
+ * Not thread safe; each evaluation should use its own instance.
+ */
+public class ClusterQueueSimulation {
+
+    /**
+     * Broker capacity that never limits processing
+     */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    /**
+     * Timesteps each part runs between synchronizations when the groups are independent
+     */
+    private static final int INDEPENDENT_STEPS = 32;
+
+    private final int minimumConsumers;
+    private final int maximumConsumers;
+    private final int commissionTimeLower;
+    private final int commissionTimeUpper;
+    private final int baseWorkRateLower;
+    private final int baseWorkRateUpper;
+    private final double parallelizablePortion;
+    private final long brokerCapacity;
+    private final PartitionAssignor assignor;
+
+    private final int groups;
+    private final int[] partitions;
+    private final int[] productionLower;
+    private final int[] productionUpper;
+
+    /* per group and partition */
+    private final long[][] lags;
+    private final int[][] owners;
+    private final int[][] previousOwners;
+    private final boolean[][] paused;
+    private final int[][] allowances;
+
+    /*
+     * per group and consumer: partitions owned, jobs each may process per partition this timestep, how many partitions
+     * get one more, and where those start among the consumer's partitions
+     */
+    private final int[][] loads;
+    private final int[][] quotas;
+    private final int[][] remainders;
+    private final int[][] remainderCursors;
+    private final int[][] ordinals;
+
+    /* per group */
+    private final boolean[] groupPaused;
+    private final int[] activeConsumers;
+    private final int[] pendingConsumers;
+    private final int[] readyTimesteps;
+    private final int[] productionCursors;
+    private final long[] groupLags;
+    private final long[] demands;
+    private final long[] enqueuedJobs;
+    private final long[] processedJobs;
+    private final long[] consumerTimes;
+    private final long[] rebalances;
+
+    /**
+     * Stream 2g is group g's work rates and commission times, stream 2g + 1 its copy of the topic's production
+     */
+    private final RandomStreams rng;
+    private final PIDControllerBank controllers;
+
+    private EvaluationExecutor executor = EvaluationExecutor.callerRuns();
+    private int[] partStarts;
+
+    private int timestep = 0;
+
+    /**
+     * @param layout Topics and consumer groups
+     * @param minimumConsumers Minimum consumers per group, and the number each group starts with
+     * @param maximumConsumers Maximum consumers per group
+     * @param commissionTimeLower Minimum timesteps for new consumers to come online
+     * @param commissionTimeUpper Maximum timesteps for new consumers to come online
+     * @param baseWorkRateLower Minimum jobs a single consumer processes per timestep
+     * @param baseWorkRateUpper Maximum jobs a single consumer processes per timestep
+     * @param parallelizablePortion Amdahl's law parallelizable portion within a group
+     * @param brokerCapacity Maximum jobs all groups together can process per timestep, or UNLIMITED
+     * @param assignor How groups assign partitions to consumers
+     * @param proportionalGain Controller proportional gain
+     * @param integralGain Controller integral gain
+     * @param derivativeGain Controller derivative gain
+     * @param setpoint Controller setpoint for the mean lag per partition
+     * @param seed Seed for all random streams
+     */
+    public ClusterQueueSimulation(ClusterLayout layout,
+            int minimumConsumers,
+            int maximumConsumers,
+            int commissionTimeLower,
+            int commissionTimeUpper,
+            int baseWorkRateLower,
+            int baseWorkRateUpper,
+            double parallelizablePortion,
+            long brokerCapacity,
+            PartitionAssignor assignor,
+            double proportionalGain,
+            double integralGain,
+            double derivativeGain,
+            int setpoint,
+            long seed) {
+        if (commissionTimeUpper < commissionTimeLower || baseWorkRateLower > baseWorkRateUpper) {
+            throw new IllegalArgumentException("Lower must be < upper");
+        }
+
+        if (minimumConsumers < 1 || maximumConsumers < minimumConsumers) {
+            throw new IllegalArgumentException("Need 1 <= minimum consumers <= maximum consumers, got "
+                    + minimumConsumers + " and " + maximumConsumers);
+        }
+
+        if (brokerCapacity < 0) {
+            throw new IllegalArgumentException("Broker capacity must not be negative, got " + brokerCapacity);
+        }
+
+        this.minimumConsumers = minimumConsumers;
+        this.maximumConsumers = maximumConsumers;
+        this.commissionTimeLower = commissionTimeLower;
+        this.commissionTimeUpper = commissionTimeUpper;
+        this.baseWorkRateLower = baseWorkRateLower;
+        this.baseWorkRateUpper = baseWorkRateUpper;
+        this.parallelizablePortion = parallelizablePortion;
+        this.brokerCapacity = brokerCapacity;
+        this.assignor = assignor;
+
+        groups = layout.getGroupCount();
+        partitions = new int[groups];
+        productionLower = new int[groups];
+        productionUpper = new int[groups];
+
+        lags = new long[groups][];
+        owners = new int[groups][];
+        previousOwners = new int[groups][];
+        paused = new boolean[groups][];
+        allowances = new int[groups][];
+        loads = new int[groups][];
+        quotas = new int[groups][];
+        remainders = new int[groups][];
+        remainderCursors = new int[groups][];
+        ordinals = new int[groups][];
+
+        groupPaused = new boolean[groups];
+        activeConsumers = new int[groups];
+        pendingConsumers = new int[groups];
+        readyTimesteps = new int[groups];
+        productionCursors = new int[groups];
+        groupLags = new long[groups];
+        demands = new long[groups];
+        enqueuedJobs = new long[groups];
+        processedJobs = new long[groups];
+        consumerTimes = new long[groups];
+        rebalances = new long[groups];
+
+        final long[] seeds = new long[2 * groups];
+        final double[] proportionalGains = new double[groups];
+        final double[] integralGains = new double[groups];
+        final double[] derivativeGains = new double[groups];
+        final int[] setpoints = new int[groups];
+
+        for (int g = 0; g < groups; g++) {
+            final int topic = layout.getTopic(g);
+
+            partitions[g] = layout.getPartitions(topic);
+            productionLower[g] = layout.getProductionLower(topic);
+            productionUpper[g] = layout.getProductionUpper(topic);
+
+            lags[g] = new long[partitions[g]];
+            owners[g] = new int[partitions[g]];
+            previousOwners[g] = new int[partitions[g]];
+            paused[g] = new boolean[partitions[g]];
+            allowances[g] = new int[partitions[g]];
+            loads[g] = new int[maximumConsumers];
+            quotas[g] = new int[maximumConsumers];
+            remainders[g] = new int[maximumConsumers];
+            remainderCursors[g] = new int[maximumConsumers];
+            ordinals[g] = new int[maximumConsumers];
+
+            activeConsumers[g] = minimumConsumers;
+            assignor.assign(owners[g], partitions[g], minimumConsumers, loads[g]);
+
+            /* groups reading the same topic see the same production */
+            seeds[2 * g] = RandomStreams.mix(seed + g);
+            seeds[2 * g + 1] = RandomStreams.mix(RandomStreams.mix(seed) + topic);
+
+            proportionalGains[g] = proportionalGain;
+            integralGains[g] = integralGain;
+            derivativeGains[g] = derivativeGain;
+            setpoints[g] = setpoint;
+        }
+
+        rng = RandomStreams.ofSeeds(seeds);
+        controllers = new PIDControllerBank(proportionalGains, integralGains, derivativeGains, setpoints,
+                minimumConsumers, maximumConsumers);
+
+        setExecutor(executor, 1);
+    }
+
+    /**
+     * @param executor Where to step the parts
+     * @param parts Number of parts to split the groups into. Capped at the number of groups.
+     */
+    public void setExecutor(EvaluationExecutor executor, int parts) {
+        if (parts < 1) {
+            throw new IllegalArgumentException("Need at least one part, got " + parts);
+        }
+
+        this.executor = executor;
+
+        parts = Math.max(1, Math.min(parts, groups));
+        partStarts = new int[parts + 1];
+
+        long totalPartitions = 0;
+
+        for (int g = 0; g < groups; g++) {
+            totalPartitions += partitions[g];
+        }
+
+        /* cut where the running partition count passes each part's share */
+        long runningPartitions = 0;
+        int part = 1;
+
+        for (int g = 0; g < groups && part < parts; g++) {
+            runningPartitions += partitions[g];
+
+            if (runningPartitions * parts >= totalPartitions * part) {
+                partStarts[part++] = g + 1;
+            }
+        }
+
+        while (part <= parts) {
+            partStarts[part++] = groups;
+        }
+    }
+
+    /**
+     * Simulate every timestep up to and including horizon, or until the consumer time exceeds the cutoff. Can be called
+     * again with a later horizon to continue.
+     *
+     * @param horizon Last timestep to simulate
+     * @param cutoff Stop once the consumer time is greater than this. May be infinite. Checked whenever the parts
+     * synchronize, so a run can stop a few timesteps after the consumer time first exceeded it.
+     * @return false if the run stopped because of the cutoff
+     */
+    public boolean run(int horizon, double cutoff) {
+        final int parts = partStarts.length - 1;
+
+        while (timestep < horizon) {
+            if (brokerCapacity == UNLIMITED) {
+                final int from = timestep + 1;
+                final int to = Math.min(horizon, timestep + INDEPENDENT_STEPS);
+
+                executor.runAll(parts, part -> {
+                    for (int t = from; t <= to; t++) {
+                        for (int g = partStarts[part]; g < partStarts[part + 1]; g++) {
+                            beginStep(g, t);
+                            finishStep(g, t, 1.0);
+                        }
+                    }
+                });
+
+                timestep = to;
+            } else {
+                final int t = ++timestep;
+
+                executor.runAll(parts, part -> {
+                    for (int g = partStarts[part]; g < partStarts[part + 1]; g++) {
+                        beginStep(g, t);
+                    }
+                });
+
+                long demand = 0;
+
+                for (int g = 0; g < groups; g++) {
+                    demand += demands[g];
+                }
+
+                final double factor = demand > brokerCapacity ? (double) brokerCapacity / demand : 1.0;
+
+                executor.runAll(parts, part -> {
+                    for (int g = partStarts[part]; g < partStarts[part + 1]; g++) {
+                        finishStep(g, t, factor);
+                    }
+                });
+            }
+
+            if (getConsumerTime() > cutoff) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Bring pending consumers online, produce the timestep's jobs and work out how many the group wants to process.
+     */
+    private void beginStep(int g, int t) {
+        if (pendingConsumers[g] > 0 && readyTimesteps[g] <= t) {
+            activeConsumers[g] += pendingConsumers[g];
+            pendingConsumers[g] = 0;
+            rebalance(g);
+        }
+
+        final int consumers = activeConsumers[g];
+        consumerTimes[g] += consumers;
+
+        final int effectiveWorkRate = rng.nextInt(2 * g, baseWorkRateUpper - baseWorkRateLower + 1)
+                + baseWorkRateLower;
+        final double speedupFactor = 1.0 / ((1 - parallelizablePortion)
+                + parallelizablePortion / (consumers + 1));
+        final int consumerRate = (int) Math.round(effectiveWorkRate * speedupFactor / consumers);
+        final int[] consumerLoads = loads[g];
+        final int[] consumerQuotas = quotas[g];
+        final int[] consumerRemainders = remainders[g];
+        final int[] consumerCursors = remainderCursors[g];
+        final int[] consumerOrdinals = ordinals[g];
+
+        /*
+         * a consumer with more partitions than jobs per timestep would get a quota of 0 everywhere, so the remainder
+         * goes one job each to the consumer's partitions after the last timestep's
+         */
+        for (int c = 0; c < consumers; c++) {
+            final int load = consumerLoads[c];
+
+            if (load > 0) {
+                final int cursor = consumerCursors[c] % load;
+
+                consumerQuotas[c] = consumerRate / load;
+                consumerRemainders[c] = consumerRate % load;
+                consumerOrdinals[c] = cursor == 0 ? 0 : load - cursor;
+                consumerCursors[c] = (cursor + consumerRemainders[c]) % load;
+            } else {
+                consumerQuotas[c] = 0;
+                consumerRemainders[c] = 0;
+            }
+        }
+
+        final long[] partitionLags = lags[g];
+        final int count = partitions[g];
+
+        /* spread the jobs evenly, with the remainder going to the partitions after the last timestep's */
+        final long produced = rng.nextInt(2 * g + 1, productionUpper[g] - productionLower[g] + 1)
+                + productionLower[g];
+        final long share = produced / count;
+        final int remainder = (int) (produced % count);
+        final int cursor = productionCursors[g];
+
+        final int end = cursor + remainder;
+
+        for (int p = cursor; p < Math.min(end, count); p++) {
+            partitionLags[p]++;
+        }
+
+        for (int p = 0; p < end - count; p++) {
+            partitionLags[p]++;
+        }
+
+        productionCursors[g] = end >= count ? end - count : end;
+        groupLags[g] += produced;
+        enqueuedJobs[g] += produced;
+
+        final int[] partitionOwners = owners[g];
+        final boolean[] partitionPaused = paused[g];
+        final int[] partitionAllowances = allowances[g];
+        long demand = 0;
+
+        for (int p = 0; p < count; p++) {
+            partitionLags[p] += share;
+
+            final int c = partitionOwners[p];
+            final int ordinal = consumerOrdinals[c];
+
+            partitionAllowances[p] = consumerQuotas[c] + (ordinal < consumerRemainders[c] ? 1 : 0);
+            consumerOrdinals[c] = ordinal + 1 == consumerLoads[c] ? 0 : ordinal + 1;
+
+            if (!partitionPaused[p]) {
+                demand += Math.min(partitionLags[p], partitionAllowances[p]);
+            }
+        }
+
+        demands[g] = groupPaused[g] ? 0 : demand;
+    }
+
+    /**
+     * Process the group's jobs, scaled down by the broker capacity factor, and let the controller act. The scaling is
+     * applied to the running total rather than each partition so that partitions with little work don't round to 0.
+     */
+    private void finishStep(int g, int t, double factor) {
+        final long[] partitionLags = lags[g];
+        final boolean[] partitionPaused = paused[g];
+        final int[] partitionAllowances = allowances[g];
+        long demanded = 0;
+        long processed = 0;
+
+        if (!groupPaused[g]) {
+            for (int p = 0; p < partitions[g]; p++) {
+                if (partitionPaused[p]) {
+                    partitionPaused[p] = false;
+                    continue;
+                }
+
+                long work = Math.min(partitionLags[p], partitionAllowances[p]);
+
+                if (factor < 1.0) {
+                    demanded += work;
+                    work = (long) (demanded * factor) - processed;
+                }
+
+                partitionLags[p] -= work;
+                processed += work;
+            }
+        } else {
+            Arrays.fill(partitionPaused, false);
+        }
+
+        groupPaused[g] = false;
+        groupLags[g] -= processed;
+        processedJobs[g] += processed;
+
+        final double lagPerPartition = (double) groupLags[g] / partitions[g];
+        final int targetConsumers = (int) Math.round(controllers.getOutput(g, lagPerPartition));
+        final int actualConsumers = activeConsumers[g];
+
+        if (actualConsumers < targetConsumers) {
+            if (pendingConsumers[g] == 0) {
+                final int commissionTime = rng.nextInt(2 * g, commissionTimeUpper - commissionTimeLower + 1)
+                        + commissionTimeLower;
+
+                pendingConsumers[g] = Math.min(targetConsumers, maximumConsumers) - actualConsumers;
+                readyTimesteps[g] = t + Math.max(1, commissionTime);
+            }
+        } else if (targetConsumers < actualConsumers) {
+            final int consumers = Math.max(targetConsumers, minimumConsumers);
+
+            if (consumers != actualConsumers) {
+                activeConsumers[g] = consumers;
+                rebalance(g);
+            }
+        }
+    }
+
+    /**
+     * Reassign the group's partitions to its current consumers and pause what the rebalance stops.
+     */
+    private void rebalance(int g) {
+        rebalances[g]++;
+
+        if (assignor.isEager()) {
+            assignor.assign(owners[g], partitions[g], activeConsumers[g], loads[g]);
+            groupPaused[g] = true;
+            return;
+        }
+
+        final int[] partitionOwners = owners[g];
+        final int[] previous = previousOwners[g];
+
+        System.arraycopy(partitionOwners, 0, previous, 0, partitions[g]);
+        assignor.assign(partitionOwners, partitions[g], activeConsumers[g], loads[g]);
+
+        for (int p = 0; p < partitions[g]; p++) {
+            if (partitionOwners[p] != previous[p]) {
+                paused[g][p] = true;
+            }
+        }
+    }
+
+    public int getTimestep() {
+        return timestep;
+    }
+
+    public int getGroupCount() {
+        return groups;
+    }
+
+    /**
+     * @return consumers summed over groups and timesteps, the cost ClusterCostObjectiveFunction minimizes
+     */
+    public long getConsumerTime() {
+        long total = 0;
+
+        for (int g = 0; g < groups; g++) {
+            total += consumerTimes[g];
+        }
+
+        return total;
+    }
+
+    /**
+     * @return jobs produced but not yet processed, summed over groups
+     */
+    public long getTotalLag() {
+        long total = 0;
+
+        for (int g = 0; g < groups; g++) {
+            total += groupLags[g];
+        }
+
+        return total;
+    }
+
+    public long getConsumerTime(int group) {
+        return consumerTimes[group];
+    }
+
+    public long getLag(int group) {
+        return groupLags[group];
+    }
+
+    public int getActiveConsumers(int group) {
+        return activeConsumers[group];
+    }
+
+    public int getPendingConsumers(int group) {
+        return pendingConsumers[group];
+    }
+
+    public long getEnqueuedJobs(int group) {
+        return enqueuedJobs[group];
+    }
+
+    public long getProcessedJobs(int group) {
+        return processedJobs[group];
+    }
+
+    public long getRebalances(int group) {
+        return rebalances[group];
+    }
+}
@@ -0,0 +1,190 @@
+package org.wkh.swarmscale.queue;
+
+import java.util.Arrays;
+
+/**
+ * FIFO queues of job cohorts, one per partition, for latency tracking.
+ *
+ * A cohort is a count of jobs that entered a partition at the same timestep. Each partition keeps its cohorts in a
+ * primitive ring buffer of (timestamp, count) pairs; jobs added at the same timestep as the newest cohort join it, and
+ * processing takes jobs from the oldest. Memory is bounded by the number of distinct cohorts waiting, not the number of
+ * jobs, and rings only allocate when they grow past their largest size so far.
+ */
+final class CohortQueues {
+
+    private static final int INITIAL_RING_SIZE = 4;
+
+    private int[][] timestamps;
+    private long[][] counts;
+    private int[] heads;
+    private int[] sizes;
+
+    CohortQueues(int partitions) {
+        timestamps = new int[partitions][];
+        counts = new long[partitions][];
+        heads = new int[partitions];
+        sizes = new int[partitions];
+
+        for (int p = 0; p < partitions; p++) {
+            timestamps[p] = new int[INITIAL_RING_SIZE];
+            counts[p] = new long[INITIAL_RING_SIZE];
+        }
+    }
+
+    /**
+     * Make room for at least the given number of partitions.
+     */
+    void ensurePartitions(int partitions) {
+        final int current = heads.length;
+
+        if (partitions <= current) {
+            return;
+        }
+
+        final int capacity = Math.max(partitions, 2 * current);
+
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        heads = Arrays.copyOf(heads, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+
+        for (int p = current; p < capacity; p++) {
+            timestamps[p] = new int[INITIAL_RING_SIZE];
+            counts[p] = new long[INITIAL_RING_SIZE];
+        }
+    }
+
+    /**
+     * Append count jobs enqueued at timestamp to the partition.
+     */
+    void add(int partition, int timestamp, long count) {
+        if (count <= 0) {
+            return;
+        }
+
+        final int size = sizes[partition];
+        int[] ringTimestamps = timestamps[partition];
+
+        if (size > 0) {
+            final int tail = (heads[partition] + size - 1) & (ringTimestamps.length - 1);
+
+            if (ringTimestamps[tail] == timestamp) {
+                counts[partition][tail] += count;
+                return;
+            }
+        }
+
+        if (size == ringTimestamps.length) {
+            grow(partition);
+            ringTimestamps = timestamps[partition];
+        }
+
+        final int tail = (heads[partition] + size) & (ringTimestamps.length - 1);
+        ringTimestamps[tail] = timestamp;
+        counts[partition][tail] = count;
+        sizes[partition] = size + 1;
+    }
+
+    /**
+     * Double a full ring, unwrapping it so the head is at index 0. Ring sizes stay powers of two.
+     */
+    private void grow(int partition) {
+        final int[] oldTimestamps = timestamps[partition];
+        final long[] oldCounts = counts[partition];
+        final int length = oldTimestamps.length;
+        final int head = heads[partition];
+
+        final int[] newTimestamps = new int[2 * length];
+        final long[] newCounts = new long[2 * length];
+
+        System.arraycopy(oldTimestamps, head, newTimestamps, 0, length - head);
+        System.arraycopy(oldTimestamps, 0, newTimestamps, length - head, head);
+        System.arraycopy(oldCounts, head, newCounts, 0, length - head);
+        System.arraycopy(oldCounts, 0, newCounts, length - head, head);
+
+        timestamps[partition] = newTimestamps;
+        counts[partition] = newCounts;
+        heads[partition] = 0;
+    }
+
+    /**
+     * Take count jobs from the oldest cohorts of the partition and record how long they waited.
+     *
+     * @param now Timestep the jobs are processed in
+     * @param latencies Where to record the latencies, or null
+     * @param totalLatencies A second histogram to record them in as well, or null
+     */
+    void consume(int partition, long count, int now, LatencyHistogram latencies, LatencyHistogram totalLatencies) {
+        final int[] ringTimestamps = timestamps[partition];
+        final long[] ringCounts = counts[partition];
+        final int mask = ringTimestamps.length - 1;
+
+        int head = heads[partition];
+        int size = sizes[partition];
+
+        while (count > 0 && size > 0) {
+            final long taken = Math.min(count, ringCounts[head]);
+            final int latency = now - ringTimestamps[head];
+
+            if (latencies != null) {
+                latencies.record(latency, taken);
+            }
+
+            if (totalLatencies != null) {
+                totalLatencies.record(latency, taken);
+            }
+
+            ringCounts[head] -= taken;
+            count -= taken;
+
+            if (ringCounts[head] == 0) {
+                head = (head + 1) & mask;
+                size--;
+            }
+        }
+
+        if (count > 0) {
+            throw new IllegalStateException("Partition " + partition + " has fewer jobs than were processed");
+        }
+
+        heads[partition] = size == 0 ? 0 : head;
+        sizes[partition] = size;
+    }
+
+    /**
+     * Move partition from's cohorts to partition to, for swap-removal. Partition to must be empty, and from ends up
+     * empty with to's old ring.
+     */
+    void move(int from, int to) {
+        if (from == to) {
+            return;
+        }
+
+        final int[] emptyTimestamps = timestamps[to];
+        final long[] emptyCounts = counts[to];
+
+        timestamps[to] = timestamps[from];
+        counts[to] = counts[from];
+        heads[to] = heads[from];
+        sizes[to] = sizes[from];
+
+        timestamps[from] = emptyTimestamps;
+        counts[from] = emptyCounts;
+        heads[from] = 0;
+        sizes[from] = 0;
+    }
+
+    /**
+     * @return number of cohorts waiting in the partition
+     */
+    int getCohorts(int partition) {
+        return sizes[partition];
+    }
+
+    /**
+     * @return timestamp of the partition's oldest waiting jobs, or -1 if it has none
+     */
+    int getOldestTimestamp(int partition) {
+        return sizes[partition] == 0 ? -1 : timestamps[partition][heads[partition]];
+    }
+}
@@ -3,19 +3,26 @@ package org.wkh.swarmscale.queue;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.wkh.swarmscale.optimization.BatchObjectiveFunction;
+import org.wkh.swarmscale.optimization.EvaluationExecutor;
+import org.wkh.swarmscale.optimization.MultiFidelityObjectiveFunction;
 import org.wkh.swarmscale.optimization.ObjectiveFunction;
 import org.wkh.swarmscale.optimization.PIDController;
+import org.wkh.swarmscale.optimization.RandomStreams;
 
-public class CostMinimizingObjectiveFunction implements ObjectiveFunction {
+public class CostMinimizingObjectiveFunction implements MultiFidelityObjectiveFunction {
     public final static Logger LOGGER = Logger.getLogger(CostMinimizingObjectiveFunction.class.getName());
     
     private final int timesteps;
     private final int commissionTimeLower;
     private final int commissionTimeUpper;
-    private final Map<Integer, Integer> workloads;
+    private final WorkloadTimeline workloads;
+    
+    /* whether arrivals add to the waiting batch rather than replace it */
+    private final boolean accumulateWorkloads;
     private final int initialCapacity;
     private final int minimumCapacity;
     private final int maximumCapacity;
@@ -24,7 +31,18 @@ public class CostMinimizingObjectiveFunction implements ObjectiveFunction {
     private final int baseWorkRateUpper;
     
     private final Level logLevel;
-    private final Random rng;
+    
+    /**
+     * Each simulation is seeded from this, the position and the iteration
+     */
+    private final long seed;
+    
+    private JobDistribution jobDistribution = JobDistribution.POWER_OF_TWO_CHOICES;
+    
+    /* latency SLA term, off while the penalty is 0 */
+    private double latencyPercentile = 99.0;
+    private int latencyTarget = 0;
+    private double latencyPenalty = 0.0;
     
     public CostMinimizingObjectiveFunction(int timesteps,
             Map<Integer, Integer> workloads,
@@ -37,8 +55,71 @@ public class CostMinimizingObjectiveFunction implements ObjectiveFunction {
             int baseWorkRateUpper,
             double parallelizablePortion,
             Level logLevel) {
+        this(timesteps, workloads, initialCapacity, minimumCapacity, maximumCapacity, commissionTimeLower,
+                commissionTimeUpper, baseWorkRateLower, baseWorkRateUpper, parallelizablePortion, logLevel,
+                new SplittableRandom().nextLong());
+    }
+    
+    /**
+     * With a fixed seed, evaluating the same position in the same iteration always gives the same result, regardless
+     * of which thread or machine runs it. Different iterations see different random work rates and commission times.
+     */
+    public CostMinimizingObjectiveFunction(int timesteps,
+            Map<Integer, Integer> workloads,
+            int initialCapacity,
+            int minimumCapacity,
+            int maximumCapacity,
+            int commissionTimeLower,
+            int commissionTimeUpper,
+            int baseWorkRateLower,
+            int baseWorkRateUpper,
+            double parallelizablePortion,
+            Level logLevel,
+            long seed) {
+        this(timesteps, WorkloadTimeline.of(workloads, timesteps), false, initialCapacity, minimumCapacity,
+                maximumCapacity, commissionTimeLower, commissionTimeUpper, baseWorkRateLower, baseWorkRateUpper,
+                parallelizablePortion, logLevel, seed);
+    }
+    
+    /**
+     * Replay a workload timeline, such as a WorkloadTrace. Unlike with a map of batch workloads, each timestep's jobs
+     * add to whatever is still waiting in the batch partition, so a trace with arrivals every timestep loses no jobs
+     * while consumers are being commissioned.
+     * 
+     * The timeline is only read, so one trace can be shared by any number of objectives and parallel evaluations.
+     */
+    public CostMinimizingObjectiveFunction(int timesteps,
+            WorkloadTimeline workloads,
+            int initialCapacity,
+            int minimumCapacity,
+            int maximumCapacity,
+            int commissionTimeLower,
+            int commissionTimeUpper,
+            int baseWorkRateLower,
+            int baseWorkRateUpper,
+            double parallelizablePortion,
+            Level logLevel,
+            long seed) {
+        this(timesteps, workloads, true, initialCapacity, minimumCapacity, maximumCapacity, commissionTimeLower,
+                commissionTimeUpper, baseWorkRateLower, baseWorkRateUpper, parallelizablePortion, logLevel, seed);
+    }
+    
+    private CostMinimizingObjectiveFunction(int timesteps,
+            WorkloadTimeline workloads,
+            boolean accumulateWorkloads,
+            int initialCapacity,
+            int minimumCapacity,
+            int maximumCapacity,
+            int commissionTimeLower,
+            int commissionTimeUpper,
+            int baseWorkRateLower,
+            int baseWorkRateUpper,
+            double parallelizablePortion,
+            Level logLevel,
+            long seed) {
         this.timesteps = timesteps;
         this.workloads = workloads;
+        this.accumulateWorkloads = accumulateWorkloads;
         this.initialCapacity = initialCapacity;
         this.commissionTimeLower = commissionTimeLower;
         this.commissionTimeUpper = commissionTimeUpper;
@@ -50,11 +131,75 @@ public class CostMinimizingObjectiveFunction implements ObjectiveFunction {
         
         this.logLevel = logLevel;
         
-        rng = new Random();
+        this.seed = seed;
+    }
+    
+    public JobDistribution getJobDistribution() {
+        return jobDistribution;
+    }
+    
+    /**
+     * @param jobDistribution How each simulation spreads batch work over partitions. Set before evaluating.
+     */
+    public void setJobDistribution(JobDistribution jobDistribution) {
+        this.jobDistribution = jobDistribution;
+    }
+    
+    /**
+     * Add a latency SLA term to the cost: every timestep in which the given percentile of the latencies of the jobs
+     * processed exceeds the target adds the penalty times the excess, in timesteps. Latency counts from the timestep a
+     * workload arrives to the one its jobs are processed in. Workloads only reach the partitions at the end of the
+     * timestep they arrive in, so it is at least 1.
+     * 
+     * Only evaluate supports this term; the lockstep and event-driven views throw IllegalStateException while it is
+     * set.
+     * 
+     * @param percentile Percentile of each timestep's latencies to hold to the target, e.g. 99
+     * @param target Latency in timesteps that is free
+     * @param penalty Cost per timestep of excess latency per timestep. 0 turns the term off.
+     */
+    public void setLatencyPenalty(double percentile, int target, double penalty) {
+        if (!(percentile > 0.0 && percentile <= 100.0)) {
+            throw new IllegalArgumentException("Percentile must be in (0, 100], got " + percentile);
+        }
+        
+        if (penalty < 0.0) {
+            throw new IllegalArgumentException("Penalty must not be negative, got " + penalty);
+        }
+        
+        latencyPercentile = percentile;
+        latencyTarget = target;
+        latencyPenalty = penalty;
     }
     
+    private void checkNoLatencyPenalty() {
+        if (latencyPenalty > 0.0) {
+            throw new IllegalStateException("Latency penalty is only supported by evaluate");
+        }
+    }
+    
+    private long simulationSeed(double[] position, int iteration) {
+        long hash = RandomStreams.mix(seed + iteration);
+        
+        for (double value : position) {
+            hash = RandomStreams.mix(hash ^ Double.doubleToLongBits(value));
+        }
+        
+        return hash;
+    }
+    
+    /**
+     * Lower fidelities simulate only the first fraction of the timesteps and penalize the jobs left over at that point.
+     * 
+     * Consumer time and the latency term only accumulate, so once they alone exceed the cutoff the simulation stops and
+     * returns them as a lower bound, skipping the leftover job penalty.
+     */
     @Override
-    public double evaluate(double[] position, int iteration) {
+    public double evaluate(double[] position, int iteration, double fidelity, double cutoff) {
+        MultiFidelityObjectiveFunction.checkFidelity(fidelity);
+        
+        final int simulatedTimesteps = Math.max(1, (int) Math.round(timesteps * fidelity));
+        
         double proportionalGain = position[0];
         double integralGain = position[1];
         double derivativeGain = position[2];
@@ -75,23 +220,55 @@ public class CostMinimizingObjectiveFunction implements ObjectiveFunction {
             commissionTimeUpper,
             baseWorkRateLower,
             baseWorkRateUpper,
-            parallelizablePortion
+            parallelizablePortion,
+            simulationSeed(position, iteration)
         );
         
+        queue.setJobDistribution(jobDistribution);
         QueueSimulation.LOGGER.setLevel(logLevel);
         
+        if (latencyPenalty > 0.0) {
+            queue.enableLatencyTracking();
+        }
+        
         PIDControlledQueueSimulation simulation = new PIDControlledQueueSimulation(controller, setpoint, queue, logLevel);
+        final List<QueueConfigurationSnapshot> snapshots = simulation.getObservedErrors();
+        
+        int partialConsumerTime = 0;
+        double latencyCost = 0.0;
         
-        for(int timestep = 1; timestep <= timesteps; timestep++) {
+        for(int timestep = 1; timestep <= simulatedTimesteps; timestep++) {
             /* don't commission additional consumers while other ones are waiting to come online to prevent overprovisioning */
             final boolean canCommission = queue.getQueuedConsumers() == 0;
-            LOGGER.log(Level.INFO, "In timestep {0}, canCommission = {1}", new Object[]{timestep, canCommission});
             
-            if (workloads.containsKey(timestep)) {
-                queue.enqueueBatchWorkload(workloads.get(timestep));
+            if (LOGGER.isLoggable(Level.INFO)) {
+                LOGGER.log(Level.INFO, "In timestep {0}, canCommission = {1}", new Object[]{timestep, canCommission});
+            }
+            
+            final int workload = workloads.getWorkload(timestep);
+            
+            if (workload > 0) {
+                if (accumulateWorkloads) {
+                    queue.addBatchWorkload(workload);
+                } else {
+                    queue.enqueueBatchWorkload(workload);
+                }
             }
             
             simulation.stepSystem(timestep, canCommission);
+            
+            partialConsumerTime += snapshots.get(snapshots.size() - 1).activeConsumers;
+            
+            if (latencyPenalty > 0.0) {
+                final int latency = queue.getStepLatencies().getPercentile(latencyPercentile);
+                latencyCost += latencyPenalty * Math.max(0, latency - latencyTarget);
+            }
+            
+            if (partialConsumerTime + latencyCost > cutoff) {
+                LOGGER.log(Level.FINE, "Consumer time {0} exceeded cutoff {1} at timestep {2}", 
+                        new Object[]{partialConsumerTime, cutoff, timestep});
+                return partialConsumerTime + latencyCost;
+            }
         }
         final List<QueueConfigurationSnapshot> observedErrors = simulation.getObservedErrors();
         
@@ -106,13 +283,185 @@ public class CostMinimizingObjectiveFunction implements ObjectiveFunction {
         // penalize leftover jobs to encourage provisioning enough to process everything within the allotted timespan.
         // penalty factor of 100 is fairly arbitrary
         
-        return 100.0*((double) leftoverJobs) + consumerTimeSum;
+        return 100.0*((double) leftoverJobs) + consumerTimeSum + latencyCost;
+    }
+    
+    /**
+     * Batch view of this objective that simulates candidates in lockstep with PopulationQueueSimulation instead of one
+     * QueueSimulation each. Gives exactly the same fitness as evaluating the positions one at a time at full fidelity,
+     * cutoffs included.
+     *
+     * @param executor Where to run the parts of a batch
+     * @param partSize Number of candidates simulated together. A batch is split into parts of this size that run in
+     * parallel on the executor.
+     */
+    public BatchObjectiveFunction lockstep(EvaluationExecutor executor, int partSize) {
+        if (partSize < 1) {
+            throw new IllegalArgumentException("Part size must be positive, got " + partSize);
+        }
+        
+        return new BatchObjectiveFunction() {
+            @Override
+            public void evaluate(double[][] positions, int iteration, double[] out) {
+                evaluate(positions, iteration, null, out);
+            }
+            
+            @Override
+            public void evaluate(double[][] positions, int iteration, double[] cutoffs, double[] out) {
+                final int parts = (positions.length + partSize - 1) / partSize;
+                
+                executor.runAll(parts, part -> evaluateLockstep(
+                        positions,
+                        part * partSize,
+                        Math.min((part + 1) * partSize, positions.length),
+                        iteration,
+                        cutoffs,
+                        out
+                ));
+            }
+        };
+    }
+    
+    /**
+     * Evaluate positions[from..to-1] together, writing fitness values to the same indices of out.
+     */
+    private void evaluateLockstep(double[][] positions, int from, int to, int iteration, double[] cutoffs,
+            double[] out) {
+        checkNoLatencyPenalty();
+        
+        final int count = to - from;
+        
+        final double[] proportionalGains = new double[count];
+        final double[] integralGains = new double[count];
+        final double[] derivativeGains = new double[count];
+        final int[] setpoints = new int[count];
+        final long[] seeds = new long[count];
+        
+        for (int c = 0; c < count; c++) {
+            final double[] position = positions[from + c];
+            
+            proportionalGains[c] = position[0];
+            integralGains[c] = position[1];
+            derivativeGains[c] = position[2];
+            setpoints[c] = (int) Math.round(position[3]);
+            seeds[c] = simulationSeed(position, iteration);
+        }
+        
+        final PopulationQueueSimulation population = new PopulationQueueSimulation(
+            initialCapacity,
+            minimumCapacity,
+            maximumCapacity,
+            commissionTimeLower,
+            commissionTimeUpper,
+            baseWorkRateLower,
+            baseWorkRateUpper,
+            parallelizablePortion,
+            proportionalGains,
+            integralGains,
+            derivativeGains,
+            setpoints,
+            seeds
+        );
+        population.setJobDistribution(jobDistribution);
+        
+        final int[] consumerTime = new int[count];
+        final boolean[] stopped = new boolean[count];
+        
+        for (int timestep = 1; timestep <= timesteps && population.getRunningCount() > 0; timestep++) {
+            final int workload = workloads.getWorkload(timestep);
+            
+            if (workload > 0) {
+                if (accumulateWorkloads) {
+                    population.addBatchWorkload(workload);
+                } else {
+                    population.enqueueBatchWorkload(workload);
+                }
+            }
+            
+            population.step(timestep);
+            
+            for (int c = 0; c < count; c++) {
+                if (stopped[c]) {
+                    continue;
+                }
+                
+                consumerTime[c] += population.getStepConsumers(c);
+                
+                if (cutoffs != null && consumerTime[c] > cutoffs[from + c]) {
+                    out[from + c] = consumerTime[c];
+                    stopped[c] = true;
+                    population.stop(c);
+                }
+            }
+        }
+        
+        for (int c = 0; c < count; c++) {
+            if (!stopped[c]) {
+                final long leftoverJobs = population.getEnqueuedJobs(c) - population.getProcessedJobs(c);
+                out[from + c] = 100.0 * ((double) leftoverJobs) + consumerTime[c];
+            }
+        }
+    }
+    
+    /**
+     * View of this objective that simulates with DiscreteEventQueueSimulation, skipping the idle stretches between
+     * workloads instead of stepping through them. Gives exactly the same fitness as evaluate at every fidelity and
+     * cutoff, but costs much less for long horizons with sparse workloads.
+     */
+    public MultiFidelityObjectiveFunction eventDriven() {
+        return this::evaluateEventDriven;
+    }
+    
+    private double evaluateEventDriven(double[] position, int iteration, double fidelity, double cutoff) {
+        checkNoLatencyPenalty();
+        MultiFidelityObjectiveFunction.checkFidelity(fidelity);
+        
+        final int simulatedTimesteps = Math.max(1, (int) Math.round(timesteps * fidelity));
+        
+        final DiscreteEventQueueSimulation simulation = new DiscreteEventQueueSimulation(
+            initialCapacity,
+            minimumCapacity,
+            maximumCapacity,
+            commissionTimeLower,
+            commissionTimeUpper,
+            baseWorkRateLower,
+            baseWorkRateUpper,
+            parallelizablePortion,
+            position[0],
+            position[1],
+            position[2],
+            (int) Math.round(position[3]),
+            simulationSeed(position, iteration)
+        );
+        simulation.setJobDistribution(jobDistribution);
+        
+        final int lastArrival = Math.min(simulatedTimesteps, workloads.getTimesteps());
+        
+        for (int timestep = 1; timestep <= lastArrival; timestep++) {
+            final int workload = workloads.getWorkload(timestep);
+            
+            if (workload > 0) {
+                if (accumulateWorkloads) {
+                    simulation.scheduleAddedWorkload(timestep, workload);
+                } else {
+                    simulation.scheduleWorkload(timestep, workload);
+                }
+            }
+        }
+        
+        if (!simulation.run(simulatedTimesteps, cutoff)) {
+            return simulation.getConsumerTime();
+        }
+        
+        final long leftoverJobs = simulation.getEnqueuedJobs() - simulation.getProcessedJobs();
+        
+        return 100.0 * ((double) leftoverJobs) + simulation.getConsumerTime();
     }
     
     public static void main(String[] args) {
         final Map<Integer, Integer> workloads = new HashMap<>();
         final int timesteps = 500;
-        Random rng = new Random();
+        SplittableRandom rng = new SplittableRandom();
         for(int i = 1; i <= timesteps; i += 25) {
             workloads.put(i, rng.nextInt(100) + 1000);
         }
@@ -1,29 +1,47 @@
 package org.wkh.swarmscale.queue;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.logging.Level;
-import org.wkh.swarmscale.optimization.EpochPerformanceResult;
+import org.wkh.swarmscale.optimization.CachingObjectiveFunction;
+import org.wkh.swarmscale.optimization.Checkpointer;
+import org.wkh.swarmscale.optimization.EpochHistory;
+import org.wkh.swarmscale.optimization.EvaluationExecutor;
 import org.wkh.swarmscale.optimization.ObjectiveFunction;
+import org.wkh.swarmscale.optimization.OptimizationResult;
 import org.wkh.swarmscale.optimization.ParticleSwarmOptimizer;
+import org.wkh.swarmscale.optimization.StopCondition;
 
 public class CostMinimizingOptimizer {
-    public static void main(String[] args) {
-        final int populationSize = 250;
-        
-        final double[][] bounds = {
-            {0.0, 50.0},  /* proportional */
-            {0.0, 50.0},  /* integral */
-            {0.0, 50.0},  /* derivative */
-            {0.0, 1000.0}, /* setpoint */
-        };
+    /**
+     * Search space: PID gains plus the lag setpoint
+     */
+    public static final double[][] BOUNDS = {
+        {0.0, 50.0},  /* proportional */
+        {0.0, 50.0},  /* integral */
+        {0.0, 50.0},  /* derivative */
+        {0.0, 1000.0}, /* setpoint */
+    };
 
-        final int dim = bounds.length;
-        
+    /**
+     * Seed for the simulations' random work rates and commission times, so tuning runs are comparable
+     */
+    public static final long SIMULATION_SEED = 20200601L;
+
+    /**
+     * The standard tuning scenario: 1500-job batches every 25 steps over 500 steps, 1 to 20 consumers.
+     */
+    public static ObjectiveFunction createObjectiveFunction() {
+        return createObjectiveFunction(SIMULATION_SEED);
+    }
+
+    public static ObjectiveFunction createObjectiveFunction(long seed) {
         final Map<Integer, Integer> workloads = new HashMap<>();
         final int timesteps = 500;
         for(int i = 1; i <= timesteps; i += 25) {
@@ -42,7 +60,7 @@ public class CostMinimizingOptimizer {
         
         final double parallelizablePortion = 0.9;
         
-        final ObjectiveFunction pidSystemSimulator = new CostMinimizingObjectiveFunction(
+        return new CostMinimizingObjectiveFunction(
                 timesteps, 
                 workloads,
                 initialCapacity, 
@@ -53,17 +71,67 @@ public class CostMinimizingOptimizer {
                 baseWorkRateLower, 
                 baseWorkRateUpper, 
                 parallelizablePortion,
-                Level.SEVERE
+                Level.SEVERE,
+                seed
         );
+    }
 
-        final ParticleSwarmOptimizer optimizer = new ParticleSwarmOptimizer(
-            populationSize,
-            dim,
-            bounds,
-            pidSystemSimulator
+    public static void main(String[] args) throws IOException {
+        final int populationSize = 250;
+        final int maxEpochs = 500;
+
+        /* pass a path to checkpoint there, resuming from it if it already exists */
+        final Path checkpointPath = args.length > 0 ? Paths.get(args[0]) : null;
+
+        /* and optionally a seed to reproduce an earlier run */
+        final Long seed = args.length > 1 ? Long.valueOf(args[1]) : null;
+        
+        final double[][] bounds = BOUNDS;
+
+        final int dim = bounds.length;
+        
+        final ObjectiveFunction pidSystemSimulator = createObjectiveFunction();
+
+        /* late in a run many particles land on effectively the same gains. the simulation is noisy, so average a few
+           samples per grid cell before trusting the cached value. the setpoint is rounded to an int anyway */
+        final CachingObjectiveFunction cachedSimulator = new CachingObjectiveFunction(
+            pidSystemSimulator,
+            new double[] {0.01, 0.01, 0.01, 1.0},
+            100000,
+            3
         );
 
-        optimizer.initializePopulation();
+        final boolean resuming = checkpointPath != null && Files.exists(checkpointPath);
+
+        final ParticleSwarmOptimizer optimizer = resuming
+            ? ParticleSwarmOptimizer.restore(checkpointPath, bounds, cachedSimulator)
+            : new ParticleSwarmOptimizer(populationSize, dim, bounds, cachedSimulator);
+
+        /* use a dedicated pool rather than sharing the common ForkJoinPool */
+        final EvaluationExecutor evaluationExecutor = EvaluationExecutor.boundedPool(
+            Runtime.getRuntime().availableProcessors()
+        );
+        optimizer.setEvaluationExecutor(evaluationExecutor);
+
+        if (resuming) {
+            System.out.println("Resuming from " + checkpointPath + " at epoch " + optimizer.getEpoch());
+        } else {
+            if (seed != null) {
+                optimizer.setSeed(seed);
+            }
+
+            optimizer.initializePopulation();
+        }
+
+        System.out.println("Seed: " + optimizer.getSeed());
+
+        final Checkpointer checkpointer = checkpointPath == null
+            ? null
+            : new Checkpointer(optimizer, checkpointPath, 10, 5 * 60 * 1000);
+
+        if (checkpointer != null) {
+            optimizer.addEpochListener(checkpointer);
+        }
 
         optimizer.addEpochListener((result, epoch) -> {
             if (epoch % 10 == 0) {
@@ -71,14 +139,27 @@ public class CostMinimizingOptimizer {
                 System.out.println("Best result fitness: " + result.gbestFitness);
                 System.out.println("Fitness statistics: " + result.fitnessStatistics);
                 System.out.println("Best result value: " + Arrays.toString(result.gbest));
+                System.out.println("Evaluation executor: " + evaluationExecutor);
+                System.out.println("Evaluation cache: " + cachedSimulator);
             }
         });
 
-        final int iterations = 500;
+        /* stop early once gbest has stopped improving rather than always burning the full epoch budget. epochs run
+           before a restore count toward maxEpochs */
+        final StopCondition stopCondition = StopCondition.maxEpochs(maxEpochs)
+            .or(StopCondition.noImprovement(50))
+            .or(StopCondition.deadline(4 * 60 * 60 * 1000));
+
+        final OptimizationResult result = optimizer.runUntil(stopCondition, EpochHistory.summaryOnly());
+        evaluationExecutor.close();
 
-        final List<EpochPerformanceResult> results = optimizer.runForIterations(iterations);
+        if (checkpointer != null) {
+            checkpointer.checkpoint();
+            checkpointer.close();
+        }
         
-        System.out.println("Best result: " + Arrays.toString(results.get(iterations - 1).gbest));
-        System.out.println(results.get(iterations - 1).gbestFitness);
+        System.out.println("Stopped after " + result.epochs + " epochs: " + result.stopReason);
+        System.out.println("Best result: " + Arrays.toString(result.gbest));
+        System.out.println(result.gbestFitness);
     }
 }
@@ -0,0 +1,510 @@
+package org.wkh.swarmscale.queue;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import org.wkh.swarmscale.optimization.RandomStreams;
+
+/**
+ * Discrete-event version of a QueueSimulation driven by a PIDControlledQueueSimulation.
+ *
+ * Workload arrivals, consumers coming online and control ticks are events on one calendar, ordered by timestep and,
+ * within a timestep, in the order the per-step model handles them: arrivals, then consumers coming online, then the
+ * tick. A tick processes jobs, decommissions idle excess consumers, runs the controller, commissions or deactivates
+ * consumers and distributes batch work, exactly like one QueueSimulation.stepSystem plus the controller step.
+ *
+ * Once the system is drained and the controller has settled, a tick changes nothing except advancing the random number
+ * generator and adding the active consumers to the consumer time. Instead of running such ticks one by one, the
+ * simulation jumps to the next arrival. The skipped ticks' consumer time, including where a cutoff falls, is computed
+ * in closed form, but the random number generator is still advanced one draw per skipped tick: bounded draws reject
+ * values depending on the generator's output, so there is no exact jump. Draws are made in the same order as
+ * QueueSimulation, so the outcome is identical to stepping with the same seed. An idle tick costs one draw rather than
+ * a pass over the partitions and the controller, so long horizons with sparse arrivals still run much faster than
+ * stepping, but the cost stays linear in the horizon.
+ *
+ * Not thread safe; each evaluation should use its own instance.
+ */
+public class DiscreteEventQueueSimulation {
+
+    /* event types, in the order they are handled within a timestep */
+    private static final int ARRIVAL = 0;
+    private static final int ADDED_ARRIVAL = 1;
+    private static final int ONLINE = 2;
+    private static final int TICK = 3;
+
+    private final int minimumCapacity;
+    private final int maximumCapacity;
+    private final int commissionTimeLower;
+    private final int commissionTimeUpper;
+    private final int baseWorkRateLower;
+    private final int baseWorkRateUpper;
+    private final double parallelizablePortion;
+
+    /**
+     * Partition lags, active partitions first
+     */
+    private long[] lags;
+    private int partitionCount;
+
+    /* work space for water-filling, grown with lags */
+    private long[] fillScratch;
+    private int activePartitions;
+    private int activeConsumers;
+    private int queuedConsumers;
+    private long batchLag;
+    private long processedJobs;
+    private long enqueuedJobs;
+
+    private final RandomStreams rng;
+    private final PIDControllerBank controller;
+    private JobDistribution jobDistribution = JobDistribution.POWER_OF_TWO_CHOICES;
+
+    private final PriorityQueue<Event> calendar = new PriorityQueue<>();
+
+    /**
+     * Timestep of the latest tick, run or skipped
+     */
+    private int timestep = 0;
+    private long consumerTime = 0;
+    private long ticks = 0;
+    private long skippedTicks = 0;
+
+    /**
+     * @param initialCapacity Initial partitions and consumers, as in QueueSimulation
+     * @param minimumCapacity Minimum consumers, and the controller's minimum output
+     * @param maximumCapacity Maximum consumers, and the controller's maximum output
+     * @param commissionTimeLower Minimum timesteps for a consumer to come online
+     * @param commissionTimeUpper Maximum timesteps for a consumer to come online
+     * @param baseWorkRateLower Minimum jobs processed per step
+     * @param baseWorkRateUpper Maximum jobs processed per step
+     * @param parallelizablePortion Amdahl's law parallelizable portion
+     * @param proportionalGain Controller proportional gain
+     * @param integralGain Controller integral gain
+     * @param derivativeGain Controller derivative gain
+     * @param setpoint Controller total lag setpoint
+     * @param seed Seed, as passed to QueueSimulation
+     */
+    public DiscreteEventQueueSimulation(int initialCapacity,
+            int minimumCapacity,
+            int maximumCapacity,
+            int commissionTimeLower,
+            int commissionTimeUpper,
+            int baseWorkRateLower,
+            int baseWorkRateUpper,
+            double parallelizablePortion,
+            double proportionalGain,
+            double integralGain,
+            double derivativeGain,
+            int setpoint,
+            long seed) {
+        if (commissionTimeUpper < commissionTimeLower || baseWorkRateLower > baseWorkRateUpper) {
+            throw new IllegalArgumentException("Lower must be < upper");
+        }
+
+        this.minimumCapacity = minimumCapacity;
+        this.maximumCapacity = maximumCapacity;
+        this.commissionTimeLower = commissionTimeLower;
+        this.commissionTimeUpper = commissionTimeUpper;
+        this.baseWorkRateLower = baseWorkRateLower;
+        this.baseWorkRateUpper = baseWorkRateUpper;
+        this.parallelizablePortion = parallelizablePortion;
+
+        lags = new long[Math.max(1, Math.max(initialCapacity, maximumCapacity))];
+        partitionCount = initialCapacity;
+        activePartitions = initialCapacity;
+        activeConsumers = initialCapacity;
+
+        rng = RandomStreams.ofSeeds(new long[] {seed});
+        controller = new PIDControllerBank(
+                new double[] {proportionalGain},
+                new double[] {integralGain},
+                new double[] {derivativeGain},
+                new int[] {setpoint},
+                minimumCapacity,
+                maximumCapacity
+        );
+    }
+
+    public JobDistribution getJobDistribution() {
+        return jobDistribution;
+    }
+
+    /**
+     * @param jobDistribution How batch work is spread over the active partitions, as in QueueSimulation
+     */
+    public void setJobDistribution(JobDistribution jobDistribution) {
+        this.jobDistribution = jobDistribution;
+    }
+
+    /**
+     * Set the batch partition to count jobs at the start of a timestep, like QueueSimulation.enqueueBatchWorkload.
+     */
+    public void scheduleWorkload(int timestep, long count) {
+        if (timestep <= this.timestep) {
+            throw new IllegalArgumentException("Timestep " + timestep + " has already been simulated");
+        }
+
+        calendar.add(new Event(timestep, ARRIVAL, count));
+    }
+
+    /**
+     * Add count jobs to the batch partition at the start of a timestep, like QueueSimulation.addBatchWorkload.
+     */
+    public void scheduleAddedWorkload(int timestep, long count) {
+        if (timestep <= this.timestep) {
+            throw new IllegalArgumentException("Timestep " + timestep + " has already been simulated");
+        }
+
+        calendar.add(new Event(timestep, ADDED_ARRIVAL, count));
+    }
+
+    /**
+     * Simulate every timestep up to and including horizon, or until the consumer time exceeds the cutoff. Can be called
+     * again with a later horizon to continue.
+     *
+     * @param horizon Last timestep to simulate
+     * @param cutoff Stop once the consumer time is greater than this. May be infinite.
+     * @return false if the run stopped because of the cutoff
+     */
+    public boolean run(int horizon, double cutoff) {
+        calendar.add(new Event(timestep + 1, TICK, 0));
+
+        int currentTimestep = timestep;
+        boolean canCommission = queuedConsumers == 0;
+
+        while (calendar.peek().timestep <= horizon) {
+            final Event event = calendar.poll();
+
+            if (event.timestep != currentTimestep) {
+                /* the per-step model decides this before any consumers due this timestep come online */
+                currentTimestep = event.timestep;
+                canCommission = queuedConsumers == 0;
+            }
+
+            if (event.type == ARRIVAL) {
+                batchLag = event.count;
+            } else if (event.type == ADDED_ARRIVAL) {
+                batchLag += event.count;
+            } else if (event.type == ONLINE) {
+                queuedConsumers--;
+                consumerComesOnline();
+            } else {
+                timestep = event.timestep;
+                consumerTime += tick(canCommission);
+                ticks++;
+
+                if (consumerTime > cutoff) {
+                    removeTick();
+                    return false;
+                }
+
+                int nextTick = timestep + 1;
+
+                if (isIdle()) {
+                    nextTick = Math.min(nextArrival(), horizon + 1);
+
+                    if (!skipIdleTicks(nextTick - timestep - 1, cutoff)) {
+                        removeTick();
+                        return false;
+                    }
+                }
+
+                calendar.add(new Event(nextTick, TICK, 0));
+            }
+        }
+
+        removeTick();
+        return true;
+    }
+
+    private void removeTick() {
+        calendar.removeIf(event -> event.type == TICK);
+    }
+
+    /**
+     * One timestep of the per-step model, after arrivals and consumers coming online.
+     *
+     * @return active consumers at the start of the tick, as recorded in QueueConfigurationSnapshot
+     */
+    private int tick(boolean canCommission) {
+        stepJobs();
+
+        if (timestep > commissionTimeUpper + 1 && queuedConsumers == 0) {
+            decommissionIdleExcessConsumers();
+        }
+
+        long totalLag = batchLag;
+
+        for (int j = 0; j < partitionCount; j++) {
+            totalLag += lags[j];
+        }
+
+        final int targetConsumers = (int) Math.round(controller.getOutput(0, totalLag));
+        final int actualConsumers = activeConsumers;
+
+        if (actualConsumers < targetConsumers) {
+            if (canCommission) {
+                for (int i = 1; i <= targetConsumers - actualConsumers; i++) {
+                    if (activeConsumers + queuedConsumers < maximumCapacity) {
+                        commissionConsumer();
+                    }
+                }
+            }
+        } else if (targetConsumers < actualConsumers) {
+            for (int i = 1; i <= actualConsumers - targetConsumers; i++) {
+                if (activeConsumers > minimumCapacity && activePartitions > minimumCapacity) {
+                    activePartitions--;
+                }
+            }
+        }
+
+        if (batchLag > 0 && queuedConsumers == 0) {
+            distributeBatchWork();
+        }
+
+        return actualConsumers;
+    }
+
+    /**
+     * @return whether the next tick, and every tick after it until something arrives, would change nothing but the
+     * random number generator and the consumer time
+     */
+    private boolean isIdle() {
+        if (queuedConsumers != 0 || batchLag != 0) {
+            return false;
+        }
+
+        for (int j = 0; j < partitionCount; j++) {
+            if (lags[j] != 0) {
+                return false;
+            }
+        }
+
+        /* decommissioning would remove an idle partition beyond the active ones */
+        if (activePartitions < partitionCount && partitionCount > minimumCapacity
+                && activeConsumers > minimumCapacity) {
+            return false;
+        }
+
+        if (!controller.isSteady(0, 0.0)) {
+            return false;
+        }
+
+        final int targetConsumers = (int) Math.round(controller.peekOutput(0, 0.0));
+
+        if (targetConsumers > activeConsumers) {
+            return activeConsumers >= maximumCapacity;
+        } else if (targetConsumers < activeConsumers) {
+            return activeConsumers <= minimumCapacity || activePartitions <= minimumCapacity;
+        }
+
+        return true;
+    }
+
+    /**
+     * Only valid while idle: no consumers are queued and the next tick isn't scheduled yet, so whatever is at the head
+     * of the calendar is the next arrival. Saves scanning every scheduled arrival on long traces.
+     */
+    private int nextArrival() {
+        final Event next = calendar.peek();
+
+        return next == null ? Integer.MAX_VALUE : next.timestep;
+    }
+
+    /**
+     * Account for idle ticks without running them: each one draws a work rate and adds the active consumers. The
+     * consumer time is added in one step; the draws are made one by one, since rejected draws can't be predicted.
+     *
+     * @return false if the consumer time exceeded the cutoff partway through, in which case it stops there
+     */
+    private boolean skipIdleTicks(int count, double cutoff) {
+        if (count <= 0) {
+            return true;
+        }
+
+        long skip = count;
+        boolean exceeded = false;
+
+        if (activeConsumers > 0 && consumerTime + count * (long) activeConsumers > cutoff) {
+            /* first skipped tick after which the consumer time exceeds the cutoff */
+            skip = (long) Math.floor((cutoff - consumerTime) / activeConsumers) + 1;
+
+            while (skip > 1 && consumerTime + (skip - 1) * activeConsumers > cutoff) {
+                skip--;
+            }
+
+            while (consumerTime + skip * activeConsumers <= cutoff) {
+                skip++;
+            }
+
+            exceeded = true;
+        }
+
+        final int bound = baseWorkRateUpper - baseWorkRateLower + 1;
+
+        for (long i = 0; i < skip; i++) {
+            rng.nextInt(0, bound);
+        }
+
+        consumerTime += skip * activeConsumers;
+        timestep += (int) skip;
+        skippedTicks += skip;
+
+        return !exceeded;
+    }
+
+    private void consumerComesOnline() {
+        if (activeConsumers >= maximumCapacity) {
+            return;
+        }
+
+        activePartitions++;
+        activeConsumers++;
+
+        if (activePartitions > partitionCount) {
+            if (partitionCount == lags.length) {
+                lags = Arrays.copyOf(lags, 2 * lags.length);
+            }
+
+            lags[partitionCount++] = 0;
+        }
+    }
+
+    private void stepJobs() {
+        final int effectiveWorkRate = rng.nextInt(0, baseWorkRateUpper - baseWorkRateLower + 1) + baseWorkRateLower;
+        final double speedupFactor = 1.0 / ((1 - parallelizablePortion)
+                + parallelizablePortion / (activeConsumers + 1));
+        final long meanWorkRate = (int) Math.round(effectiveWorkRate * speedupFactor / activeConsumers);
+
+        for (int j = 0; j < partitionCount; j++) {
+            final long work = Math.min(lags[j], meanWorkRate);
+            lags[j] -= work;
+            processedJobs += work;
+        }
+    }
+
+    /**
+     * Same scan as QueueSimulation: a removed partition is replaced by the last one and its index is checked again.
+     */
+    private void decommissionIdleExcessConsumers() {
+        int i = activePartitions;
+
+        while (i < partitionCount && partitionCount > minimumCapacity && activeConsumers > minimumCapacity) {
+            if (lags[i] == 0) {
+                lags[i] = lags[--partitionCount];
+                activeConsumers--;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private void commissionConsumer() {
+        if (activeConsumers >= maximumCapacity) {
+            return;
+        }
+
+        final int commissionTime = rng.nextInt(0, commissionTimeUpper - commissionTimeLower + 1)
+                + commissionTimeLower;
+        /* the per-step model brings consumers online at the start of a timestep, so the earliest is the next one */
+        calendar.add(new Event(timestep + Math.max(1, commissionTime), ONLINE, 0));
+        queuedConsumers++;
+    }
+
+    private void distributeBatchWork() {
+        if (activePartitions == 0) {
+            throw new IllegalStateException("No active partitions to distribute jobs to");
+        }
+
+        if (jobDistribution == JobDistribution.WATER_FILLING) {
+            if (fillScratch == null || fillScratch.length < activePartitions) {
+                fillScratch = new long[lags.length];
+            }
+
+            JobDistribution.waterFill(lags, activePartitions, batchLag, fillScratch);
+        } else {
+            for (long n = 0; n < batchLag; n++) {
+                final int index1 = rng.nextInt(0, activePartitions);
+                final int index2 = rng.nextInt(0, activePartitions);
+
+                if (lags[index1] < lags[index2]) {
+                    lags[index1]++;
+                } else {
+                    lags[index2]++;
+                }
+            }
+        }
+
+        enqueuedJobs += batchLag;
+        batchLag = 0;
+    }
+
+    /**
+     * @return sum over timesteps of the active consumers at the start of each, the cost CostMinimizingObjectiveFunction
+     * minimizes
+     */
+    public long getConsumerTime() {
+        return consumerTime;
+    }
+
+    public int getTimestep() {
+        return timestep;
+    }
+
+    public int getActiveConsumers() {
+        return activeConsumers;
+    }
+
+    public int getQueuedConsumers() {
+        return queuedConsumers;
+    }
+
+    public long getBatchLag() {
+        return batchLag;
+    }
+
+    public long getEnqueuedJobs() {
+        return enqueuedJobs;
+    }
+
+    public long getProcessedJobs() {
+        return processedJobs;
+    }
+
+    public long[] getPartitionLags() {
+        return Arrays.copyOf(lags, partitionCount);
+    }
+
+    /**
+     * @return number of ticks actually run
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return number of idle ticks accounted for without running them
+     */
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    private static final class Event implements Comparable<Event> {
+
+        final int timestep;
+        final int type;
+        final long count;
+
+        Event(int timestep, int type, long count) {
+            this.timestep = timestep;
+            this.type = type;
+            this.count = count;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            return timestep != other.timestep
+                    ? Integer.compare(timestep, other.timestep)
+                    : Integer.compare(type, other.type);
+        }
+    }
+}
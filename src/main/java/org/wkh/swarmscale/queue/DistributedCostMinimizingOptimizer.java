@@ -0,0 +1,139 @@
+package org.wkh.swarmscale.queue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.wkh.swarmscale.optimization.EpochHistory;
+import org.wkh.swarmscale.optimization.EvaluationExecutor;
+import org.wkh.swarmscale.optimization.ObjectiveFunction;
+import org.wkh.swarmscale.optimization.OptimizationResult;
+import org.wkh.swarmscale.optimization.ParticleSwarmOptimizer;
+import org.wkh.swarmscale.optimization.StopCondition;
+import org.wkh.swarmscale.optimization.distributed.EvaluationCoordinator;
+import org.wkh.swarmscale.optimization.distributed.EvaluationWorker;
+
+/**
+ * CostMinimizingOptimizer with evaluations spread across worker JVMs.
+ *
+ * Usage:
+ *
+ * local WORKERS THREADS - start a coordinator plus WORKERS worker JVMs on localhost with THREADS threads each
+ * coordinator PORT WORKERS - run the optimizer, waiting for WORKERS workers to connect on PORT
+ * worker HOST PORT THREADS - evaluate for the coordinator at HOST:PORT
+ */
+public class DistributedCostMinimizingOptimizer {
+
+    public static final String OBJECTIVE_NAME = "cost-minimizing";
+
+    /**
+     * Objective functions workers know how to build, by name
+     */
+    public static final Map<String, Supplier<ObjectiveFunction>> REGISTRY = Collections.singletonMap(
+        OBJECTIVE_NAME, CostMinimizingOptimizer::createObjectiveFunction
+    );
+
+    public static OptimizationResult optimize(EvaluationCoordinator coordinator, int totalCapacity) {
+        final int populationSize = 250;
+        final double[][] bounds = CostMinimizingOptimizer.BOUNDS;
+
+        final ParticleSwarmOptimizer optimizer = new ParticleSwarmOptimizer(
+            populationSize,
+            bounds.length,
+            bounds,
+            coordinator
+        );
+
+        /* each evaluation blocks a local thread while a worker runs it, so keep enough threads to fill every worker
+           and have the next batch queued */
+        final EvaluationExecutor evaluationExecutor = EvaluationExecutor.boundedPool(2 * totalCapacity);
+        optimizer.setEvaluationExecutor(evaluationExecutor);
+
+        optimizer.addEpochListener((result, epoch) -> {
+            if (epoch % 10 == 0) {
+                System.out.println("Epoch " + epoch + ": " + new Date());
+                System.out.println("Best result fitness: " + result.gbestFitness);
+                System.out.println("Best result value: " + Arrays.toString(result.gbest));
+                System.out.println("Coordinator: " + coordinator);
+            }
+        });
+
+        try {
+            optimizer.initializePopulation();
+
+            return optimizer.runUntil(
+                StopCondition.maxEpochs(500).or(StopCondition.noImprovement(50)),
+                EpochHistory.summaryOnly()
+            );
+        } finally {
+            evaluationExecutor.close();
+        }
+    }
+
+    private static Process startWorkerProcess(int port, int threads) throws IOException {
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        return new ProcessBuilder(
+            java,
+            "-cp",
+            System.getProperty("java.class.path"),
+            DistributedCostMinimizingOptimizer.class.getName(),
+            "worker",
+            "localhost",
+            String.valueOf(port),
+            String.valueOf(threads)
+        ).inheritIO().start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: local WORKERS THREADS | coordinator PORT WORKERS | worker HOST PORT THREADS");
+            return;
+        }
+
+        switch (args[0]) {
+            case "worker": {
+                new EvaluationWorker(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), REGISTRY).run();
+                break;
+            }
+            case "coordinator": {
+                final int workers = Integer.parseInt(args[2]);
+
+                try (EvaluationCoordinator coordinator = new EvaluationCoordinator(
+                        Integer.parseInt(args[1]), OBJECTIVE_NAME, 16)) {
+                    coordinator.awaitWorkers(workers, 10 * 60 * 1000);
+                    final OptimizationResult result = optimize(coordinator, coordinator.getTotalCapacity());
+                    System.out.println(result);
+                }
+                break;
+            }
+            case "local": {
+                final int workers = Integer.parseInt(args[1]);
+                final int threads = Integer.parseInt(args[2]);
+                final List<Process> processes = new ArrayList<>();
+
+                try (EvaluationCoordinator coordinator = new EvaluationCoordinator(0, OBJECTIVE_NAME, 16)) {
+                    for (int i = 0; i < workers; i++) {
+                        processes.add(startWorkerProcess(coordinator.getPort(), threads));
+                    }
+
+                    coordinator.awaitWorkers(workers, 60 * 1000);
+                    final OptimizationResult result = optimize(coordinator, coordinator.getTotalCapacity());
+                    System.out.println(result);
+                } finally {
+                    for (Process process : processes) {
+                        process.destroy();
+                    }
+                }
+                break;
+            }
+            default:
+                System.err.println("Unknown mode " + args[0]);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.wkh.swarmscale.queue;
+
+import java.util.Arrays;
+
+/**
+ * How the simulators spread newly enqueued jobs over the active partitions.
+ */
+public enum JobDistribution {
+    /**
+     * Each job goes to the less loaded of two randomly chosen partitions. Costs two random draws per job. The default,
+     * and the only mode that reproduces runs made before the other modes existed.
+     */
+    POWER_OF_TWO_CHOICES,
+
+    /**
+     * Each job goes to the least loaded partition, lowest index first on ties. Power of two choices approximates this
+     * balance; the exact version is computed in bulk by raising the least loaded partitions to a common level, so it
+     * costs O(P log P) for P partitions however many jobs there are, and draws no random numbers.
+     */
+    WATER_FILLING;
+
+    /**
+     * Add count jobs to lags[0..partitions-1] as if each job in turn went to the least loaded partition.
+     *
+     * @param lags Partition lags, updated in place
+     * @param partitions Number of active partitions, at the start of lags
+     * @param count Number of jobs to add
+     * @param scratch Work space of at least partitions entries, reused between calls so that filling doesn't allocate
+     */
+    static void waterFill(long[] lags, int partitions, long count, long[] scratch) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("No active partitions to distribute jobs to");
+        }
+
+        if (count <= 0) {
+            return;
+        }
+
+        final long[] sorted = scratch;
+        System.arraycopy(lags, 0, sorted, 0, partitions);
+        Arrays.sort(sorted, 0, partitions);
+
+        /* raise the k least loaded partitions level by level until the jobs left can't reach the next partition */
+        long level = sorted[0];
+        long remaining = count;
+        int k = 0;
+
+        while (true) {
+            while (k < partitions && sorted[k] <= level) {
+                k++;
+            }
+
+            if (k == partitions || sorted[k] - level > remaining / k) {
+                break;
+            }
+
+            remaining -= (sorted[k] - level) * k;
+            level = sorted[k];
+        }
+
+        /* the k partitions at or below the final level all end up on it, and the lowest indices take the leftovers */
+        final long finalLevel = level + remaining / k;
+        long leftover = remaining % k;
+
+        for (int i = 0; i < partitions; i++) {
+            if (lags[i] <= finalLevel) {
+                lags[i] = finalLevel;
+
+                if (leftover > 0) {
+                    lags[i]++;
+                    leftover--;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.wkh.swarmscale.queue;
+
+import java.util.Arrays;
+
+/**
+ * Counts of jobs by latency in whole timesteps, from enqueueing to processing.
+ *
+ * Backed by one count per latency up to the largest seen, so recording is O(1) and memory grows with the longest
+ * latency rather than the number of jobs. Percentiles scan the recorded range.
+ */
+public final class LatencyHistogram {
+
+    private long[] counts = new long[16];
+    private int minimum = Integer.MAX_VALUE;
+    private int maximum = -1;
+    private long total = 0;
+    private double latencySum = 0.0;
+
+    /**
+     * @param latency Timesteps the jobs waited, at least 0
+     * @param count Number of jobs
+     */
+    public void record(int latency, long count) {
+        if (latency < 0) {
+            throw new IllegalArgumentException("Latency must not be negative, got " + latency);
+        }
+
+        if (count <= 0) {
+            return;
+        }
+
+        if (latency >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(2 * counts.length, latency + 1));
+        }
+
+        counts[latency] += count;
+        minimum = Math.min(minimum, latency);
+        maximum = Math.max(maximum, latency);
+        total += count;
+        latencySum += (double) latency * count;
+    }
+
+    /**
+     * Forget everything recorded. Only touches the recorded range.
+     */
+    public void clear() {
+        if (maximum >= 0) {
+            Arrays.fill(counts, minimum, maximum + 1, 0);
+        }
+
+        minimum = Integer.MAX_VALUE;
+        maximum = -1;
+        total = 0;
+        latencySum = 0.0;
+    }
+
+    /**
+     * @return number of jobs recorded
+     */
+    public long getCount() {
+        return total;
+    }
+
+    /**
+     * @return largest latency recorded, or 0 if none
+     */
+    public int getMaximum() {
+        return Math.max(0, maximum);
+    }
+
+    /**
+     * @return mean latency, or 0 if nothing was recorded
+     */
+    public double getMean() {
+        return total == 0 ? 0.0 : latencySum / total;
+    }
+
+    /**
+     * @param percentile Percentile in (0, 100], e.g. 50 for the median or 99
+     * @return smallest latency at or below which at least that percentage of the jobs fall, or 0 if none were recorded
+     */
+    public int getPercentile(double percentile) {
+        if (!(percentile > 0.0 && percentile <= 100.0)) {
+            throw new IllegalArgumentException("Percentile must be in (0, 100], got " + percentile);
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = (long) Math.ceil(total * (percentile / 100.0));
+        long seen = 0;
+
+        for (int latency = minimum; latency < maximum; latency++) {
+            seen += counts[latency];
+
+            if (seen >= rank) {
+                return latency;
+            }
+        }
+
+        return maximum;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + total + ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99)
+                + ", max=" + getMaximum() + "}";
+    }
+}
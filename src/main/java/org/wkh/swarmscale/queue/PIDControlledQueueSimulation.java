@@ -57,7 +57,10 @@ public class PIDControlledQueueSimulation  {
         }
         
         if (queueSimulation.getBatchLag() > 0 && !queueSimulation.consumersQueued()) {
-            LOGGER.log(Level.INFO, "Queueing {0} jobs to batch partition", queueSimulation.getBatchLag());
+            if (LOGGER.isLoggable(Level.INFO)) {
+                LOGGER.log(Level.INFO, "Queueing {0} jobs to batch partition", queueSimulation.getBatchLag());
+            }
+            
             queueSimulation.distributeBatchWorkToPartitions(queueSimulation.getBatchLag());
         }
         
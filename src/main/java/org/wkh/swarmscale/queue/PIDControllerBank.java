@@ -0,0 +1,138 @@
+package org.wkh.swarmscale.queue;
+
+/**
+ * A bank of reversed PID controllers in struct-of-arrays form, for the queue simulators.
+ *
+ * Computes exactly what PIDController.getOutput does for a controller created with reversed = true and output limits
+ * [minOutput, maxOutput], without feed forward, ramp rate, output filter or setpoint range, none of which the queue
+ * simulations use.
+ */
+final class PIDControllerBank {
+
+    /**
+     * Gains, stored with the signs PIDController uses for a reversed controller
+     */
+    private final double[] proportionalGains;
+    private final double[] integralGains;
+    private final double[] derivativeGains;
+    private final double[] setpoints;
+
+    private final double[] errorSums;
+    private final double[] maxErrors;
+    private final double[] lastActuals;
+    private final boolean[] started;
+
+    private final double minOutput;
+    private final double maxOutput;
+    private final double maxIOutput;
+
+    PIDControllerBank(double[] proportionalGains, double[] integralGains, double[] derivativeGains, int[] setpoints,
+            double minimum, double maximum) {
+        final int count = proportionalGains.length;
+
+        if (integralGains.length != count || derivativeGains.length != count || setpoints.length != count) {
+            throw new IllegalArgumentException("Need gains and a setpoint for each of the " + count + " controllers");
+        }
+
+        /* PIDController ignores output limits with maximum < minimum */
+        final boolean limited = maximum >= minimum;
+        minOutput = limited ? minimum : 0.0;
+        maxOutput = limited ? maximum : 0.0;
+        maxIOutput = maxOutput - minOutput;
+
+        this.proportionalGains = new double[count];
+        this.integralGains = new double[count];
+        this.derivativeGains = new double[count];
+        this.setpoints = new double[count];
+        errorSums = new double[count];
+        maxErrors = new double[count];
+        lastActuals = new double[count];
+        started = new boolean[count];
+
+        for (int c = 0; c < count; c++) {
+            this.proportionalGains[c] = reversed(proportionalGains[c]);
+            this.integralGains[c] = reversed(integralGains[c]);
+            this.derivativeGains[c] = reversed(derivativeGains[c]);
+            this.setpoints[c] = setpoints[c];
+
+            if (this.integralGains[c] != 0) {
+                maxErrors[c] = maxIOutput / this.integralGains[c];
+            }
+        }
+    }
+
+    private static double reversed(double gain) {
+        return gain > 0 ? -gain : gain;
+    }
+
+    /**
+     * Controller c's output for the measured value, updating its state like PIDController.getOutput.
+     */
+    double getOutput(int c, double actual) {
+        if (!started[c]) {
+            lastActuals[c] = actual;
+            started[c] = true;
+        }
+
+        final double output = unconstrainedOutput(c, actual);
+        errorSums[c] = nextErrorSum(c, actual, output);
+        lastActuals[c] = actual;
+
+        return minOutput != maxOutput ? constrain(output, minOutput, maxOutput) : output;
+    }
+
+    /**
+     * @return whether feeding controller c the same measured value from now on would leave its state, and so its
+     * output, unchanged
+     */
+    boolean isSteady(int c, double actual) {
+        return started[c] && lastActuals[c] == actual
+                && nextErrorSum(c, actual, unconstrainedOutput(c, actual)) == errorSums[c];
+    }
+
+    /**
+     * @return the output a steady controller c gives for the measured value, without updating its state
+     */
+    double peekOutput(int c, double actual) {
+        final double output = unconstrainedOutput(c, actual);
+
+        return minOutput != maxOutput ? constrain(output, minOutput, maxOutput) : output;
+    }
+
+    private double unconstrainedOutput(int c, double actual) {
+        final double proportionalOutput = proportionalGains[c] * (setpoints[c] - actual);
+        final double derivativeOutput = -derivativeGains[c] * (actual - lastActuals[c]);
+
+        return proportionalOutput + integralOutput(c) + derivativeOutput;
+    }
+
+    private double integralOutput(int c) {
+        final double integralOutput = integralGains[c] * errorSums[c];
+
+        return maxIOutput != 0 ? constrain(integralOutput, -maxIOutput, maxIOutput) : integralOutput;
+    }
+
+    private double nextErrorSum(int c, double actual, double output) {
+        final double error = setpoints[c] - actual;
+
+        if (minOutput != maxOutput && !(minOutput < output && output < maxOutput)) {
+            return error;
+        } else if (maxIOutput != 0) {
+            return constrain(errorSums[c] + error, -maxErrors[c], maxErrors[c]);
+        } else {
+            return errorSums[c] + error;
+        }
+    }
+
+    private static double constrain(double value, double min, double max) {
+        if (value > max) {
+            return max;
+        }
+
+        if (value < min) {
+            return min;
+        }
+
+        return value;
+    }
+}
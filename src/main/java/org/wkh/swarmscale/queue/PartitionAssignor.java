@@ -0,0 +1,135 @@
+package org.wkh.swarmscale.queue;
+
+/**
+ * How a consumer group spreads a topic's partitions over its consumers when the number of consumers changes, after
+ * Kafka's assignors of the same names.
+ *
+ * Every assignor gives each consumer either floor(P/n) or ceil(P/n) of the P partitions. They differ in which
+ * partitions move: the range and round robin assignors are eager, so the whole group stops while it rebalances, while
+ * the sticky one keeps as many partitions where they were as it can and only the partitions that move stop.
+ */
+public enum PartitionAssignor {
+    /**
+     * Consumer c gets a contiguous range of partitions, the first P mod n consumers one more than the rest.
+     */
+    RANGE {
+        @Override
+        void assign(int[] owners, int partitions, int consumers, int[] loads) {
+            final int quotient = partitions / consumers;
+            final int remainder = partitions % consumers;
+            final int largeRanges = remainder * (quotient + 1);
+
+            for (int p = 0; p < partitions; p++) {
+                owners[p] = p < largeRanges ? p / (quotient + 1) : remainder + (p - largeRanges) / quotient;
+            }
+
+            countLoads(owners, partitions, consumers, loads);
+        }
+    },
+
+    /**
+     * Partition p goes to consumer p mod n.
+     */
+    ROUND_ROBIN {
+        @Override
+        void assign(int[] owners, int partitions, int consumers, int[] loads) {
+            for (int p = 0; p < partitions; p++) {
+                owners[p] = p % consumers;
+            }
+
+            countLoads(owners, partitions, consumers, loads);
+        }
+    },
+
+    /**
+     * Partitions stay with their current consumer unless it left or has more than its share, and the rest go to the
+     * consumers with the fewest partitions. Not eager.
+     */
+    STICKY {
+        @Override
+        void assign(int[] owners, int partitions, int consumers, int[] loads) {
+            final int floor = partitions / consumers;
+            final int largeShares = partitions % consumers;
+            int largeSharesUsed = 0;
+
+            for (int c = 0; c < consumers; c++) {
+                loads[c] = 0;
+            }
+
+            /* keep a partition if its consumer is still there and is below its share */
+            for (int p = 0; p < partitions; p++) {
+                final int owner = owners[p];
+
+                if (owner < 0 || owner >= consumers) {
+                    owners[p] = -1;
+                } else if (loads[owner] < floor) {
+                    loads[owner]++;
+                } else if (loads[owner] == floor && largeSharesUsed < largeShares) {
+                    loads[owner]++;
+                    largeSharesUsed++;
+                } else {
+                    owners[p] = -1;
+                }
+            }
+
+            /* fill every consumer up to the floor first, then hand out the large shares that are left */
+            int below = 0;
+            int atFloor = 0;
+
+            for (int p = 0; p < partitions; p++) {
+                if (owners[p] >= 0) {
+                    continue;
+                }
+
+                while (below < consumers && loads[below] >= floor) {
+                    below++;
+                }
+
+                if (below < consumers) {
+                    owners[p] = below;
+                    loads[below]++;
+                    continue;
+                }
+
+                while (loads[atFloor] != floor) {
+                    atFloor++;
+                }
+
+                owners[p] = atFloor;
+                loads[atFloor]++;
+            }
+        }
+
+        @Override
+        boolean isEager() {
+            return false;
+        }
+    };
+
+    /**
+     * Assign partitions 0 to partitions - 1 to consumers 0 to consumers - 1.
+     *
+     * @param owners Consumer of each partition, updated in place. Entries of -1 or beyond the consumers are unassigned.
+     * @param partitions Number of partitions
+     * @param consumers Number of consumers, at least 1
+     * @param loads Set to the number of partitions each consumer ends up with
+     */
+    abstract void assign(int[] owners, int partitions, int consumers, int[] loads);
+
+    /**
+     * @return whether all of a group's partitions stop while it rebalances, rather than only the ones that move
+     */
+    boolean isEager() {
+        return true;
+    }
+
+    private static void countLoads(int[] owners, int partitions, int consumers, int[] loads) {
+        for (int c = 0; c < consumers; c++) {
+            loads[c] = 0;
+        }
+
+        for (int p = 0; p < partitions; p++) {
+            loads[owners[p]]++;
+        }
+    }
+}
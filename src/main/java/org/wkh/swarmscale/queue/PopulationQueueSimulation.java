@@ -0,0 +1,416 @@
+package org.wkh.swarmscale.queue;
+
+import java.util.Arrays;
+import org.wkh.swarmscale.optimization.RandomStreams;
+
+/**
+ * Lockstep simulation of a whole population of PID-controlled queues, one per candidate.
+ *
+ * Equivalent to running a QueueSimulation driven by a PIDControlledQueueSimulation for every candidate, but with the
+ * state of all candidates in struct-of-arrays form: partition lags in one primitive array per candidate, counters and
+ * controller state in one array each, and pending commission times in a flat array instead of a PriorityQueue. A
+ * timestep is a single pass over the candidates with no allocation and no logging.
+ *
+ * Each candidate draws from a random stream that reproduces SplittableRandom for its seed, and draws in the same order
+ * as QueueSimulation, so a candidate's trajectory is identical to the object-based simulation with the same seed.
+ *
+ * Controllers run as a PIDControllerBank with output limits of [minimumCapacity, maximumCapacity].
+ *
+ * Not thread safe. Candidates are independent, so a large population can be split over several instances.
+ */
+public class PopulationQueueSimulation {
+
+    private final int candidates;
+
+    private final int minimumCapacity;
+    private final int maximumCapacity;
+    private final int commissionTimeLower;
+    private final int commissionTimeUpper;
+    private final int baseWorkRateLower;
+    private final int baseWorkRateUpper;
+    private final double parallelizablePortion;
+
+    /**
+     * Queue state per candidate. lags[c] holds partitionCounts[c] partitions, active ones first.
+     */
+    private final long[][] lags;
+    private final int[] partitionCounts;
+    private final int[] activePartitions;
+    private final int[] activeConsumers;
+    private final long[] batchLags;
+    private final long[] processedJobs;
+    private final long[] enqueuedJobs;
+    private final long[] totalLags;
+
+    /**
+     * Timesteps at which commissioned consumers come online, unordered, commissionSlots per candidate
+     */
+    private final int[] commissionTimestamps;
+    private final int commissionSlots;
+    private final int[] queuedConsumers;
+
+    private final RandomStreams rng;
+
+    private final PIDControllerBank controllers;
+
+    /**
+     * Active consumers of each candidate at the start of its last step, as recorded in QueueConfigurationSnapshot
+     */
+    private final int[] stepConsumers;
+
+    /**
+     * Candidates still being simulated, in running[0..runningCount-1]
+     */
+    private final int[] running;
+    private int runningCount;
+
+    private JobDistribution jobDistribution = JobDistribution.POWER_OF_TWO_CHOICES;
+
+    /**
+     * Work space for water-filling, shared by the candidates and grown with their lags
+     */
+    private long[] fillScratch;
+
+    /**
+     * @param initialCapacity Initial partitions and consumers, as in QueueSimulation
+     * @param minimumCapacity Minimum consumers, and the controller's minimum output
+     * @param maximumCapacity Maximum consumers, and the controller's maximum output
+     * @param commissionTimeLower Minimum timesteps for a consumer to come online
+     * @param commissionTimeUpper Maximum timesteps for a consumer to come online
+     * @param baseWorkRateLower Minimum jobs processed per step
+     * @param baseWorkRateUpper Maximum jobs processed per step
+     * @param parallelizablePortion Amdahl's law parallelizable portion
+     * @param proportionalGains Proportional gain of each candidate's controller
+     * @param integralGains Integral gain of each candidate's controller
+     * @param derivativeGains Derivative gain of each candidate's controller
+     * @param setpoints Total lag setpoint of each candidate's controller
+     * @param seeds Seed of each candidate's simulation, as passed to QueueSimulation
+     */
+    public PopulationQueueSimulation(int initialCapacity,
+            int minimumCapacity,
+            int maximumCapacity,
+            int commissionTimeLower,
+            int commissionTimeUpper,
+            int baseWorkRateLower,
+            int baseWorkRateUpper,
+            double parallelizablePortion,
+            double[] proportionalGains,
+            double[] integralGains,
+            double[] derivativeGains,
+            int[] setpoints,
+            long[] seeds) {
+        if (commissionTimeUpper < commissionTimeLower || baseWorkRateLower > baseWorkRateUpper) {
+            throw new IllegalArgumentException("Lower must be < upper");
+        }
+
+        candidates = seeds.length;
+
+        if (proportionalGains.length != candidates) {
+            throw new IllegalArgumentException("Need gains and a setpoint for each of the " + candidates
+                    + " candidates");
+        }
+
+        this.minimumCapacity = minimumCapacity;
+        this.maximumCapacity = maximumCapacity;
+        this.commissionTimeLower = commissionTimeLower;
+        this.commissionTimeUpper = commissionTimeUpper;
+        this.baseWorkRateLower = baseWorkRateLower;
+        this.baseWorkRateUpper = baseWorkRateUpper;
+        this.parallelizablePortion = parallelizablePortion;
+
+        lags = new long[candidates][Math.max(initialCapacity, maximumCapacity)];
+        partitionCounts = new int[candidates];
+        activePartitions = new int[candidates];
+        activeConsumers = new int[candidates];
+        batchLags = new long[candidates];
+        processedJobs = new long[candidates];
+        enqueuedJobs = new long[candidates];
+        totalLags = new long[candidates];
+        fillScratch = new long[Math.max(initialCapacity, maximumCapacity)];
+
+        Arrays.fill(partitionCounts, initialCapacity);
+        Arrays.fill(activePartitions, initialCapacity);
+        Arrays.fill(activeConsumers, initialCapacity);
+
+        /* consumers are only commissioned while active plus queued ones are below maximumCapacity */
+        commissionSlots = Math.max(1, maximumCapacity);
+        commissionTimestamps = new int[candidates * commissionSlots];
+        queuedConsumers = new int[candidates];
+
+        rng = RandomStreams.ofSeeds(seeds);
+
+        controllers = new PIDControllerBank(proportionalGains, integralGains, derivativeGains, setpoints,
+                minimumCapacity, maximumCapacity);
+
+        stepConsumers = new int[candidates];
+
+        running = new int[candidates];
+        runningCount = candidates;
+
+        for (int c = 0; c < candidates; c++) {
+            running[c] = c;
+        }
+    }
+
+    public int getCandidates() {
+        return candidates;
+    }
+
+    public JobDistribution getJobDistribution() {
+        return jobDistribution;
+    }
+
+    /**
+     * @param jobDistribution How batch work is spread over the active partitions, as in QueueSimulation
+     */
+    public void setJobDistribution(JobDistribution jobDistribution) {
+        this.jobDistribution = jobDistribution;
+    }
+
+    /**
+     * Set every running candidate's batch partition to count jobs, like QueueSimulation.enqueueBatchWorkload.
+     */
+    public void enqueueBatchWorkload(long count) {
+        for (int n = 0; n < runningCount; n++) {
+            batchLags[running[n]] = count;
+        }
+    }
+
+    /**
+     * Add count jobs to every running candidate's batch partition, like QueueSimulation.addBatchWorkload.
+     */
+    public void addBatchWorkload(long count) {
+        for (int n = 0; n < runningCount; n++) {
+            batchLags[running[n]] += count;
+        }
+    }
+
+    /**
+     * Advance every running candidate by one timestep, like PIDControlledQueueSimulation.stepSystem with commissioning
+     * allowed only while no consumers are waiting to come online.
+     */
+    public void step(int timestep) {
+        for (int n = 0; n < runningCount; n++) {
+            stepCandidate(running[n], timestep);
+        }
+    }
+
+    /**
+     * Stop simulating a candidate. Its state stays as it was after its last step.
+     */
+    public void stop(int candidate) {
+        for (int n = 0; n < runningCount; n++) {
+            if (running[n] == candidate) {
+                running[n] = running[--runningCount];
+                return;
+            }
+        }
+    }
+
+    public int getRunningCount() {
+        return runningCount;
+    }
+
+    /**
+     * @return active consumers of the candidate at the start of its last step, before the controller acted
+     */
+    public int getStepConsumers(int candidate) {
+        return stepConsumers[candidate];
+    }
+
+    /**
+     * @return total lag, including the batch partition, that the controller saw in the candidate's last step
+     */
+    public long getTotalLag(int candidate) {
+        return totalLags[candidate];
+    }
+
+    public int getActiveConsumers(int candidate) {
+        return activeConsumers[candidate];
+    }
+
+    public int getQueuedConsumers(int candidate) {
+        return queuedConsumers[candidate];
+    }
+
+    public long getBatchLag(int candidate) {
+        return batchLags[candidate];
+    }
+
+    public long getEnqueuedJobs(int candidate) {
+        return enqueuedJobs[candidate];
+    }
+
+    public long getProcessedJobs(int candidate) {
+        return processedJobs[candidate];
+    }
+
+    public long[] getPartitionLags(int candidate) {
+        return Arrays.copyOf(lags[candidate], partitionCounts[candidate]);
+    }
+
+    private void stepCandidate(int c, int timestep) {
+        final boolean canCommission = queuedConsumers[c] == 0;
+
+        /* bring all consumers ready to go online */
+        final int base = c * commissionSlots;
+        int queued = queuedConsumers[c];
+
+        for (int k = 0; k < queued; ) {
+            if (commissionTimestamps[base + k] <= timestep) {
+                commissionTimestamps[base + k] = commissionTimestamps[base + --queued];
+                consumerComesOnline(c);
+            } else {
+                k++;
+            }
+        }
+
+        queuedConsumers[c] = queued;
+
+        stepJobs(c);
+
+        if (timestep > commissionTimeUpper + 1 && queued == 0) {
+            decommissionIdleExcessConsumers(c);
+        }
+
+        long totalLag = batchLags[c];
+        final long[] partitionLags = lags[c];
+
+        for (int j = 0; j < partitionCounts[c]; j++) {
+            totalLag += partitionLags[j];
+        }
+
+        totalLags[c] = totalLag;
+
+        final int targetConsumers = (int) Math.round(controllers.getOutput(c, totalLag));
+        final int actualConsumers = activeConsumers[c];
+
+        if (actualConsumers < targetConsumers) {
+            if (canCommission) {
+                for (int i = 1; i <= targetConsumers - actualConsumers; i++) {
+                    if (activeConsumers[c] + queuedConsumers[c] < maximumCapacity) {
+                        commissionConsumer(c, timestep);
+                    }
+                }
+            }
+        } else if (targetConsumers < actualConsumers) {
+            for (int i = 1; i <= actualConsumers - targetConsumers; i++) {
+                if (activeConsumers[c] > minimumCapacity && activePartitions[c] > minimumCapacity) {
+                    activePartitions[c]--;
+                }
+            }
+        }
+
+        if (batchLags[c] > 0 && queuedConsumers[c] == 0) {
+            distributeBatchWork(c);
+        }
+
+        stepConsumers[c] = actualConsumers;
+    }
+
+    private void consumerComesOnline(int c) {
+        if (activeConsumers[c] >= maximumCapacity) {
+            return;
+        }
+
+        activePartitions[c]++;
+        activeConsumers[c]++;
+
+        if (activePartitions[c] > partitionCounts[c]) {
+            if (partitionCounts[c] == lags[c].length) {
+                lags[c] = Arrays.copyOf(lags[c], 2 * lags[c].length);
+            }
+
+            lags[c][partitionCounts[c]++] = 0;
+        }
+    }
+
+    private void stepJobs(int c) {
+        /* same Amdahl's law model and evaluation order as QueueSimulation.stepJobs */
+        final int effectiveWorkRate = rng.nextInt(c, baseWorkRateUpper - baseWorkRateLower + 1) + baseWorkRateLower;
+        final double speedupFactor = 1.0 / ((1 - parallelizablePortion)
+                + parallelizablePortion / (activeConsumers[c] + 1));
+        final long meanWorkRate = (int) Math.round(effectiveWorkRate * speedupFactor / activeConsumers[c]);
+
+        final long[] partitionLags = lags[c];
+        long processed = 0;
+
+        for (int j = 0; j < partitionCounts[c]; j++) {
+            final long work = Math.min(partitionLags[j], meanWorkRate);
+            partitionLags[j] -= work;
+            processed += work;
+        }
+
+        processedJobs[c] += processed;
+    }
+
+    /**
+     * Same scan as QueueSimulation: a removed partition is replaced by the last one and its index is checked again.
+     */
+    private void decommissionIdleExcessConsumers(int c) {
+        final long[] partitionLags = lags[c];
+        int i = activePartitions[c];
+
+        while (i < partitionCounts[c] && partitionCounts[c] > minimumCapacity
+                && activeConsumers[c] > minimumCapacity) {
+            if (partitionLags[i] == 0) {
+                partitionLags[i] = partitionLags[--partitionCounts[c]];
+                activeConsumers[c]--;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private void commissionConsumer(int c, int timestep) {
+        if (activeConsumers[c] >= maximumCapacity) {
+            return;
+        }
+
+        final int commissionTime = rng.nextInt(c, commissionTimeUpper - commissionTimeLower + 1)
+                + commissionTimeLower;
+        commissionTimestamps[c * commissionSlots + queuedConsumers[c]++] = timestep + commissionTime;
+    }
+
+    /**
+     * Move the batch partition's jobs to the active partitions.
+     */
+    private void distributeBatchWork(int c) {
+        final int active = activePartitions[c];
+
+        if (active == 0) {
+            throw new IllegalStateException("Candidate " + c + " has no active partitions to distribute jobs to");
+        }
+
+        final long[] partitionLags = lags[c];
+        final long count = batchLags[c];
+
+        if (jobDistribution == JobDistribution.WATER_FILLING) {
+            if (fillScratch.length < active) {
+                fillScratch = new long[partitionLags.length];
+            }
+
+            JobDistribution.waterFill(partitionLags, active, count, fillScratch);
+        } else {
+            distributeByPowerOfTwoChoices(c, active, count);
+        }
+
+        enqueuedJobs[c] += count;
+        batchLags[c] = 0;
+    }
+
+    private void distributeByPowerOfTwoChoices(int c, int active, long count) {
+        final long[] partitionLags = lags[c];
+
+        for (long n = 0; n < count; n++) {
+            final int index1 = rng.nextInt(c, active);
+            final int index2 = rng.nextInt(c, active);
+
+            if (partitionLags[index1] < partitionLags[index2]) {
+                partitionLags[index1]++;
+            } else {
+                partitionLags[index2]++;
+            }
+        }
+    }
+}
@@ -1,13 +1,10 @@
 package org.wkh.swarmscale.queue;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.LongSummaryStatistics;
 import java.util.PriorityQueue;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
 import java.util.logging.Logger;
 
 /**
@@ -29,6 +26,9 @@ import java.util.logging.Logger;
  * uniform distribution. This, too, may be better served by non-uniform 
  * distributions. We may need general distribution + sampling stuff but I'm
  * later but for now I'm just going to go with uniform to begin with.
+ * 
+ * Partition lags are kept in a primitive array, active partitions first, along with their running sum, minimum and
+ * maximum, so that stepping the system allocates nothing once the array has grown to its largest size.
  */
 public class QueueSimulation {
     public final static Logger LOGGER = Logger.getLogger(QueueSimulation.class.getName());
@@ -36,9 +36,21 @@ public class QueueSimulation {
     /* eh I should use DI and interfaces to make this same class work on a 
     live cluster but IDK if this will even work
     */
-    private final List<SimulatedPartition> partitions;
-    private final SimulatedPartition batchPartition;
-    private final Random rng;
+    /**
+     * Partition lags, active partitions first. Only the first partitionCount entries are in use.
+     */
+    private long[] lags;
+    private int partitionCount;
+    private long batchLag;
+    
+    /* summary of the partition lags, updated as jobs move. the extremes are recomputed lazily when a change to the
+    partition holding one of them leaves it unknown */
+    private long lagSum;
+    private long minimumLag;
+    private long maximumLag;
+    private boolean lagExtremesStale;
+    
+    private final SplittableRandom rng;
     private final int commissionTimeLower;
     private final int commissionTimeUpper;
     private final int minimumCapacity;
@@ -51,6 +63,23 @@ public class QueueSimulation {
     private int activeConsumers;
     private long processedJobs;
     private long enqueuedJobs;
+    private JobDistribution jobDistribution = JobDistribution.POWER_OF_TWO_CHOICES;
+    
+    /**
+     * Last timestamp stepped. Jobs that arrive before the next step are stamped with that step's timestamp, one more
+     * than this, and their latency is the timestamp they're processed in minus that.
+     */
+    private int timestamp = 0;
+    private int batchTimestamp = 0;
+    
+    /* latency tracking, null unless enabled */
+    private CohortQueues cohorts;
+    private LatencyHistogram stepLatencies;
+    private LatencyHistogram latencies;
+    private long[] lagsBeforeFill;
+    
+    /* work space for water-filling, grown with lags */
+    private long[] fillScratch;
     
     public QueueSimulation(int initialCapacity,
             int minimumCapacity,
@@ -60,12 +89,25 @@ public class QueueSimulation {
             int baseWorkRateLower,
             int baseWorkRateUpper,
             double parallelizablePortion) {
-        batchPartition = new SimulatedPartition();
-        partitions = new ArrayList<>(initialCapacity);
-        
-        for(int i = 1; i <= initialCapacity; i++) {
-            partitions.add(new SimulatedPartition());
-        }
+        this(initialCapacity, minimumCapacity, maximumCapacity, commissionTimeLower, commissionTimeUpper,
+                baseWorkRateLower, baseWorkRateUpper, parallelizablePortion, new SplittableRandom().nextLong());
+    }
+    
+    /**
+     * Same as the other constructor, but with a fixed seed so that the simulation is reproducible.
+     */
+    public QueueSimulation(int initialCapacity,
+            int minimumCapacity,
+            int maximumCapacity,
+            int commissionTimeLower,
+            int commissionTimeUpper,
+            int baseWorkRateLower,
+            int baseWorkRateUpper,
+            double parallelizablePortion,
+            long seed) {
+        lags = new long[Math.max(1, Math.max(initialCapacity, maximumCapacity))];
+        partitionCount = initialCapacity;
+        updateLagExtremes();
         
         activePartitions = initialCapacity;
         activeConsumers = initialCapacity;
@@ -82,13 +124,61 @@ public class QueueSimulation {
         this.baseWorkRateUpper = baseWorkRateUpper;
         this.parallelizablePortion = parallelizablePortion;
 
-        rng = new Random();
+        rng = new SplittableRandom(seed);
         
         processedJobs = 0;
         enqueuedJobs = 0;
         commissionTimestamps = new PriorityQueue<>();
     }
     
+    public JobDistribution getJobDistribution() {
+        return jobDistribution;
+    }
+    
+    /**
+     * @param jobDistribution How enqueueJobs and distributeBatchWorkToPartitions spread jobs. enqueueJob always uses
+     * power of two choices.
+     */
+    public void setJobDistribution(JobDistribution jobDistribution) {
+        this.jobDistribution = jobDistribution;
+    }
+    
+    /**
+     * Track when jobs arrive, as FIFO cohorts per partition, so that getStepLatencies and getLatencies can report how
+     * long processed jobs waited. Must be enabled before any jobs are enqueued.
+     * 
+     * @throws IllegalStateException if jobs were already enqueued
+     */
+    public void enableLatencyTracking() {
+        if (enqueuedJobs > 0 || batchLag > 0 || lagSum > 0) {
+            throw new IllegalStateException("Latency tracking must be enabled before enqueueing jobs");
+        }
+        
+        cohorts = new CohortQueues(lags.length);
+        stepLatencies = new LatencyHistogram();
+        latencies = new LatencyHistogram();
+        lagsBeforeFill = new long[lags.length];
+    }
+    
+    public boolean isLatencyTracking() {
+        return cohorts != null;
+    }
+    
+    /**
+     * @return latencies of the jobs processed in the last step, reused from step to step. Null unless latency tracking
+     * is enabled.
+     */
+    public LatencyHistogram getStepLatencies() {
+        return stepLatencies;
+    }
+    
+    /**
+     * @return latencies of all jobs processed so far. Null unless latency tracking is enabled.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+    
     public PriorityQueue<Integer> getCommissionTimestamps() {
         return commissionTimestamps;
     }
@@ -122,17 +212,74 @@ public class QueueSimulation {
     }
     
     public long getBatchLag() {
-        return batchPartition.getLag();
+        return batchLag;
     }
     
+    /**
+     * @return lag of the batch partition plus all the other partitions
+     */
     public long getTotalLag() {
-        return getBatchLag() + getLagStatistics().getSum();
+        return batchLag + lagSum;
+    }
+    
+    /**
+     * @return smallest partition lag, or Long.MAX_VALUE with no partitions, like LongSummaryStatistics
+     */
+    public long getMinimumLag() {
+        if (lagExtremesStale) {
+            updateLagExtremes();
+        }
+        
+        return minimumLag;
+    }
+    
+    /**
+     * @return largest partition lag, or Long.MIN_VALUE with no partitions, like LongSummaryStatistics
+     */
+    public long getMaximumLag() {
+        if (lagExtremesStale) {
+            updateLagExtremes();
+        }
+        
+        return maximumLag;
+    }
+    
+    private void updateLagExtremes() {
+        long minimum = Long.MAX_VALUE;
+        long maximum = Long.MIN_VALUE;
+        
+        for(int i = 0; i < partitionCount; i++) {
+            minimum = Math.min(minimum, lags[i]);
+            maximum = Math.max(maximum, lags[i]);
+        }
+        
+        minimumLag = minimum;
+        maximumLag = maximum;
+        lagExtremesStale = false;
+    }
+    
+    private void queueJob(int index, int arrival) {
+        if (lags[index] == minimumLag) {
+            lagExtremesStale = true;
+        }
+        
+        lags[index]++;
+        lagSum++;
+        maximumLag = Math.max(maximumLag, lags[index]);
+        
+        if (cohorts != null) {
+            cohorts.add(index, arrival, 1);
+        }
     }
     
     /**
      * Enqueue in a load-balanced way using power-of-two-choices algorithm.
      */
     public void enqueueJob() {
+        enqueueJob(timestamp + 1);
+    }
+    
+    private void enqueueJob(int arrival) {
         if (activePartitions == 0) {
             System.out.println("welp");
         }
@@ -140,28 +287,44 @@ public class QueueSimulation {
         int index1 = rng.nextInt(activePartitions);
         int index2 = rng.nextInt(activePartitions);
         
-        SimulatedPartition partition1 = partitions.get(index1);
-        SimulatedPartition partition2 = partitions.get(index2);
-        
-        if (partition1.getLag() < partition2.getLag()) {
-            partition1.queueJob();
+        if (lags[index1] < lags[index2]) {
+            queueJob(index1, arrival);
         } else {
-            partition2.queueJob();
+            queueJob(index2, arrival);
         }
         
         enqueuedJobs++;
     }
     
     public void enqueueBatchWorkload(long count) {
-        batchPartition.setToPoint(count);
+        batchLag = count;
+        batchTimestamp = timestamp + 1;
+    }
+    
+    /**
+     * Add count jobs to whatever is still waiting in the batch partition instead of replacing it, for workloads that
+     * arrive every timestep. A combined batch keeps the timestamp of its oldest jobs.
+     */
+    public void addBatchWorkload(long count) {
+        if (batchLag == 0) {
+            batchTimestamp = timestamp + 1;
+        }
+        
+        batchLag += count;
     }
     
     public void distributeBatchWorkToPartitions(long count) {
-        long effectiveAmount = Math.min(count, batchPartition.getLag());
+        long effectiveAmount = Math.min(count, batchLag);
+        
+        if (jobDistribution == JobDistribution.WATER_FILLING) {
+            waterFill(effectiveAmount, batchTimestamp);
+            batchLag -= effectiveAmount;
+            return;
+        }
         
         for(int i = 1; i <= effectiveAmount; i++) {
-            enqueueJob();
-            batchPartition.setToPoint(batchPartition.getLag() - 1);
+            enqueueJob(batchTimestamp);
+            batchLag--;
         }
     }
     
@@ -170,10 +333,39 @@ public class QueueSimulation {
      * @param count Number of jobs to create
      */
     public void enqueueJobs(long count) {
-        for(long i = 1; i <= count; i++) {
-            enqueueJob();
+        if (jobDistribution == JobDistribution.WATER_FILLING) {
+            waterFill(count, timestamp + 1);
+        } else {
+            for(long i = 1; i <= count; i++) {
+                enqueueJob();
+            }
+        }
+        
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "Enqueued {0} jobs", count);
         }
-        LOGGER.log(Level.INFO, "Enqueued {0} jobs", count);
+    }
+    
+    private void waterFill(long count, int arrival) {
+        if (cohorts != null) {
+            System.arraycopy(lags, 0, lagsBeforeFill, 0, activePartitions);
+        }
+        
+        if (fillScratch == null || fillScratch.length < activePartitions) {
+            fillScratch = new long[lags.length];
+        }
+        
+        JobDistribution.waterFill(lags, activePartitions, count, fillScratch);
+        
+        if (cohorts != null) {
+            for(int i = 0; i < activePartitions; i++) {
+                cohorts.add(i, arrival, lags[i] - lagsBeforeFill[i]);
+            }
+        }
+        
+        lagSum += count;
+        updateLagExtremes();
+        enqueuedJobs += count;
     }
     
     public double getSpeedupFactor() {
@@ -184,27 +376,60 @@ public class QueueSimulation {
         /* try to model Amdahl's Law effects and random variation in a simple, concise way */
         int effectiveWorkRate = rng.nextInt(baseWorkRateUpper - baseWorkRateLower + 1) + baseWorkRateLower;
         final int meanWorkRate = (int) Math.round(effectiveWorkRate * getSpeedupFactor() / activeConsumers);
+        final boolean logging = LOGGER.isLoggable(Level.FINER);
+        
+        long minimum = Long.MAX_VALUE;
+        long maximum = Long.MIN_VALUE;
+        
+        if (cohorts != null) {
+            stepLatencies.clear();
+        }
         
-        for(int i = 0; i < partitions.size(); i++) {
-            long partitionWork = partitions.get(i).processJobs(meanWorkRate);
+        for(int i = 0; i < partitionCount; i++) {
+            final long partitionWork = Math.min(lags[i], meanWorkRate);
+            lags[i] -= partitionWork;
+            
+            if (cohorts != null) {
+                cohorts.consume(i, partitionWork, timestamp, stepLatencies, latencies);
+            }
+            
             processedJobs += partitionWork;
-            LOGGER.log(Level.FINER, "Consumer {0} processed {1} jobs. Now processedJobs = {2}", 
-                    new Object[]{i, partitionWork, processedJobs});
-            LOGGER.log(Level.FINER, "Lags: {0}", Arrays.toString(getPartitionLags()));
+            lagSum -= partitionWork;
+            minimum = Math.min(minimum, lags[i]);
+            maximum = Math.max(maximum, lags[i]);
+            
+            if (logging) {
+                LOGGER.log(Level.FINER, "Consumer {0} processed {1} jobs. Now processedJobs = {2}", 
+                        new Object[]{i, partitionWork, processedJobs});
+                LOGGER.log(Level.FINER, "Lags: {0}", Arrays.toString(getPartitionLags()));
+            }
         }
+        
+        minimumLag = minimum;
+        maximumLag = maximum;
+        lagExtremesStale = false;
     }
     
     public void stepSystem(int timestamp) {
-        LOGGER.log(Level.INFO, "Timestamp {0}:", timestamp);
-        LOGGER.log(Level.INFO, "At beginning of timestamp, lags: {0}", Arrays.toString(getPartitionLags()));
-        LOGGER.log(Level.INFO, "Batch lag: {0}", getBatchLag());
+        this.timestamp = timestamp;
+        
+        /* the log arguments box and copy, so skip building them unless they're going to be written */
+        final boolean logging = LOGGER.isLoggable(Level.INFO);
+        
+        if (logging) {
+            LOGGER.log(Level.INFO, "Timestamp {0}:", timestamp);
+            LOGGER.log(Level.INFO, "At beginning of timestamp, lags: {0}", Arrays.toString(getPartitionLags()));
+            LOGGER.log(Level.INFO, "Batch lag: {0}", getBatchLag());
+        }
         
         Integer nextEventTimestamp = commissionTimestamps.peek();
         
         /* bring all consumers ready to go online */
         do {
             if (nextEventTimestamp != null && nextEventTimestamp <= timestamp) {
-                LOGGER.log(Level.INFO, "nextEventTimestamp = {0}, going to spin up a consumer", nextEventTimestamp);
+                if (logging) {
+                    LOGGER.log(Level.INFO, "nextEventTimestamp = {0}, going to spin up a consumer", nextEventTimestamp);
+                }
                 commissionTimestamps.poll();
                 consumerComesOnline();
                 nextEventTimestamp = commissionTimestamps.peek();
@@ -217,38 +442,50 @@ public class QueueSimulation {
             decommissionIdleExcessConsumers();
         }
         
-        
-        LongSummaryStatistics stats = getLagStatistics();
-            
-        long[] lags = getPartitionLags();
-
-        LOGGER.log(Level.INFO, "At end of timestamp, lags: {0}", Arrays.toString(lags));
-        LOGGER.log(Level.INFO, "Lag statistics: {0}", stats);
-        LOGGER.log(Level.INFO, "Batch lag: {0}", getBatchLag());
-        LOGGER.log(Level.INFO, "Total enqueued jobs: {0}", enqueuedJobs);
-        LOGGER.log(Level.INFO, "Processed jobs: {0}", processedJobs);
-        LOGGER.log(Level.INFO, "Active partitions: {0}", activePartitions);
-        LOGGER.log(Level.INFO, "Active consumers: {0}", activeConsumers);
-        LOGGER.log(Level.INFO, "--------------------------------------------------------------------------------");
+        if (logging) {
+            LOGGER.log(Level.INFO, "At end of timestamp, lags: {0}", Arrays.toString(getPartitionLags()));
+            LOGGER.log(Level.INFO, "Lag statistics: {0}", getLagStatistics());
+            LOGGER.log(Level.INFO, "Batch lag: {0}", getBatchLag());
+            LOGGER.log(Level.INFO, "Total enqueued jobs: {0}", enqueuedJobs);
+            LOGGER.log(Level.INFO, "Processed jobs: {0}", processedJobs);
+            LOGGER.log(Level.INFO, "Active partitions: {0}", activePartitions);
+            LOGGER.log(Level.INFO, "Active consumers: {0}", activeConsumers);
+            LOGGER.log(Level.INFO, "--------------------------------------------------------------------------------");
+        }
     }
 
+    /**
+     * Removing a partition moves the last one into its index, so the same index is checked again and every idle
+     * inactive partition is considered once.
+     */
     private void decommissionIdleExcessConsumers() {
-        for(int i = activePartitions; i < partitions.size() && partitions.size() > minimumCapacity; i++) {
-            final SimulatedPartition partition = partitions.get(i);
-            if (partition.getLag() == 0) {
-                LOGGER.log(Level.INFO, "Consumer at index {0} has 0 queued jobs, spinning it down", i);
+        int i = activePartitions;
+        
+        while (i < partitionCount && partitionCount > minimumCapacity && activeConsumers > minimumCapacity) {
+            if (lags[i] == 0) {
+                if (LOGGER.isLoggable(Level.INFO)) {
+                    LOGGER.log(Level.INFO, "Consumer at index {0} has 0 queued jobs, spinning it down", i);
+                }
+                
                 decomissionConsumer(i);
+            } else {
+                i++;
             }
-            
         }
     }
     
     public long[] getPartitionLags() {
-        return partitions.stream().mapToLong(SimulatedPartition::getLag).toArray();
+        return Arrays.copyOf(lags, partitionCount);
     }
     
     public LongSummaryStatistics getLagStatistics() {
-        return partitions.stream().collect(Collectors.summarizingLong(SimulatedPartition::getLag));
+        final LongSummaryStatistics statistics = new LongSummaryStatistics();
+        
+        for(int i = 0; i < partitionCount; i++) {
+            statistics.accept(lags[i]);
+        }
+        
+        return statistics;
     }
     
     private void consumerComesOnline() {
@@ -260,12 +497,33 @@ public class QueueSimulation {
         activePartitions++;
         activeConsumers++;
         
-        LOGGER.log(Level.INFO, "New consumer online. Active partitions = {0}, active consumers = {1}", 
-                new Object[]{activePartitions, activeConsumers});
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "New consumer online. Active partitions = {0}, active consumers = {1}", 
+                    new Object[]{activePartitions, activeConsumers});
+        }
 
-        if (activePartitions > partitions.size()) {
-            partitions.add(new SimulatedPartition());
-            LOGGER.log(Level.INFO, "Added a new partition to the array. partitions.size() = {0}", partitions.size());
+        if (activePartitions > partitionCount) {
+            if (partitionCount == lags.length) {
+                lags = Arrays.copyOf(lags, 2 * lags.length);
+            }
+            
+            lags[partitionCount++] = 0;
+            
+            if (cohorts != null) {
+                cohorts.ensurePartitions(lags.length);
+                
+                if (lagsBeforeFill.length < lags.length) {
+                    lagsBeforeFill = new long[lags.length];
+                }
+            }
+            
+            /* lags are never negative, so a new empty partition is a minimum whatever the others hold */
+            minimumLag = 0;
+            maximumLag = Math.max(maximumLag, 0);
+            
+            if (LOGGER.isLoggable(Level.INFO)) {
+                LOGGER.log(Level.INFO, "Added a new partition to the array. partitionCount = {0}", partitionCount);
+            }
         }
     }
     
@@ -278,7 +536,11 @@ public class QueueSimulation {
         int commissionTime = rng.nextInt(commissionTimeUpper - commissionTimeLower + 1) 
                 + commissionTimeLower;
         final int popTime = timestamp + commissionTime;
-        LOGGER.log(Level.INFO, "Commissioning a consumer that will come online at timestamp {0}", popTime);
+        
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "Commissioning a consumer that will come online at timestamp {0}", popTime);
+        }
+        
         commissionTimestamps.add(popTime);
     }
     
@@ -294,7 +556,9 @@ public class QueueSimulation {
             System.out.println("welp");
         }
         
-        LOGGER.log(Level.INFO, "Dcommissioned a partition. Now activePartitions = {0}", activePartitions);
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "Dcommissioned a partition. Now activePartitions = {0}", activePartitions);
+        }
     }
     
     /**
@@ -309,9 +573,22 @@ public class QueueSimulation {
             return;
         }
         
-        partitions.remove(index);
+        final long lag = lags[index];
+        lags[index] = lags[--partitionCount];
+        lagSum -= lag;
         activeConsumers--;
-        LOGGER.log(Level.INFO, "Dcommissioned a consumer. Now activeConsumers = {0}", activeConsumers);
+        
+        if (cohorts != null) {
+            cohorts.move(partitionCount, index);
+        }
+        
+        if (lag == minimumLag || lag == maximumLag) {
+            lagExtremesStale = true;
+        }
+        
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "Dcommissioned a consumer. Now activeConsumers = {0}", activeConsumers);
+        }
     }
     
     public static void main(String[] args) {
@@ -347,6 +624,9 @@ public class QueueSimulation {
             parallelizablePortion
         );
         
+        /* spread each step's jobs in bulk rather than one at a time */
+        queue.setJobDistribution(JobDistribution.WATER_FILLING);
+        
         /* queue jobs every time timestamp, and spin some consumers up/down at a couple arbitrarily chosen points */
         for(int i = 1; i <= timesteps; i++) {
             queue.enqueueJobs(perStepQueueCount);
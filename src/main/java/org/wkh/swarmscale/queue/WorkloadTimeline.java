@@ -0,0 +1,57 @@
+package org.wkh.swarmscale.queue;
+
+import java.util.Map;
+
+/**
+ * Number of jobs arriving at each timestep, starting from timestep 1.
+ *
+ * A primitive lookup rather than a Map so that simulations don't box an entry per timestep. Implementations must be
+ * safe to read from several threads at once, since parallel evaluations share one timeline.
+ */
+public interface WorkloadTimeline {
+
+    /**
+     * @return last timestep with a workload entry
+     */
+    int getTimesteps();
+
+    /**
+     * @return jobs arriving at the timestep, or 0 if none do or it is outside 1..getTimesteps()
+     */
+    int getWorkload(int timestep);
+
+    /**
+     * @param workloads Jobs arriving at timestep i + 1 in workloads[i]. Not copied.
+     */
+    static WorkloadTimeline of(int[] workloads) {
+        return new WorkloadTimeline() {
+            @Override
+            public int getTimesteps() {
+                return workloads.length;
+            }
+
+            @Override
+            public int getWorkload(int timestep) {
+                return timestep >= 1 && timestep <= workloads.length ? workloads[timestep - 1] : 0;
+            }
+        };
+    }
+
+    /**
+     * @param workloads Jobs arriving by timestep. Entries outside 1..timesteps are dropped.
+     * @param timesteps Length of the timeline
+     */
+    static WorkloadTimeline of(Map<Integer, Integer> workloads, int timesteps) {
+        final int[] timeline = new int[Math.max(0, timesteps)];
+
+        for (Map.Entry<Integer, Integer> workload : workloads.entrySet()) {
+            final int timestep = workload.getKey();
+
+            if (timestep >= 1 && timestep <= timeline.length) {
+                timeline[timestep - 1] = workload.getValue();
+            }
+        }
+
+        return of(timeline);
+    }
+}
@@ -0,0 +1,254 @@
+package org.wkh.swarmscale.queue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Workload timeline replayed from a trace file, such as per-minute ingest rates exported from a production cluster.
+ *
+ * Layout (big-endian): int magic, short version, short reserved, then one int of arriving jobs per timestep from
+ * timestep 1 to the end of the file. Traces can be converted from CSV with convertCsv.
+ *
+ * The file is memory-mapped read-only rather than loaded, so its pages live in the OS page cache and are shared by
+ * every thread and process replaying it. One instance can back any number of parallel evaluations without costing heap
+ * per particle, and reads use absolute offsets so they're thread safe.
+ */
+public final class WorkloadTrace implements WorkloadTimeline {
+
+    static final int MAGIC = 0x53575452; /* "SWTR" */
+    static final short VERSION = 1;
+    static final int HEADER_BYTES = 8;
+
+    /* a single mapping is limited to 2GB, so map in segments of 2^28 timesteps */
+    private static final int SEGMENT_SHIFT = 28;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    private final Path path;
+    private final int timesteps;
+    private final MappedByteBuffer[] segments;
+
+    private WorkloadTrace(Path path, int timesteps, MappedByteBuffer[] segments) {
+        this.path = path;
+        this.timesteps = timesteps;
+        this.segments = segments;
+    }
+
+    /**
+     * Map a trace file. The mapping stays valid until the instance is garbage collected; the file must not be
+     * truncated while it is in use.
+     */
+    public static WorkloadTrace open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    break;
+                }
+            }
+
+            if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+                throw new IOException(path + " is not a workload trace");
+            }
+
+            final short version = header.getShort(4);
+
+            if (version != VERSION) {
+                throw new IOException("Unsupported workload trace version " + version + ", expected " + VERSION);
+            }
+
+            if ((size - HEADER_BYTES) % Integer.BYTES != 0) {
+                throw new IOException(path + " is truncated");
+            }
+
+            final long entries = (size - HEADER_BYTES) / Integer.BYTES;
+
+            if (entries > Integer.MAX_VALUE) {
+                throw new IOException(path + " has more than " + Integer.MAX_VALUE + " timesteps");
+            }
+
+            final int segmentLength = 1 << SEGMENT_SHIFT;
+            final int segmentCount = (int) ((entries + segmentLength - 1) / segmentLength);
+            final MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+
+            for (int s = 0; s < segments.length; s++) {
+                final long first = (long) s * segmentLength;
+                final long length = Math.min(segmentLength, entries - first);
+
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * Integer.BYTES,
+                        length * Integer.BYTES);
+            }
+
+            return new WorkloadTrace(path, (int) entries, segments);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public int getTimesteps() {
+        return timesteps;
+    }
+
+    @Override
+    public int getWorkload(int timestep) {
+        if (timestep < 1 || timestep > timesteps) {
+            return 0;
+        }
+
+        final int index = timestep - 1;
+
+        return segments[index >>> SEGMENT_SHIFT].getInt((index & SEGMENT_MASK) * Integer.BYTES);
+    }
+
+    /**
+     * Write a timeline as a trace file, to a temporary sibling that is then renamed over the target.
+     */
+    public static void write(Path path, WorkloadTimeline timeline) throws IOException {
+        try (TraceWriter writer = new TraceWriter(path)) {
+            for (int timestep = 1; timestep <= timeline.getTimesteps(); timestep++) {
+                writer.put(timeline.getWorkload(timestep));
+            }
+
+            writer.commit();
+        }
+    }
+
+    /**
+     * Convert a CSV of "timestep,jobs" lines to a trace file. Blank lines, lines starting with # and a header line are
+     * skipped. Timesteps must start from 1 or later and increase; timesteps without a line get no jobs.
+     *
+     * @return number of timesteps in the trace
+     * @throws IOException if a line can't be parsed
+     */
+    public static int convertCsv(Path csv, Path trace) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8);
+                TraceWriter writer = new TraceWriter(trace)) {
+            int timesteps = 0;
+            int lineNumber = 0;
+            boolean headerAllowed = true;
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                final int comma = line.indexOf(',');
+                final int timestep;
+                final int jobs;
+
+                try {
+                    if (comma < 0) {
+                        throw new NumberFormatException("expected timestep,jobs");
+                    }
+
+                    timestep = Integer.parseInt(line.substring(0, comma).trim());
+                    jobs = Integer.parseInt(line.substring(comma + 1).trim());
+                } catch (NumberFormatException e) {
+                    if (headerAllowed) {
+                        headerAllowed = false;
+                        continue;
+                    }
+
+                    throw new IOException(csv + " line " + lineNumber + ": " + e.getMessage(), e);
+                }
+
+                headerAllowed = false;
+
+                if (timestep <= timesteps) {
+                    throw new IOException(csv + " line " + lineNumber + ": timestep " + timestep
+                            + " is not after " + timesteps);
+                }
+
+                if (jobs < 0) {
+                    throw new IOException(csv + " line " + lineNumber + ": negative job count " + jobs);
+                }
+
+                while (timesteps < timestep - 1) {
+                    writer.put(0);
+                    timesteps++;
+                }
+
+                writer.put(jobs);
+                timesteps++;
+            }
+
+            writer.commit();
+
+            return timesteps;
+        }
+    }
+
+    /**
+     * Buffered writer of trace files that only replaces the target on commit.
+     */
+    private static final class TraceWriter implements AutoCloseable {
+
+        private final Path path;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private boolean committed = false;
+
+        TraceWriter(Path path) throws IOException {
+            this.path = path;
+            this.temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putShort((short) 0);
+        }
+
+        void put(int jobs) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+
+            buffer.putInt(jobs);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            buffer.clear();
+        }
+
+        void commit() throws IOException {
+            flush();
+            channel.force(true);
+            channel.close();
+
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+}
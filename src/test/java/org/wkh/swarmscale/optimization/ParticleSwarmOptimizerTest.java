@@ -0,0 +1,135 @@
+package org.wkh.swarmscale.optimization;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ParticleSwarmOptimizerTest {
+
+    private static final double[][] BOUNDS = {{-5.12, 5.12}, {-5.12, 5.12}, {-5.12, 5.12}, {-5.12, 5.12}};
+
+    private static final ObjectiveFunction RASTRIGIN = (x, iteration) -> {
+        double sum = 0.0;
+        for (double xi : x) {
+            sum += xi * xi - 10 * Math.cos(Math.PI * 2 * xi);
+        }
+
+        return 10 * x.length + sum;
+    };
+
+    private static ParticleSwarmOptimizer createOptimizer(long seed) {
+        final ParticleSwarmOptimizer optimizer = new ParticleSwarmOptimizer(30, BOUNDS.length, BOUNDS, RASTRIGIN);
+        optimizer.setEvaluationExecutor(EvaluationExecutor.callerRuns());
+        optimizer.setSeed(seed);
+        return optimizer;
+    }
+
+    @org.junit.Test
+    public void testBulkUpdateMatchesParticleByParticle() {
+        final ParticleSwarmOptimizer single = createOptimizer(7);
+        final ParticleSwarmOptimizer bulk = createOptimizer(7);
+        bulk.setBulkUpdate(true);
+
+        single.initializePopulation();
+        bulk.initializePopulation();
+
+        single.runForIterations(40, EpochHistory.summaryOnly());
+        bulk.runForIterations(40, EpochHistory.summaryOnly());
+
+        final SwarmCheckpoint expected = single.checkpoint();
+        final SwarmCheckpoint actual = bulk.checkpoint();
+
+        assertArrayEquals(expected.x, actual.x, 0.0);
+        assertArrayEquals(expected.v, actual.v, 0.0);
+        assertArrayEquals(expected.pbest, actual.pbest, 0.0);
+        assertArrayEquals(expected.pbestFitness, actual.pbestFitness, 0.0);
+        assertArrayEquals(expected.gbest, actual.gbest, 0.0);
+        assertEquals(expected.gbestFitness, actual.gbestFitness, 0.0);
+    }
+
+    @org.junit.Test
+    public void testIncrementalLocalBestsMatchRecomputed() {
+        final int populationSize = 30;
+        final NeighborhoodTopology[] topologies = {
+            NeighborhoodTopology.ring(populationSize, 1),
+            NeighborhoodTopology.vonNeumann(populationSize),
+            NeighborhoodTopology.randomInformants(populationSize, 3, 11)
+        };
+
+        for (NeighborhoodTopology topology : topologies) {
+            final ParticleSwarmOptimizer optimizer = createOptimizer(5);
+            final ParticleSwarmOptimizer other = createOptimizer(6);
+            optimizer.setTopology(topology);
+
+            optimizer.initializePopulation();
+            other.initializePopulation();
+
+            optimizer.runForIterations(25, EpochHistory.summaryOnly());
+            other.runForIterations(40, EpochHistory.summaryOnly());
+            assertLocalBestsMatch(topology, optimizer);
+
+            final double[] migrantFitness = new double[8];
+            final double[][] migrants = other.getBestParticles(migrantFitness.length, migrantFitness);
+
+            optimizer.acceptMigrants(migrants, migrantFitness);
+            assertLocalBestsMatch(topology, optimizer);
+        }
+    }
+
+    private static void assertLocalBestsMatch(NeighborhoodTopology topology, ParticleSwarmOptimizer optimizer) {
+        final double[] pbestFitness = optimizer.checkpoint().pbestFitness;
+        final int[] expected = new int[pbestFitness.length];
+        final int[] actual = optimizer.getLocalBests();
+
+        topology.computeLocalBests(pbestFitness, expected);
+
+        /* ties may be broken differently, so compare the fitness each particle is pulled toward */
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(topology + " particle " + i, pbestFitness[expected[i]], pbestFitness[actual[i]], 0.0);
+        }
+    }
+
+    @org.junit.Test
+    public void testSurrogateArchivesEveryRealEvaluationOfPlainObjective() {
+        final ParticleSwarmOptimizer optimizer = createOptimizer(3);
+        final SurrogateScreen surrogate = new SurrogateScreen(BOUNDS, 2000, 0.2);
+        optimizer.setSurrogate(surrogate);
+
+        /* cutoffs are on, but RASTRIGIN can't stop early, so nothing it returns is a lower bound */
+        assertTrue(optimizer.isUseCutoffs());
+
+        optimizer.initializePopulation();
+        optimizer.runForIterations(20, EpochHistory.summaryOnly());
+
+        assertTrue(surrogate.getSurrogateEvaluations() > 0);
+        assertEquals(optimizer.getPopulationSize() + surrogate.getRealEvaluations(), surrogate.getArchiveCount());
+    }
+
+    @org.junit.Test
+    public void testSeededRunsReproduce() {
+        final ParticleSwarmOptimizer first = createOptimizer(20200601L);
+        final ParticleSwarmOptimizer second = createOptimizer(20200601L);
+
+        /* evaluation order must not matter, only the seed */
+        try (EvaluationExecutor executor = EvaluationExecutor.boundedPool(4)) {
+            second.setEvaluationExecutor(executor);
+
+            first.initializePopulation();
+            second.initializePopulation();
+
+            final List<EpochPerformanceResult> expected = first.runForIterations(30);
+            final List<EpochPerformanceResult> actual = second.runForIterations(30);
+
+            assertEquals(expected.size(), actual.size());
+
+            for (int epoch = 0; epoch < expected.size(); epoch++) {
+                assertArrayEquals(expected.get(epoch).fitnessValues, actual.get(epoch).fitnessValues, 0.0);
+                assertArrayEquals(expected.get(epoch).gbest, actual.get(epoch).gbest, 0.0);
+                assertEquals(expected.get(epoch).gbestFitness, actual.get(epoch).gbestFitness, 0.0);
+            }
+        }
+
+        assertArrayEquals(first.getGbest(), second.getGbest(), 0.0);
+        assertEquals(first.getGbestFitness(), second.getGbestFitness(), 0.0);
+    }
+}
@@ -0,0 +1,115 @@
+package org.wkh.swarmscale.optimization;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SwarmCheckpointTest {
+
+    private static final double[][] BOUNDS = {{-5.12, 5.12}, {-5.12, 5.12}, {-5.12, 5.12}};
+
+    private static final ObjectiveFunction RASTRIGIN = (x, iteration) -> {
+        double sum = 0.0;
+        for (double xi : x) {
+            sum += xi * xi - 10 * Math.cos(Math.PI * 2 * xi);
+        }
+
+        return 10 * x.length + sum;
+    };
+
+    private static ParticleSwarmOptimizer createOptimizer() {
+        return createOptimizer(RASTRIGIN);
+    }
+
+    private static ParticleSwarmOptimizer createOptimizer(ObjectiveFunction objective) {
+        final ParticleSwarmOptimizer optimizer = new ParticleSwarmOptimizer(20, BOUNDS.length, BOUNDS, objective);
+        optimizer.setEvaluationExecutor(EvaluationExecutor.callerRuns());
+        return optimizer;
+    }
+
+    @org.junit.Test
+    public void testRestoredRunMatchesUninterruptedRun() throws IOException {
+        final Path path = Files.createTempFile("swarm", ".checkpoint");
+
+        try {
+            final ParticleSwarmOptimizer original = createOptimizer();
+            original.initializePopulation();
+            original.runForIterations(10);
+
+            original.checkpoint().write(path);
+            original.runForIterations(15);
+
+            final ParticleSwarmOptimizer restored = ParticleSwarmOptimizer.restore(path, BOUNDS, RASTRIGIN);
+            restored.setEvaluationExecutor(EvaluationExecutor.callerRuns());
+
+            assertEquals(10, restored.getEpoch());
+            restored.runForIterations(15);
+
+            assertEquals(25, restored.getEpoch());
+            assertEquals(original.getEvaluations(), restored.getEvaluations());
+            assertEquals(original.getGbestFitness(), restored.getGbestFitness(), 0.0);
+            assertArrayEquals(original.getGbest(), restored.getGbest(), 0.0);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @org.junit.Test
+    public void testRestoredRunContinuesIterations() throws IOException {
+        final Path path = Files.createTempFile("swarm", ".checkpoint");
+
+        /* the optimum moves with the iteration, as with objectives seeded from it */
+        final ObjectiveFunction moving = (x, iteration) -> RASTRIGIN.evaluate(x, iteration) + Math.abs(x[0]
+                - (iteration % 7) * 0.5);
+
+        try {
+            final ParticleSwarmOptimizer original = createOptimizer(moving);
+            original.initializePopulation();
+            original.runForIterations(10);
+
+            original.checkpoint().write(path);
+
+            final List<Integer> expected = new ArrayList<>();
+            original.addEpochListener((result, epoch) -> expected.add(epoch));
+            original.runUntil(StopCondition.maxEpochs(25));
+
+            final ParticleSwarmOptimizer restored = ParticleSwarmOptimizer.restore(path, BOUNDS, moving);
+            restored.setEvaluationExecutor(EvaluationExecutor.callerRuns());
+
+            final List<Integer> actual = new ArrayList<>();
+            restored.addEpochListener((result, epoch) -> actual.add(epoch));
+            final OptimizationResult result = restored.runUntil(StopCondition.maxEpochs(25));
+
+            assertEquals(11, (int) actual.get(0));
+            assertEquals(expected, actual);
+            assertEquals(25, result.epochs);
+            assertEquals(original.getGbestFitness(), restored.getGbestFitness(), 0.0);
+            assertArrayEquals(original.getGbest(), restored.getGbest(), 0.0);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @org.junit.Test(expected = IOException.class)
+    public void testRejectsCorruptFile() throws IOException {
+        final Path path = Files.createTempFile("swarm", ".checkpoint");
+
+        try {
+            final ParticleSwarmOptimizer optimizer = createOptimizer();
+            optimizer.initializePopulation();
+            optimizer.checkpoint().write(path);
+
+            final byte[] bytes = Files.readAllBytes(path);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(path, bytes);
+
+            SwarmCheckpoint.read(path);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.wkh.swarmscale.optimization.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import org.wkh.swarmscale.optimization.ObjectiveFunction;
+
+import static org.junit.Assert.*;
+
+public class EvaluationCoordinatorTest {
+
+    private static final Map<String, Supplier<ObjectiveFunction>> REGISTRY = Collections.singletonMap(
+        "sphere", () -> (position, iteration) -> position[0] * position[0] + position[1] * position[1] + iteration
+    );
+
+    private static Thread startWorker(int port, int threads) {
+        final Thread thread = new Thread(new EvaluationWorker("localhost", port, threads, REGISTRY));
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static List<Future<Double>> evaluateConcurrently(EvaluationCoordinator coordinator, ExecutorService pool,
+            int count) {
+        final List<Future<Double>> futures = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            final double[] position = {i, 1.0};
+            futures.add(pool.submit(() -> coordinator.evaluate(position, 2)));
+        }
+
+        return futures;
+    }
+
+    @org.junit.Test
+    public void testEvaluatesAcrossWorkers() throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(16);
+
+        try (EvaluationCoordinator coordinator = new EvaluationCoordinator(0, "sphere", 4)) {
+            startWorker(coordinator.getPort(), 2);
+            startWorker(coordinator.getPort(), 3);
+            coordinator.awaitWorkers(2, 10000);
+
+            assertEquals(5, coordinator.getTotalCapacity());
+
+            final List<Future<Double>> futures = evaluateConcurrently(coordinator, pool, 200);
+
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(i * i + 1.0 + 2, futures.get(i).get(), 0.0);
+            }
+
+            assertEquals(200, coordinator.getCompleted());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @org.junit.Test
+    public void testSilentClientDoesNotBlockWorkers() throws Exception {
+        try (EvaluationCoordinator coordinator = new EvaluationCoordinator(0, "sphere", 4);
+                Socket silent = new Socket("localhost", coordinator.getPort())) {
+            startWorker(coordinator.getPort(), 2);
+            coordinator.awaitWorkers(1, 5000);
+
+            assertEquals(1.0 + 1.0 + 2, coordinator.evaluate(new double[] {1.0, 1.0}, 2), 0.0);
+        }
+    }
+
+    /* without a reply the evaluation would wait forever */
+    @org.junit.Test(expected = IllegalStateException.class, timeout = 10000)
+    public void testReportsErrorsInObjective() throws Exception {
+        final Map<String, Supplier<ObjectiveFunction>> registry = Collections.singletonMap(
+            "sphere", () -> (position, iteration) -> {
+                throw new StackOverflowError();
+            }
+        );
+
+        try (EvaluationCoordinator coordinator = new EvaluationCoordinator(0, "sphere", 4)) {
+            final Thread worker = new Thread(new EvaluationWorker("localhost", coordinator.getPort(), 1, registry));
+            worker.setDaemon(true);
+            worker.start();
+
+            coordinator.evaluate(new double[] {1.0, 1.0}, 2);
+        }
+    }
+
+    @org.junit.Test
+    public void testRedispatchesWorkOfDeadWorker() throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+
+        try (EvaluationCoordinator coordinator = new EvaluationCoordinator(0, "sphere", 4)) {
+            final List<Future<Double>> futures;
+
+            /* a worker that takes a batch and then dies without answering when the try block closes its socket */
+            try (Socket socket = new Socket("localhost", coordinator.getPort())) {
+                final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                final DataInputStream in = new DataInputStream(socket.getInputStream());
+
+                WireProtocol.writeHeader(out);
+                out.writeInt(4);
+                out.flush();
+
+                WireProtocol.readHeader(in);
+                assertEquals("sphere", in.readUTF());
+
+                futures = evaluateConcurrently(coordinator, pool, 8);
+
+                assertEquals(WireProtocol.WORK, in.readByte());
+                assertTrue(in.readInt() > 0);
+            }
+
+            startWorker(coordinator.getPort(), 2);
+
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(i * i + 1.0 + 2, futures.get(i).get(), 0.0);
+            }
+
+            assertTrue(coordinator.getRedispatched() > 0);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.wkh.swarmscale.queue;
+
+import java.util.SplittableRandom;
+import org.wkh.swarmscale.optimization.EvaluationExecutor;
+
+import static org.junit.Assert.*;
+
+public class ClusterQueueSimulationTest {
+    @org.junit.Test
+    public void testAssignorsBalancePartitions() {
+        final SplittableRandom rng = new SplittableRandom(1);
+
+        for (PartitionAssignor assignor : PartitionAssignor.values()) {
+            final int[] owners = new int[300];
+            final int[] loads = new int[64];
+            int consumers = 1;
+
+            assignor.assign(owners, owners.length, consumers, loads);
+
+            for (int trial = 0; trial < 200; trial++) {
+                /* keep the partitions for a while so that reassignments of the same partitions can be compared */
+                final int partitions = owners.length - (trial / 50) * 70;
+                final int previousConsumers = consumers;
+                final int[] previous = owners.clone();
+                consumers = rng.nextInt(loads.length) + 1;
+
+                assignor.assign(owners, partitions, consumers, loads);
+
+                final int[] counted = new int[consumers];
+                int moved = 0;
+
+                for (int p = 0; p < partitions; p++) {
+                    counted[owners[p]]++;
+
+                    if (owners[p] != previous[p]) {
+                        moved++;
+                    }
+                }
+
+                for (int c = 0; c < consumers; c++) {
+                    assertEquals(loads[c], counted[c]);
+                    assertTrue(loads[c] == partitions / consumers
+                            || loads[c] == (partitions + consumers - 1) / consumers);
+                }
+
+                /* adding consumers only takes partitions from the others until everyone has their share */
+                if (assignor == PartitionAssignor.STICKY && consumers > previousConsumers && trial % 50 != 0) {
+                    int received = 0;
+
+                    for (int c = previousConsumers; c < consumers; c++) {
+                        received += loads[c];
+                    }
+
+                    assertTrue(moved <= received + partitions % consumers);
+                }
+            }
+        }
+    }
+
+    @org.junit.Test
+    public void testResultsDoNotDependOnParts() {
+        final ClusterLayout layout = new ClusterLayout();
+
+        for (int i = 0; i < 12; i++) {
+            final int topic = layout.addTopic(16 + 8 * i, 500, 3000);
+            layout.addConsumerGroup(topic);
+
+            if (i % 3 == 0) {
+                layout.addConsumerGroup(topic);
+            }
+        }
+
+        try (EvaluationExecutor executor = EvaluationExecutor.boundedPool(3)) {
+            for (long brokerCapacity : new long[] {ClusterQueueSimulation.UNLIMITED, 20000}) {
+                for (PartitionAssignor assignor : PartitionAssignor.values()) {
+                    final ClusterQueueSimulation sequential = simulation(layout, brokerCapacity, assignor);
+                    final ClusterQueueSimulation parallel = simulation(layout, brokerCapacity, assignor);
+                    parallel.setExecutor(executor, 5);
+
+                    assertTrue(sequential.run(300, Double.POSITIVE_INFINITY));
+                    assertTrue(parallel.run(300, Double.POSITIVE_INFINITY));
+
+                    for (int g = 0; g < layout.getGroupCount(); g++) {
+                        assertEquals(sequential.getLag(g), parallel.getLag(g));
+                        assertEquals(sequential.getConsumerTime(g), parallel.getConsumerTime(g));
+                        assertEquals(sequential.getEnqueuedJobs(g) - sequential.getProcessedJobs(g),
+                                sequential.getLag(g));
+                        assertTrue(sequential.getRebalances(g) > 0);
+                    }
+                }
+            }
+        }
+    }
+
+    @org.junit.Test
+    public void testConsumersWithMorePartitionsThanJobsKeepUp() {
+        final ClusterLayout layout = new ClusterLayout();
+        layout.addConsumerGroup(layout.addTopic(1024, 100, 100));
+
+        for (long brokerCapacity : new long[] {ClusterQueueSimulation.UNLIMITED, 50}) {
+            /* a single consumer processes about 545 jobs per timestep, so less than one per partition */
+            final ClusterQueueSimulation simulation = new ClusterQueueSimulation(layout, 1, 1, 1, 1, 300, 300, 0.9,
+                    brokerCapacity, PartitionAssignor.ROUND_ROBIN, 0.05, 0.001, 0.01, 20, 7);
+
+            assertTrue(simulation.run(100, Double.POSITIVE_INFINITY));
+
+            if (brokerCapacity == ClusterQueueSimulation.UNLIMITED) {
+                assertEquals(10000, simulation.getEnqueuedJobs(0));
+                assertTrue(simulation.getLag(0) < 1024);
+            } else {
+                assertTrue(simulation.getProcessedJobs(0) >= 99 * (brokerCapacity - 1));
+            }
+        }
+    }
+
+    private static ClusterQueueSimulation simulation(ClusterLayout layout, long brokerCapacity,
+            PartitionAssignor assignor) {
+        return new ClusterQueueSimulation(layout, 1, 32, 1, 3, 40, 60, 0.95, brokerCapacity, assignor,
+                0.05, 0.001, 0.01, 20, 7);
+    }
+}
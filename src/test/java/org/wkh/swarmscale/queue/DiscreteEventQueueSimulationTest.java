@@ -0,0 +1,61 @@
+package org.wkh.swarmscale.queue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.logging.Level;
+import org.wkh.swarmscale.optimization.MultiFidelityObjectiveFunction;
+
+import static org.junit.Assert.*;
+
+public class DiscreteEventQueueSimulationTest {
+    @org.junit.Test
+    public void testEventDrivenMatchesStepping() {
+        final Map<Integer, Integer> workloads = new HashMap<>();
+
+        for (int timestep = 1; timestep <= 3000; timestep += 300) {
+            workloads.put(timestep, 1000);
+        }
+
+        final CostMinimizingObjectiveFunction objective = new CostMinimizingObjectiveFunction(
+                3000, workloads, 1, 1, 30, 2, 6, 20, 40, 0.9, Level.OFF, 42);
+        final MultiFidelityObjectiveFunction eventDriven = objective.eventDriven();
+        final double[][] bounds = CostMinimizingOptimizer.BOUNDS;
+
+        final SplittableRandom rng = new SplittableRandom(1);
+
+        for (int i = 0; i < 20; i++) {
+            final double[] position = new double[bounds.length];
+
+            for (int d = 0; d < bounds.length; d++) {
+                position[d] = bounds[d][0] + rng.nextDouble() * (bounds[d][1] - bounds[d][0]);
+            }
+
+            /* small gains so that some candidates actually scale up and down */
+            if (i % 2 == 0) {
+                position[0] *= 0.001;
+                position[1] *= 0.0001;
+                position[2] *= 0.001;
+            }
+
+            assertEquals(objective.evaluate(position, 3), eventDriven.evaluate(position, 3), 0.0);
+            assertEquals(objective.evaluate(position, 3, 0.5, 2000.0),
+                    eventDriven.evaluate(position, 3, 0.5, 2000.0), 0.0);
+        }
+    }
+
+    @org.junit.Test
+    public void testIdleTicksAreSkipped() {
+        final DiscreteEventQueueSimulation simulation =
+                new DiscreteEventQueueSimulation(1, 1, 30, 2, 6, 20, 40, 0.9, 0.005, 0.0, 0.0, 10, 42);
+
+        simulation.scheduleWorkload(1, 500);
+        simulation.scheduleWorkload(90000, 500);
+
+        assertTrue(simulation.run(100000, Double.POSITIVE_INFINITY));
+        assertEquals(100000, simulation.getTimestep());
+        assertEquals(100000, simulation.getTicks() + simulation.getSkippedTicks());
+        assertTrue(simulation.getSkippedTicks() > 90000);
+        assertEquals(1000, simulation.getEnqueuedJobs());
+    }
+}
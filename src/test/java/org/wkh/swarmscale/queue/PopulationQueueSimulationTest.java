@@ -0,0 +1,55 @@
+package org.wkh.swarmscale.queue;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import org.wkh.swarmscale.optimization.BatchObjectiveFunction;
+import org.wkh.swarmscale.optimization.EvaluationExecutor;
+
+import static org.junit.Assert.*;
+
+public class PopulationQueueSimulationTest {
+    @org.junit.Test
+    public void testLockstepMatchesSingleSimulations() {
+        final CostMinimizingObjectiveFunction objective =
+                (CostMinimizingObjectiveFunction) CostMinimizingOptimizer.createObjectiveFunction();
+        final double[][] bounds = CostMinimizingOptimizer.BOUNDS;
+
+        final SplittableRandom rng = new SplittableRandom(1);
+        final double[][] positions = new double[40][bounds.length];
+
+        for (int i = 0; i < positions.length; i++) {
+            for (int d = 0; d < bounds.length; d++) {
+                positions[i][d] = bounds[d][0] + rng.nextDouble() * (bounds[d][1] - bounds[d][0]);
+            }
+
+            /* small gains so that some candidates actually scale up and down */
+            if (i % 2 == 0) {
+                positions[i][0] *= 0.001;
+                positions[i][1] *= 0.0001;
+                positions[i][2] *= 0.001;
+            }
+        }
+
+        final double[] cutoffs = new double[positions.length];
+        Arrays.fill(cutoffs, 4000.0);
+
+        final double[] expected = new double[positions.length];
+        final double[] expectedWithCutoffs = new double[positions.length];
+
+        for (int i = 0; i < positions.length; i++) {
+            expected[i] = objective.evaluate(positions[i], 7);
+            expectedWithCutoffs[i] = objective.evaluate(positions[i], 7, cutoffs[i]);
+        }
+
+        final BatchObjectiveFunction lockstep = objective.lockstep(EvaluationExecutor.callerRuns(), 16);
+
+        final double[] actual = new double[positions.length];
+        final double[] actualWithCutoffs = new double[positions.length];
+
+        lockstep.evaluate(positions, 7, actual);
+        lockstep.evaluate(positions, 7, cutoffs, actualWithCutoffs);
+
+        assertArrayEquals(expected, actual, 0.0);
+        assertArrayEquals(expectedWithCutoffs, actualWithCutoffs, 0.0);
+    }
+}
@@ -1,5 +1,10 @@
 package org.wkh.swarmscale.queue;
 
+import java.util.Collections;
+import java.util.LongSummaryStatistics;
+import java.util.SplittableRandom;
+import java.util.logging.Level;
+
 import static org.junit.Assert.*;
 
 public class QueueSimulationTest {
@@ -62,4 +67,140 @@ public class QueueSimulationTest {
         
         assertEquals(queue.getProcessedJobs(), 1002);
     }
+    
+    @org.junit.Test
+    public void testWaterFillingMatchesLeastLoadedPlacement() {
+        final SplittableRandom rng = new SplittableRandom(1);
+        
+        for(int trial = 0; trial < 1000; trial++) {
+            final int partitions = rng.nextInt(10) + 1;
+            final long[] lags = new long[partitions + 2];
+            
+            for(int i = 0; i < lags.length; i++) {
+                lags[i] = rng.nextInt(20);
+            }
+            
+            final long count = rng.nextInt(100);
+            
+            /* place one job at a time on the least loaded active partition */
+            final long[] expected = lags.clone();
+            
+            for(long job = 0; job < count; job++) {
+                int least = 0;
+                
+                for(int i = 1; i < partitions; i++) {
+                    if (expected[i] < expected[least]) {
+                        least = i;
+                    }
+                }
+                
+                expected[least]++;
+            }
+            
+            JobDistribution.waterFill(lags, partitions, count, new long[partitions]);
+            
+            assertArrayEquals(expected, lags);
+        }
+    }
+    
+    @org.junit.Test
+    public void testLagSummaryMatchesPartitions() {
+        final SplittableRandom rng = new SplittableRandom(5);
+        
+        for(int trial = 0; trial < 100; trial++) {
+            final QueueSimulation queue = new QueueSimulation(rng.nextInt(5) + 1, 1, 20, 1, 3, 5, 30, 0.9, trial);
+            
+            if (trial % 2 == 0) {
+                queue.setJobDistribution(JobDistribution.WATER_FILLING);
+            }
+            
+            for(int timestep = 1; timestep <= 100; timestep++) {
+                switch (rng.nextInt(4)) {
+                    case 0:
+                        queue.enqueueJobs(rng.nextInt(100));
+                        break;
+                    case 1:
+                        queue.commissionConsumer(timestep);
+                        break;
+                    case 2:
+                        queue.deactivatePartition();
+                        break;
+                    default:
+                        queue.enqueueBatchWorkload(rng.nextInt(50));
+                        queue.distributeBatchWorkToPartitions(rng.nextInt(60));
+                }
+                
+                queue.stepSystem(timestep);
+                
+                final LongSummaryStatistics statistics = queue.getLagStatistics();
+                
+                assertEquals(statistics.getSum() + queue.getBatchLag(), queue.getTotalLag());
+                assertEquals(statistics.getMin(), queue.getMinimumLag());
+                assertEquals(statistics.getMax(), queue.getMaximumLag());
+            }
+        }
+    }
+    
+    @org.junit.Test
+    public void testLatenciesFollowFifoCohorts() {
+        /* one consumer processing exactly 10 jobs per step */
+        final QueueSimulation queue = new QueueSimulation(1, 1, 1, 1, 1, 10, 10, 0.0, 1);
+        queue.enableLatencyTracking();
+        
+        /* jobs enqueued before step 1 arrive in step 1, so those processed in it waited 0 timesteps */
+        queue.enqueueJobs(25);
+        queue.stepSystem(1);
+        assertEquals(10, queue.getStepLatencies().getCount());
+        assertEquals(0, queue.getStepLatencies().getMaximum());
+        
+        queue.stepSystem(2);
+        assertEquals(1, queue.getStepLatencies().getPercentile(50));
+        
+        queue.enqueueJobs(15);
+        queue.stepSystem(3);
+        
+        /* the last 5 of the first batch go first, then 5 of the new one */
+        final LatencyHistogram step = queue.getStepLatencies();
+        assertEquals(10, step.getCount());
+        assertEquals(0, step.getPercentile(50));
+        assertEquals(2, step.getPercentile(51));
+        assertEquals(2, step.getMaximum());
+        
+        final LatencyHistogram all = queue.getLatencies();
+        assertEquals(queue.getProcessedJobs(), all.getCount());
+        assertEquals((10 * 0 + 10 * 1 + 5 * 2 + 5 * 0) / 30.0, all.getMean(), 1e-12);
+    }
+    
+    @org.junit.Test
+    public void testBatchProcessedInNextStepHasLatencyOne() {
+        /* one consumer processing 10 jobs per step, and 5 jobs arriving in timestep 1 */
+        final CostMinimizingObjectiveFunction objective = new CostMinimizingObjectiveFunction(3,
+                Collections.singletonMap(1, 5), 1, 1, 1, 1, 1, 10, 10, 0.0, Level.OFF, 7);
+        final double[] position = new double[] {0.0, 0.0, 0.0, 0.0};
+        
+        /* the batch is distributed at the end of timestep 1 and processed in timestep 2 */
+        final double consumerTime = objective.evaluate(position, 0);
+        assertEquals(3.0, consumerTime, 0.0);
+        
+        objective.setLatencyPenalty(100.0, 0, 10.0);
+        assertEquals(consumerTime + 10.0, objective.evaluate(position, 0), 0.0);
+        
+        objective.setLatencyPenalty(100.0, 1, 10.0);
+        assertEquals(consumerTime, objective.evaluate(position, 0), 0.0);
+    }
+    
+    @org.junit.Test
+    public void testLatencyPenaltyOnlyAddsCost() {
+        final CostMinimizingObjectiveFunction objective =
+                (CostMinimizingObjectiveFunction) CostMinimizingOptimizer.createObjectiveFunction();
+        final double[] position = new double[] {0.002, 0.0, 0.0, 433.0};
+        
+        final double withoutPenalty = objective.evaluate(position, 0);
+        
+        objective.setLatencyPenalty(99.0, 1000, 10.0);
+        assertEquals(withoutPenalty, objective.evaluate(position, 0), 0.0);
+        
+        objective.setLatencyPenalty(99.0, 1, 10.0);
+        assertTrue(objective.evaluate(position, 0) > withoutPenalty);
+    }
 }
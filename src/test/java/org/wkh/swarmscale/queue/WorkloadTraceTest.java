@@ -0,0 +1,83 @@
+package org.wkh.swarmscale.queue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.logging.Level;
+import org.wkh.swarmscale.optimization.EvaluationExecutor;
+import org.wkh.swarmscale.optimization.MultiFidelityObjectiveFunction;
+
+import static org.junit.Assert.*;
+
+public class WorkloadTraceTest {
+    @org.junit.Test
+    public void testConvertsCsvWithGaps() throws IOException {
+        final Path csv = Files.createTempFile("workload", ".csv");
+        final Path path = Files.createTempFile("workload", ".trace");
+
+        try {
+            Files.write(csv, Arrays.asList("minute,jobs", "# exported", "2,5", "", "3, 7", "6,1"),
+                    StandardCharsets.UTF_8);
+
+            assertEquals(6, WorkloadTrace.convertCsv(csv, path));
+
+            final WorkloadTrace trace = WorkloadTrace.open(path);
+            final int[] workloads = new int[8];
+
+            for (int timestep = 0; timestep < workloads.length; timestep++) {
+                workloads[timestep] = trace.getWorkload(timestep);
+            }
+
+            assertEquals(6, trace.getTimesteps());
+            assertArrayEquals(new int[] {0, 0, 5, 7, 0, 0, 1, 0}, workloads);
+        } finally {
+            Files.deleteIfExists(csv);
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @org.junit.Test
+    public void testTraceReplayMatchesInMemoryTimeline() throws IOException {
+        final Path path = Files.createTempFile("workload", ".trace");
+
+        try {
+            final SplittableRandom rng = new SplittableRandom(3);
+            final int[] workloads = new int[2000];
+
+            for (int i = 0; i < workloads.length; i++) {
+                workloads[i] = rng.nextInt(4) == 0 ? 0 : rng.nextInt(60);
+            }
+
+            WorkloadTrace.write(path, WorkloadTimeline.of(workloads));
+
+            final CostMinimizingObjectiveFunction inMemory = new CostMinimizingObjectiveFunction(
+                    2000, WorkloadTimeline.of(workloads), 1, 1, 20, 1, 3, 25, 30, 0.9, Level.OFF, 7);
+            final CostMinimizingObjectiveFunction replayed = new CostMinimizingObjectiveFunction(
+                    2000, WorkloadTrace.open(path), 1, 1, 20, 1, 3, 25, 30, 0.9, Level.OFF, 7);
+            final MultiFidelityObjectiveFunction eventDriven = replayed.eventDriven();
+
+            final double[][] positions = new double[10][];
+
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = new double[] {rng.nextDouble(), rng.nextDouble() * 0.1, rng.nextDouble() * 0.5,
+                    rng.nextDouble() * 300};
+            }
+
+            final double[] lockstep = new double[positions.length];
+            replayed.lockstep(EvaluationExecutor.callerRuns(), 4).evaluate(positions, 0, lockstep);
+
+            for (int i = 0; i < positions.length; i++) {
+                final double expected = inMemory.evaluate(positions[i], 0);
+
+                assertEquals(expected, replayed.evaluate(positions[i], 0), 0.0);
+                assertEquals(expected, eventDriven.evaluate(positions[i], 0), 0.0);
+                assertEquals(expected, lockstep[i], 0.0);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}